@@ -0,0 +1,31 @@
+package org.vaadin.addons.upload;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all the benchmarks of the add-on, reporting the allocation rates next to the throughput.
+ * <br/>
+ * The arguments are the usual JMH command line options, e.g. <code>-f 1 -wi 3 -i 5 ProducerBenchmark</code>.
+ * With no benchmark name all of them run.
+ * 
+ * @author bogdanudrescu
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * Run the benchmarks.
+	 * @param args	the JMH command line options.
+	 * @throws Exception	if the benchmarks can't run.
+	 */
+	public static void main(String[] args) throws Exception {
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(new CommandLineOptions(args));
+		options.addProfiler(GCProfiler.class);
+
+		new Runner(options.build()).run();
+	}
+
+}
@@ -0,0 +1,205 @@
+package org.vaadin.addons.upload;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.shared.communication.PushMode;
+import com.vaadin.shared.ui.ui.Transport;
+import com.vaadin.ui.PushConfiguration;
+import com.vaadin.ui.UI;
+
+/**
+ * Fakes the current Vaadin session and UI, so the components run without a servlet container.
+ * 
+ * @author bogdanudrescu
+ */
+class HeadlessVaadin {
+
+	/**
+	 * UI counting the pushes instead of sending them to a browser.
+	 */
+	@SuppressWarnings("serial")
+	static class HeadlessUI extends UI {
+
+		/*
+		 * The number of pushes.
+		 */
+		private final AtomicLong pushCount = new AtomicLong();
+
+		/*
+		 * The push configuration not needing a service.
+		 */
+		private final PushConfiguration pushConfiguration = new HeadlessPushConfiguration();
+
+		/* (non-Javadoc)
+		 * @see com.vaadin.ui.UI#init(com.vaadin.server.VaadinRequest)
+		 */
+		@Override
+		protected void init(VaadinRequest request) {
+		}
+
+		/* (non-Javadoc)
+		 * @see com.vaadin.ui.UI#push()
+		 */
+		@Override
+		public void push() {
+			pushCount.incrementAndGet();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.vaadin.ui.UI#getPushConfiguration()
+		 */
+		@Override
+		public PushConfiguration getPushConfiguration() {
+			return pushConfiguration;
+		}
+
+		/**
+		 * Gets the number of pushes so far.
+		 * @return	the push count.
+		 */
+		long getPushCount() {
+			return pushCount.get();
+		}
+
+		/*
+		 * Writes the push mode directly in the state: the real configuration checks with the service that push
+		 * is available, and opens a push connection.
+		 */
+		private class HeadlessPushConfiguration implements PushConfiguration {
+
+			@Override
+			public PushMode getPushMode() {
+				return getState(false).pushConfiguration.mode;
+			}
+
+			@Override
+			public void setPushMode(PushMode pushMode) {
+				getState().pushConfiguration.mode = pushMode;
+			}
+
+			@Override
+			public Transport getTransport() {
+				return HeadlessUI.super.getPushConfiguration().getTransport();
+			}
+
+			@Override
+			public void setTransport(Transport transport) {
+				HeadlessUI.super.getPushConfiguration().setTransport(transport);
+			}
+
+			@Override
+			public Transport getFallbackTransport() {
+				return HeadlessUI.super.getPushConfiguration().getFallbackTransport();
+			}
+
+			@Override
+			public void setFallbackTransport(Transport fallbackTransport) {
+				HeadlessUI.super.getPushConfiguration().setFallbackTransport(fallbackTransport);
+			}
+
+			@Override
+			public String getParameter(String parameter) {
+				return HeadlessUI.super.getPushConfiguration().getParameter(parameter);
+			}
+
+			@Override
+			public Collection<String> getParameterNames() {
+				return HeadlessUI.super.getPushConfiguration().getParameterNames();
+			}
+
+			@Override
+			public void setParameter(String parameter, String value) {
+				HeadlessUI.super.getPushConfiguration().setParameter(parameter, value);
+			}
+
+		}
+
+	}
+
+	/**
+	 * Session with no service, always locked by the current thread.
+	 */
+	@SuppressWarnings("serial")
+	static class HeadlessSession extends VaadinSession {
+
+		/**
+		 * Create a session with no service.
+		 */
+		HeadlessSession() {
+			super(null);
+		}
+
+		/* (non-Javadoc)
+		 * @see com.vaadin.server.VaadinSession#hasLock()
+		 */
+		@Override
+		public boolean hasLock() {
+			return true;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.vaadin.server.VaadinSession#lock()
+		 */
+		@Override
+		public void lock() {
+		}
+
+		/* (non-Javadoc)
+		 * @see com.vaadin.server.VaadinSession#unlock()
+		 */
+		@Override
+		public void unlock() {
+		}
+
+	}
+
+	/**
+	 * Sets a headless session and UI as the current ones of the calling thread.
+	 * @param pushMode	the push mode of the UI.
+	 * @return	the current UI.
+	 */
+	static HeadlessUI install(PushMode pushMode) {
+		HeadlessSession session = new HeadlessSession();
+		VaadinSession.setCurrent(session);
+
+		HeadlessUI ui = createUI(pushMode);
+		install(session, ui);
+
+		return ui;
+	}
+
+	/**
+	 * Sets the specified session and UI as the current ones of the calling thread.
+	 * @param session	the session.
+	 * @param ui		the UI.
+	 */
+	static void install(VaadinSession session, UI ui) {
+		VaadinSession.setCurrent(session);
+		UI.setCurrent(ui);
+	}
+
+	/**
+	 * Create a headless UI attached to the current session, which must be set already.
+	 * @param pushMode	the push mode of the UI.
+	 * @return	the new UI.
+	 */
+	static HeadlessUI createUI(PushMode pushMode) {
+		HeadlessUI ui = new HeadlessUI();
+		ui.setSession(VaadinSession.getCurrent());
+		ui.getPushConfiguration().setPushMode(pushMode);
+
+		return ui;
+	}
+
+	/**
+	 * Clear the current session and UI of the calling thread.
+	 */
+	static void uninstall() {
+		UI.setCurrent(null);
+		VaadinSession.setCurrent(null);
+	}
+
+}
@@ -0,0 +1,560 @@
+package org.vaadin.addons.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.vaadin.addons.upload.HeadlessVaadin.HeadlessSession;
+import org.vaadin.addons.upload.HeadlessVaadin.HeadlessUI;
+import org.vaadin.addons.upload.UploadProducer.UploadProducerAdapter;
+import org.vaadin.addons.upload.UploadProgress.UploadEventsHandler;
+
+import com.vaadin.shared.communication.PushMode;
+import com.vaadin.ui.Upload;
+import com.vaadin.ui.Upload.FailedEvent;
+import com.vaadin.ui.Upload.StartedEvent;
+import com.vaadin.ui.Upload.SucceededEvent;
+
+/**
+ * Load generator simulating browsers uploading files concurrently, with no browser and no servlet container.
+ * <br/>
+ * Each simulated browser drives {@link UploadProgress} components through the event sequence of the Vaadin upload:
+ * started and receive under the session lock, the data written to the receive stream outside of it at the link speed,
+ * progress notifications every 500ms under the lock, then succeeded or failed. At the end it reports the per upload
+ * latency, the delay until the listeners are notified, the pushes and the heap high-water mark.
+ * <br/>
+ * Options, sizes accept the k, m and g suffixes:
+ * <pre>
+ * --concurrency=50              simultaneous uploads
+ * --sessions=50                 sessions the uploads are spread over, sharing their lock and UI
+ * --uploads=1000                total number of uploads
+ * --size=lognormal:256k:1.0     file sizes: fixed:SIZE, uniform:MIN:MAX or lognormal:MEDIAN:SIGMA
+ * --link=1m                     link speed of each upload in bytes per second, 0 for unlimited
+ * --failures=0                  fraction of the uploads losing the connection midway
+ * --storage=memory              memory, file or adaptive
+ * --push=MANUAL                 push mode of the UIs
+ * --progress-interval=500       milliseconds between two progress notifications
+ * </pre>
+ * 
+ * @author bogdanudrescu
+ */
+public class LoadTest {
+
+	/*
+	 * The mime type of the uploads.
+	 */
+	private static final String MIME_TYPE = "application/octet-stream";
+
+	/*
+	 * The chunk size Vaadin writes with.
+	 */
+	private static final int CHUNK_SIZE = 4 * 1024;
+
+	/**
+	 * Run the load test.
+	 * @param args	the options.
+	 * @throws Exception	if the test can't run.
+	 */
+	public static void main(String[] args) throws Exception {
+		LoadTest loadTest = new LoadTest();
+		for (String arg : args) {
+			loadTest.setOption(arg);
+		}
+
+		loadTest.run();
+	}
+
+	/*
+	 * The options.
+	 */
+	private int concurrency = 50;
+	private int sessions = -1;
+	private int uploads = 1000;
+	private String sizeDistribution = "lognormal:256k:1.0";
+	private long linkSpeed = 1024 * 1024;
+	private double failureRate;
+	private String storageName = "memory";
+	private PushMode pushMode = PushMode.MANUAL;
+	private long progressInterval = TimeUnit.MILLISECONDS.toNanos(500);
+
+	/*
+	 * Where the uploads are stored.
+	 */
+	private UploadStorage storage;
+
+	/*
+	 * The number of uploads started.
+	 */
+	private final AtomicInteger started = new AtomicInteger();
+
+	/*
+	 * The measurements.
+	 */
+	private final Samples latencies = new Samples();
+	private final Samples listenerDelays = new Samples();
+	private final Samples progressDispatches = new Samples();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+
+	/*
+	 * The first error of a simulated browser, which makes the measurements meaningless.
+	 */
+	private final AtomicReference<Exception> crash = new AtomicReference<>();
+
+	/*
+	 * The UIs of the sessions.
+	 */
+	private HeadlessUI[] uis;
+
+	/*
+	 * Parse an option.
+	 */
+	private void setOption(String arg) {
+		int separator = arg.indexOf('=');
+		if (!arg.startsWith("--") || separator < 0) {
+			throw new IllegalArgumentException("Options look like --name=value: " + arg);
+		}
+
+		String name = arg.substring(2, separator);
+		String value = arg.substring(separator + 1);
+
+		switch (name) {
+		case "concurrency":
+			concurrency = Integer.parseInt(value);
+			break;
+		case "sessions":
+			sessions = Integer.parseInt(value);
+			break;
+		case "uploads":
+			uploads = Integer.parseInt(value);
+			break;
+		case "size":
+			sizeDistribution = value;
+			sampleSize(new Random());
+			break;
+		case "link":
+			linkSpeed = parseSize(value);
+			break;
+		case "failures":
+			failureRate = Double.parseDouble(value);
+			break;
+		case "storage":
+			storageName = value;
+			break;
+		case "push":
+			pushMode = PushMode.valueOf(value);
+			break;
+		case "progress-interval":
+			progressInterval = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(value));
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown option: " + arg);
+		}
+	}
+
+	/*
+	 * Run the simulated browsers and print the report.
+	 */
+	private void run() throws Exception {
+		if (sessions <= 0) {
+			sessions = concurrency;
+		}
+
+		if ("file".equals(storageName)) {
+			storage = FileUploadStorage.getInstance(Files.createTempDirectory("upload-load-test").toFile());
+		} else if ("adaptive".equals(storageName)) {
+			storage = AdaptiveUploadStorage.getInstance(Files.createTempDirectory("upload-load-test").toFile());
+		} else {
+			storage = MemoryUploadStorage.getInstance();
+		}
+
+		HeadlessSession[] headlessSessions = new HeadlessSession[sessions];
+		ReentrantLock[] locks = new ReentrantLock[sessions];
+		uis = new HeadlessUI[sessions];
+		for (int i = 0; i < sessions; i++) {
+			headlessSessions[i] = new HeadlessSession();
+			locks[i] = new ReentrantLock();
+
+			HeadlessVaadin.install(headlessSessions[i], null);
+			uis[i] = HeadlessVaadin.createUI(pushMode);
+		}
+		HeadlessVaadin.uninstall();
+
+		resetHeapPeak();
+		long start = System.nanoTime();
+
+		List<Thread> threads = new ArrayList<>(concurrency);
+		for (int i = 0; i < concurrency; i++) {
+			int session = i % sessions;
+			Thread thread = new Thread(new Browser(i, headlessSessions[session], uis[session], locks[session]), "browser-" + i);
+			thread.start();
+			threads.add(thread);
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		if (crash.get() != null) {
+			throw new IllegalStateException("A simulated browser crashed, no report", crash.get());
+		}
+
+		report(System.nanoTime() - start);
+	}
+
+	/*
+	 * Print the measurements.
+	 */
+	private void report(long duration) {
+		double seconds = duration / 1e9;
+		int done = latencies.size();
+
+		long pushes = 0;
+		for (HeadlessUI ui : uis) {
+			pushes += ui.getPushCount();
+		}
+
+		System.out.println("Concurrency " + concurrency + ", sessions " + sessions + ", sizes " + sizeDistribution + ", link "
+				+ (linkSpeed > 0 ? linkSpeed + " B/s" : "unlimited") + ", storage " + storageName + ", push " + pushMode);
+		System.out.printf("Uploads:            %d done, %d failed in %.1f s (%.1f uploads/s, %.1f MB/s)%n", done, failed.get(), seconds,
+				done / seconds, bytes.get() / seconds / (1024 * 1024));
+		System.out.println("Upload latency:     " + latencies.summary(TimeUnit.MILLISECONDS, "ms"));
+		System.out.println("Listener delay:     " + listenerDelays.summary(TimeUnit.MICROSECONDS, "us"));
+		System.out.println("Progress dispatch:  " + progressDispatches.summary(TimeUnit.MICROSECONDS, "us"));
+		System.out.printf("Pushes:             %d (%.1f per upload)%n", pushes, pushes / (double) Math.max(done + failed.get(), 1));
+		System.out.printf("Heap high-water:    %.1f MB%n", heapPeak() / (1024.0 * 1024));
+	}
+
+	/*
+	 * Reset the peak usage of the heap pools.
+	 */
+	private static void resetHeapPeak() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/*
+	 * Gets the peak usage of the heap pools since the reset.
+	 */
+	private static long heapPeak() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+
+		return peak;
+	}
+
+	/*
+	 * Pick a file size from the distribution.
+	 */
+	private long sampleSize(Random random) {
+		String[] parts = sizeDistribution.split(":");
+		switch (parts[0]) {
+		case "fixed":
+			return parseSize(parts[1]);
+
+		case "uniform":
+			long min = parseSize(parts[1]);
+			return min + (long) (random.nextDouble() * (parseSize(parts[2]) - min));
+
+		case "lognormal":
+			return Math.max(1, (long) (parseSize(parts[1]) * Math.exp(Double.parseDouble(parts[2]) * random.nextGaussian())));
+
+		default:
+			throw new IllegalArgumentException("Unknown size distribution: " + sizeDistribution);
+		}
+	}
+
+	/*
+	 * Parse a size with an optional k, m or g suffix.
+	 */
+	private static long parseSize(String value) {
+		String number = value.toLowerCase();
+		long unit = 1;
+
+		switch (number.charAt(number.length() - 1)) {
+		case 'k':
+			unit = 1024;
+			break;
+		case 'm':
+			unit = 1024 * 1024;
+			break;
+		case 'g':
+			unit = 1024 * 1024 * 1024;
+			break;
+		}
+
+		if (unit > 1) {
+			number = number.substring(0, number.length() - 1);
+		}
+
+		return (long) (Double.parseDouble(number) * unit);
+	}
+
+	/*
+	 * A simulated browser, uploading one file after the other.
+	 */
+	private class Browser implements Runnable {
+
+		/*
+		 * The session of the browser.
+		 */
+		private final HeadlessSession session;
+
+		/*
+		 * The UI of the browser.
+		 */
+		private final HeadlessUI ui;
+
+		/*
+		 * The session lock, Vaadin holds it while it notifies the upload events.
+		 */
+		private final ReentrantLock lock;
+
+		/*
+		 * Picks the sizes and failures.
+		 */
+		private final Random random;
+
+		/*
+		 * The data written.
+		 */
+		private final byte[] chunk = new byte[CHUNK_SIZE];
+
+		/*
+		 * When the event being dispatched was fired.
+		 */
+		private long dispatchStart;
+
+		/*
+		 * Measures the delay until the listeners are notified, registered after the component's own listeners.
+		 */
+		@SuppressWarnings("serial")
+		private final UploadProducerAdapter probe = new UploadProducerAdapter() {
+
+			@Override
+			public void uploadStarted(UploadProgress uploadProgress) {
+				listenerDelays.add(System.nanoTime() - dispatchStart);
+			}
+
+			@Override
+			public void uploadDone(UploadProgress uploadProgress) {
+				listenerDelays.add(System.nanoTime() - dispatchStart);
+			}
+
+			@Override
+			public void uploadFailed(UploadProgress uploadProgress) {
+				listenerDelays.add(System.nanoTime() - dispatchStart);
+			}
+
+		};
+
+		/*
+		 * Create a browser.
+		 */
+		private Browser(int index, HeadlessSession session, HeadlessUI ui, ReentrantLock lock) {
+			this.session = session;
+			this.ui = ui;
+			this.lock = lock;
+			this.random = new Random(index);
+
+			random.nextBytes(chunk);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			HeadlessVaadin.install(session, ui);
+
+			try {
+				int index;
+				while ((index = started.getAndIncrement()) < uploads) {
+					upload(index, sampleSize(random), random.nextDouble() < failureRate);
+				}
+
+			} catch (Exception e) {
+				// Stop the other browsers too.
+				crash.compareAndSet(null, e);
+				started.set(uploads);
+
+			} finally {
+				HeadlessVaadin.uninstall();
+			}
+		}
+
+		/*
+		 * Upload one file.
+		 */
+		private void upload(int index, long size, boolean fail) throws InterruptedException {
+			UploadProgress uploadProgress = new UploadProgress();
+			uploadProgress.setStorage(storage);
+			uploadProgress.addUploadListener(probe);
+
+			UploadEventsHandler handler = uploadProgress.getUploadEventsHandler();
+			Upload upload = uploadProgress.getUpload();
+			String filename = "load-" + index + ".bin";
+
+			long start = System.nanoTime();
+			long written = 0;
+
+			try {
+				OutputStream stream;
+
+				lock();
+				try {
+					handler.uploadStarted(new StartedEvent(upload, filename, MIME_TYPE, size));
+					stream = handler.receiveUpload(filename, MIME_TYPE);
+				} finally {
+					lock.unlock();
+				}
+
+				long failAt = fail ? (long) (random.nextDouble() * size) : -1;
+				long lastProgress = start;
+
+				while (written < size) {
+					if (written > failAt && failAt >= 0) {
+						throw new IOException("Simulated connection loss");
+					}
+
+					int n = (int) Math.min(CHUNK_SIZE, size - written);
+					stream.write(chunk, 0, n);
+					written += n;
+
+					throttle(start, written);
+
+					long now = System.nanoTime();
+					if (now - lastProgress >= progressInterval) {
+						lock();
+						try {
+							handler.updateProgress(written, size);
+						} finally {
+							lock.unlock();
+						}
+						progressDispatches.add(System.nanoTime() - now);
+						lastProgress = now;
+					}
+				}
+
+				stream.close();
+
+				lock();
+				try {
+					handler.uploadSucceeded(new SucceededEvent(upload, filename, MIME_TYPE, size));
+				} finally {
+					lock.unlock();
+				}
+
+				latencies.add(System.nanoTime() - start);
+				bytes.addAndGet(size);
+
+			} catch (IOException e) {
+				lock();
+				try {
+					handler.uploadFailed(new FailedEvent(upload, filename, MIME_TYPE, written, e));
+				} finally {
+					lock.unlock();
+				}
+
+				failed.incrementAndGet();
+			}
+
+			uploadProgress.getUploadSession().releaseData();
+		}
+
+		/*
+		 * Take the session lock, remembering when the event was fired.
+		 */
+		private void lock() {
+			dispatchStart = System.nanoTime();
+			lock.lock();
+		}
+
+		/*
+		 * Wait as long as the link needs to transfer the data written.
+		 */
+		private void throttle(long start, long written) throws InterruptedException {
+			if (linkSpeed <= 0) {
+				return;
+			}
+
+			long ahead = written * 1000000000L / linkSpeed - (System.nanoTime() - start);
+			if (ahead > TimeUnit.MILLISECONDS.toNanos(1)) {
+				TimeUnit.NANOSECONDS.sleep(ahead);
+			}
+		}
+
+	}
+
+	/*
+	 * Collects durations in nanoseconds.
+	 */
+	private static class Samples {
+
+		/*
+		 * The samples.
+		 */
+		private long[] values = new long[1024];
+
+		/*
+		 * The number of samples.
+		 */
+		private int count;
+
+		/*
+		 * Add a sample.
+		 */
+		private synchronized void add(long value) {
+			if (count == values.length) {
+				values = Arrays.copyOf(values, count * 2);
+			}
+
+			values[count++] = value;
+		}
+
+		/*
+		 * Gets the number of samples.
+		 */
+		private synchronized int size() {
+			return count;
+		}
+
+		/*
+		 * Gets the percentiles of the samples in the specified unit.
+		 */
+		private synchronized String summary(TimeUnit unit, String unitName) {
+			if (count == 0) {
+				return "no samples";
+			}
+
+			long[] sorted = Arrays.copyOf(values, count);
+			Arrays.sort(sorted);
+
+			double scale = TimeUnit.NANOSECONDS.convert(1, unit);
+			return String.format("p50 %.1f %s, p99 %.1f %s, max %.1f %s (%d samples)", sorted[(count - 1) / 2] / scale, unitName,
+					sorted[(int) ((count - 1) * 0.99)] / scale, unitName, sorted[count - 1] / scale, unitName, count);
+		}
+
+	}
+
+}
@@ -0,0 +1,101 @@
+package org.vaadin.addons.upload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.vaadin.addons.upload.UploadProducer.UploadProducerAdapter;
+
+import com.vaadin.shared.communication.PushMode;
+import com.vaadin.ui.Upload.StartedEvent;
+
+/**
+ * Cost of looking for a free upload in a producer with many entries, all but the last one uploading.
+ * 
+ * @author bogdanudrescu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProducerBenchmark {
+
+	/**
+	 * The number of uploads of the producer.
+	 */
+	@Param({ "10", "100", "1000", "10000" })
+	public int entries;
+
+	/*
+	 * The benchmarked producer.
+	 */
+	private UploadProducer producer;
+
+	/*
+	 * The last upload, the only one not started.
+	 */
+	private UploadProgress last;
+
+	/**
+	 * Create the producer and start all the uploads but the last one.
+	 */
+	@Setup
+	public void setUp() {
+		HeadlessVaadin.install(PushMode.AUTOMATIC);
+
+		final List<UploadProgress> uploads = new ArrayList<>(entries);
+		producer = new UploadProducer(entries, new UploadProducerAdapter() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void uploadProgressProduced(UploadProgress uploadProgress) {
+				uploads.add(uploadProgress);
+			}
+
+		});
+
+		for (int i = 0; i < entries - 1; i++) {
+			UploadProgress upload = uploads.get(i);
+			upload.getUploadEventsHandler().uploadStarted(new StartedEvent(upload.getUpload(), "benchmark.bin", "application/octet-stream", 1024));
+		}
+
+		last = uploads.get(entries - 1);
+	}
+
+	/**
+	 * Clear the headless UI.
+	 */
+	@TearDown
+	public void tearDown() {
+		HeadlessVaadin.uninstall();
+	}
+
+	/**
+	 * Look for a free upload.
+	 * @return	whether one is free.
+	 */
+	@Benchmark
+	public boolean isAnyUploadAvailable() {
+		synchronized (producer) {
+			return producer.isAnyUploadAvailable();
+		}
+	}
+
+	/**
+	 * Notify the producer that an upload started, it then checks whether to produce a new one.
+	 */
+	@Benchmark
+	public void uploadStarted() {
+		producer.getUploadProgressHandler().uploadStarted(last);
+	}
+
+}
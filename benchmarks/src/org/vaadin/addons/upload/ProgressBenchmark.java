@@ -0,0 +1,110 @@
+package org.vaadin.addons.upload;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.vaadin.addons.upload.UploadProducer.UploadProducerAdapter;
+
+import com.vaadin.shared.communication.PushMode;
+
+/**
+ * Cost of a progress update and of the listener notifications, on a headless UI.
+ * 
+ * @author bogdanudrescu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProgressBenchmark {
+
+	/**
+	 * The number of listeners of the upload.
+	 */
+	@Param({ "0", "1", "10", "100" })
+	public int listeners;
+
+	/**
+	 * The push mode of the UI, a manual push is done when the progress bar needs a new anchor.
+	 */
+	@Param({ "MANUAL", "AUTOMATIC" })
+	public PushMode pushMode;
+
+	/*
+	 * The benchmarked progress.
+	 */
+	private Progress progress;
+
+	/*
+	 * The benchmarked upload.
+	 */
+	private UploadProgress uploadProgress;
+
+	/*
+	 * The bytes read so far.
+	 */
+	private long bytes;
+
+	/**
+	 * Create the components on a headless UI.
+	 */
+	@Setup
+	public void setUp() {
+		HeadlessVaadin.install(pushMode);
+
+		progress = new Progress("benchmark.bin", Long.MAX_VALUE);
+
+		uploadProgress = new UploadProgress();
+		for (int i = 0; i < listeners; i++) {
+			uploadProgress.addUploadListener(new NoOpListener());
+		}
+	}
+
+	/**
+	 * Clear the headless UI.
+	 */
+	@TearDown
+	public void tearDown() {
+		HeadlessVaadin.uninstall();
+	}
+
+	/**
+	 * Update the progress bar.
+	 */
+	@Benchmark
+	public void setProgressValue() {
+		bytes += 4096;
+		progress.setProgressValue(bytes);
+	}
+
+	/**
+	 * Notify the listeners that the upload started.
+	 */
+	@Benchmark
+	public void fireUploadStarted() {
+		uploadProgress.fireUploadStarted();
+	}
+
+	/**
+	 * Notify the listeners that the upload failed.
+	 */
+	@Benchmark
+	public void fireUploadFailed() {
+		uploadProgress.fireUploadFailed();
+	}
+
+	/*
+	 * Listener doing nothing.
+	 */
+	@SuppressWarnings("serial")
+	private static class NoOpListener extends UploadProducerAdapter {
+	}
+
+}
@@ -0,0 +1,150 @@
+package org.vaadin.addons.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.vaadin.addons.upload.RecordReceiver.RecordBatch;
+import org.vaadin.addons.upload.RecordReceiver.RecordBatchConsumer;
+
+/**
+ * Throughput of the streams returned by the upload receiver, for each way of buffering the data.
+ * <br/>
+ * The data is written in 4KB chunks, like Vaadin does when it streams the request to the receiver.
+ * The {@link UploadSession} is driven directly, so no Vaadin component is involved.
+ * 
+ * @author bogdanudrescu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReceiveBenchmark {
+
+	/*
+	 * The chunk size Vaadin writes with.
+	 */
+	private static final int CHUNK_SIZE = 4 * 1024;
+
+	/**
+	 * How the upload is received.
+	 */
+	@Param({ "memory", "file", "constrained", "records" })
+	public String strategy;
+
+	/**
+	 * The size of the uploaded file.
+	 */
+	@Param({ "65536", "4194304" })
+	public int size;
+
+	/*
+	 * The benchmarked session.
+	 */
+	private UploadSession session;
+
+	/*
+	 * The data written, csv like.
+	 */
+	private byte[] chunk = new byte[CHUNK_SIZE];
+
+	/*
+	 * The directory of the file storage.
+	 */
+	private File directory;
+
+	/*
+	 * The number of records received.
+	 */
+	private long records;
+
+	/**
+	 * Create the session for the strategy.
+	 * @throws IOException	if the storage can't be created.
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		for (int i = 0; i < chunk.length; i++) {
+			chunk[i] = (byte) (i % 64 == 63 ? '\n' : 'a' + i % 26);
+		}
+
+		session = new UploadSession();
+
+		switch (strategy) {
+		case "memory":
+			break;
+
+		case "file":
+			directory = Files.createTempDirectory("upload-benchmark").toFile();
+			session.setStorage(FileUploadStorage.getInstance(directory));
+			break;
+
+		case "constrained":
+			session.setConstraints(new UploadConstraints(Integer.MAX_VALUE, ContentType.TEXT));
+			break;
+
+		case "records":
+			session.setReceiver(new RecordReceiver(new RecordBatchConsumer() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public void consume(RecordBatch batch) {
+					records += batch.getRecordCount();
+				}
+
+			}));
+			break;
+
+		default:
+			throw new IllegalArgumentException(strategy);
+		}
+	}
+
+	/**
+	 * Delete the files of the file storage.
+	 */
+	@TearDown
+	public void tearDown() {
+		session.releaseData();
+
+		if (directory != null) {
+			File[] files = directory.listFiles();
+			for (File file : files != null ? files : new File[0]) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Receive a file. The blob of the previous file is released first.
+	 * @return	the number of bytes written.
+	 * @throws IOException	if the data couldn't be written.
+	 */
+	@Benchmark
+	public long receive() throws IOException {
+		OutputStream stream = session.receive("benchmark.csv", "text/csv");
+
+		long written = 0;
+		while (written < size) {
+			int n = (int) Math.min(CHUNK_SIZE, size - written);
+			stream.write(chunk, 0, n);
+			written += n;
+		}
+
+		stream.close();
+
+		return written + records;
+	}
+
+}
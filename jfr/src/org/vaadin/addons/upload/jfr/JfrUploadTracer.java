@@ -0,0 +1,138 @@
+package org.vaadin.addons.upload.jfr;
+
+import org.vaadin.addons.upload.UploadProgress.UploadStatus;
+import org.vaadin.addons.upload.UploadTracer;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+
+/**
+ * Upload tracer emitting JDK Flight Recorder events. Registered as a service, so having this module on the
+ * classpath is enough.
+ * <br/>
+ * The tracer is enabled only while a recording with any of the upload events enabled is running, otherwise the
+ * add-on doesn't measure anything. Start a recording with the <code>upload.jfc</code> settings, or enable the
+ * <code>org.vaadin.addons.upload.*</code> events in your own settings.
+ * 
+ * @author bogdanudrescu
+ */
+public class JfrUploadTracer extends UploadTracer implements FlightRecorderListener {
+
+	/*
+	 * The upload event types.
+	 */
+	private static final Class<?>[] EVENT_CLASSES = { UploadStartedEvent.class, UploadFinishedEvent.class, ReceiveWriteEvent.class,
+			PushEvent.class, ListenerNotificationEvent.class };
+
+	/*
+	 * Whether any upload event is recorded.
+	 */
+	private volatile boolean enabled;
+
+	/**
+	 * Create the tracer, it follows the recordings from now on.
+	 */
+	public JfrUploadTracer() {
+		FlightRecorder.addListener(this);
+		updateEnabled();
+	}
+
+	/* (non-Javadoc)
+	 * @see jdk.jfr.FlightRecorderListener#recordingStateChanged(jdk.jfr.Recording)
+	 */
+	@Override
+	public void recordingStateChanged(Recording recording) {
+		updateEnabled();
+	}
+
+	/*
+	 * Check whether any upload event is recorded.
+	 */
+	@SuppressWarnings("unchecked")
+	private void updateEnabled() {
+		boolean enabled = false;
+		for (Class<?> eventClass : EVENT_CLASSES) {
+			enabled |= EventType.getEventType((Class<? extends jdk.jfr.Event>) eventClass).isEnabled();
+		}
+
+		this.enabled = enabled;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadTracer#isEnabled()
+	 */
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadTracer#uploadStarted(java.lang.String, long)
+	 */
+	@Override
+	public void uploadStarted(String filename, long contentLength) {
+		UploadStartedEvent event = new UploadStartedEvent();
+		if (event.isEnabled()) {
+			event.filename = filename;
+			event.contentLength = contentLength;
+			event.commit();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadTracer#uploadFinished(java.lang.String, org.vaadin.addons.upload.UploadProgress.UploadStatus, long, long)
+	 */
+	@Override
+	public void uploadFinished(String filename, UploadStatus status, long bytes, long duration) {
+		UploadFinishedEvent event = new UploadFinishedEvent();
+		if (event.isEnabled()) {
+			event.filename = filename;
+			event.status = status.name();
+			event.bytes = bytes;
+			event.uploadDuration = duration;
+			event.commit();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadTracer#streamWritten(int, long)
+	 */
+	@Override
+	public void streamWritten(int length, long duration) {
+		ReceiveWriteEvent event = new ReceiveWriteEvent();
+		if (event.isEnabled()) {
+			event.length = length;
+			event.writeDuration = duration;
+			event.commit();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadTracer#pushed(long)
+	 */
+	@Override
+	public void pushed(long duration) {
+		PushEvent event = new PushEvent();
+		if (event.isEnabled()) {
+			event.pushDuration = duration;
+			event.commit();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadTracer#listenerNotified(java.lang.String, java.lang.Class, long)
+	 */
+	@Override
+	public void listenerNotified(String event, Class<?> listenerClass, long duration) {
+		ListenerNotificationEvent notification = new ListenerNotificationEvent();
+		if (notification.isEnabled()) {
+			notification.notification = event;
+			notification.listenerClass = listenerClass;
+			notification.notificationDuration = duration;
+			notification.commit();
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+package org.vaadin.addons.upload.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A listener notified of an upload event.
+ * 
+ * @author bogdanudrescu
+ */
+@Name("org.vaadin.addons.upload.ListenerNotification")
+@Label("Listener Notification")
+@Description("A listener notified of an upload event.")
+@Category({ "Vaadin", "Upload" })
+@StackTrace(false)
+class ListenerNotificationEvent extends Event {
+
+	@Label("Notification")
+	String notification;
+
+	@Label("Listener Class")
+	Class<?> listenerClass;
+
+	@Label("Notification Duration")
+	@Timespan
+	long notificationDuration;
+
+}
@@ -0,0 +1,27 @@
+package org.vaadin.addons.upload.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A push of the progress to the client.
+ * 
+ * @author bogdanudrescu
+ */
+@Name("org.vaadin.addons.upload.Push")
+@Label("Push")
+@Description("A push of the progress to the client.")
+@Category({ "Vaadin", "Upload" })
+@StackTrace(false)
+class PushEvent extends Event {
+
+	@Label("Push Duration")
+	@Timespan
+	long pushDuration;
+
+}
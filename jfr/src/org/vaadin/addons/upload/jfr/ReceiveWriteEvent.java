@@ -0,0 +1,32 @@
+package org.vaadin.addons.upload.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A sampled write to the receive stream, including the receiver and the storage.
+ * 
+ * @author bogdanudrescu
+ */
+@Name("org.vaadin.addons.upload.ReceiveWrite")
+@Label("Receive Stream Write")
+@Description("A sampled write to the receive stream, including the receiver and the storage.")
+@Category({ "Vaadin", "Upload" })
+@StackTrace(false)
+class ReceiveWriteEvent extends Event {
+
+	@Label("Length")
+	@DataAmount
+	int length;
+
+	@Label("Write Duration")
+	@Timespan
+	long writeDuration;
+
+}
@@ -0,0 +1,38 @@
+package org.vaadin.addons.upload.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * An upload ended, whatever the way.
+ * 
+ * @author bogdanudrescu
+ */
+@Name("org.vaadin.addons.upload.UploadFinished")
+@Label("Upload Finished")
+@Description("An upload ended, whatever the way.")
+@Category({ "Vaadin", "Upload" })
+@StackTrace(false)
+class UploadFinishedEvent extends Event {
+
+	@Label("File Name")
+	String filename;
+
+	@Label("Status")
+	String status;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	@Label("Upload Duration")
+	@Timespan(Timespan.MILLISECONDS)
+	long uploadDuration;
+
+}
@@ -0,0 +1,31 @@
+package org.vaadin.addons.upload.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An upload started.
+ * 
+ * @author bogdanudrescu
+ */
+@Name("org.vaadin.addons.upload.UploadStarted")
+@Label("Upload Started")
+@Description("An upload started.")
+@Category({ "Vaadin", "Upload" })
+@StackTrace(false)
+class UploadStartedEvent extends Event {
+
+	@Label("File Name")
+	String filename;
+
+	@Label("Content Length")
+	@Description("The size announced by the client, negative if unknown")
+	@DataAmount
+	long contentLength;
+
+}
@@ -0,0 +1,335 @@
+package org.vaadin.addons.upload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.vaadin.addons.upload.ReceivePlan.Strategy;
+
+/**
+ * Chooses how to receive each upload from its announced size and the statistics of the recent uploads: a presized
+ * array or pooled chunks in the heap, a temporary file on the disk, buffered or written from a direct buffer. The buffers are
+ * sized from the same numbers, and the choice is kept as the {@link ReceivePlan} of the upload.
+ * <br/>
+ * Without a directory the uploads stay in the heap, in the {@link MemoryUploadStorage}. With one, the uploads over
+ * the heap limit, of unknown size or too large for the free heap go to the {@link FileUploadStorage} of that
+ * directory. The statistics are the ones of the {@link UploadProducer} of the upload when it has enough of them,
+ * else the global ones.
+ * <br/>
+ * There is a single instance per directory and JVM, plus the one without a directory which is the default storage
+ * of the uploads. Serializing it writes only the directory, like the {@link FileUploadStorage}.
+ *
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public final class AdaptiveUploadStorage implements UploadStorage {
+
+	/**
+	 * The default size of the largest upload kept in the heap, 1MB.
+	 */
+	public static final long DEFAULT_HEAP_LIMIT = 1024 * 1024;
+
+	/**
+	 * The default announced size from which a file is written from a direct buffer instead of a heap buffer, 64MB.
+	 */
+	public static final long DEFAULT_DIRECT_THRESHOLD = 64 * 1024 * 1024;
+
+	/**
+	 * The number of recent uploads under which the statistics are not trusted.
+	 */
+	public static final int MIN_SAMPLES = 16;
+
+	/*
+	 * The bounds of the pooled chunks.
+	 */
+	private static final int MIN_CHUNK = 4 * 1024;
+	private static final int MAX_CHUNK = 256 * 1024;
+
+	/*
+	 * The bounds of the file write buffers, and the time of transfer a buffer should hold.
+	 */
+	private static final int MIN_WRITE_BUFFER = 8 * 1024;
+	private static final int MAX_WRITE_BUFFER = 1024 * 1024;
+	private static final int DEFAULT_WRITE_BUFFER = 64 * 1024;
+	private static final long COALESCING_TIME = 100;
+
+	/*
+	 * The largest direct buffer. It's freed only by the garbage collector, so it stays small.
+	 */
+	private static final int MAX_DIRECT_BUFFER = 1024 * 1024;
+
+	/*
+	 * The share of the free heap a single upload may take.
+	 */
+	private static final int HEAP_SHARE = 16;
+
+	/*
+	 * The largest array the JVM can allocate.
+	 */
+	private static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+	/*
+	 * The instance keeping everything in the heap.
+	 */
+	private static final AdaptiveUploadStorage HEAP_INSTANCE = new AdaptiveUploadStorage(null);
+
+	/*
+	 * The instances by directory.
+	 */
+	private static final Map<File, AdaptiveUploadStorage> instances = new HashMap<>();
+
+	/**
+	 * Gets the storage keeping all the uploads in the heap, presized or pooled. It's the default storage.
+	 * @return	the heap only storage.
+	 */
+	public static AdaptiveUploadStorage getInstance() {
+		return HEAP_INSTANCE;
+	}
+
+	/**
+	 * Gets the storage sending the large uploads to the specified directory, creating it if needed.
+	 * @param directory	the directory of the temporary files.
+	 * @return	the storage of the directory.
+	 * @throws IOException	if the directory can't be used.
+	 */
+	public static AdaptiveUploadStorage getInstance(File directory) throws IOException {
+		FileUploadStorage files = FileUploadStorage.getInstance(directory);
+
+		synchronized (instances) {
+			AdaptiveUploadStorage storage = instances.get(files.getDirectory());
+			if (storage == null) {
+				storage = new AdaptiveUploadStorage(files);
+				instances.put(files.getDirectory(), storage);
+			}
+
+			return storage;
+		}
+	}
+
+	/*
+	 * The storage on the disk, null to keep everything in the heap.
+	 */
+	private final FileUploadStorage files;
+
+	/*
+	 * The size of the largest upload kept in the heap.
+	 */
+	private transient volatile long heapLimit = DEFAULT_HEAP_LIMIT;
+
+	/*
+	 * The announced size from which a file is written from a direct buffer.
+	 */
+	private transient volatile long directThreshold = DEFAULT_DIRECT_THRESHOLD;
+
+	/*
+	 * Create the storage, use getInstance().
+	 */
+	private AdaptiveUploadStorage(FileUploadStorage files) {
+		this.files = files;
+	}
+
+	/**
+	 * Gets the storage on the disk.
+	 * @return	the file storage, null if everything stays in the heap.
+	 */
+	public FileUploadStorage getFileStorage() {
+		return files;
+	}
+
+	/**
+	 * Sets the size of the largest upload kept in the heap. Without a directory, it's the largest upload received
+	 * in a single presized array, the larger ones are received in pooled chunks.
+	 * @param heapLimit	the size in bytes.
+	 */
+	public void setHeapLimit(long heapLimit) {
+		this.heapLimit = heapLimit;
+	}
+
+	/**
+	 * Gets the size of the largest upload kept in the heap.
+	 * @return	the size in bytes.
+	 */
+	public long getHeapLimit() {
+		return heapLimit;
+	}
+
+	/**
+	 * Sets the announced size from which a file is written from a direct buffer instead of a heap buffer.
+	 * @param directThreshold	the size in bytes, negative to always use a heap buffer.
+	 */
+	public void setDirectThreshold(long directThreshold) {
+		this.directThreshold = directThreshold;
+	}
+
+	/**
+	 * Gets the announced size from which a file is written from a direct buffer.
+	 * @return	the size in bytes, negative if a heap buffer is always used.
+	 */
+	public long getDirectThreshold() {
+		return directThreshold;
+	}
+
+	/**
+	 * Plan how to receive an upload.
+	 * @param contentLength	the size announced by the client, negative if unknown.
+	 * @param statistics	the statistics of the producer of the upload, may be null.
+	 * @return	the plan.
+	 */
+	public ReceivePlan plan(long contentLength, UploadStatistics statistics) {
+		String source = "the producer";
+		if (statistics == null || statistics.getCount() < MIN_SAMPLES) {
+			statistics = UploadStatistics.getGlobal();
+			source = "the JVM";
+		}
+		if (statistics.getCount() < MIN_SAMPLES) {
+			statistics = null;
+		}
+
+		long expected;
+		String basis;
+		if (contentLength >= 0) {
+			expected = contentLength;
+			basis = "announced " + contentLength + " bytes";
+
+		} else if (statistics != null) {
+			expected = statistics.getSizePercentile(0.9);
+			basis = "unknown size, 90% of the recent uploads of " + source + " under " + expected + " bytes";
+
+		} else {
+			expected = -1;
+			basis = "unknown size, too few recent uploads";
+		}
+
+		long heapLimit = this.heapLimit;
+
+		if (files != null) {
+			long directThreshold = this.directThreshold;
+			if (contentLength >= 0 && directThreshold >= 0 && contentLength >= directThreshold) {
+				int buffer = (int) Math.min(ceilPowerOfTwo(contentLength), MAX_DIRECT_BUFFER);
+				return new ReceivePlan(Strategy.DIRECT, expected, buffer, basis + ", over the direct threshold of "
+						+ directThreshold + " bytes");
+			}
+
+			String disk = null;
+			if (expected < 0) {
+				disk = ", on the disk to be safe";
+
+			} else if (expected > heapLimit) {
+				disk = ", over the heap limit of " + heapLimit + " bytes";
+
+			} else {
+				Runtime runtime = Runtime.getRuntime();
+				long freeHeap = runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
+				if (expected > freeHeap / HEAP_SHARE) {
+					disk = ", too large for the " + freeHeap + " bytes of free heap";
+				}
+			}
+
+			if (disk != null) {
+				long rate = statistics != null ? statistics.getRatePercentile(0.5) : -1;
+				if (rate > 0) {
+					int buffer = (int) clamp(ceilPowerOfTwo(rate * COALESCING_TIME / 1000), MIN_WRITE_BUFFER, MAX_WRITE_BUFFER);
+					return new ReceivePlan(Strategy.FILE, expected, buffer, basis + disk + ", writes coalesced for " + COALESCING_TIME
+							+ "ms at the median rate of " + rate + " B/s");
+				}
+				return new ReceivePlan(Strategy.FILE, expected, DEFAULT_WRITE_BUFFER, basis + disk + ", default write buffer");
+			}
+		}
+
+		if (contentLength >= 0 && contentLength <= Math.min(heapLimit, MAX_ARRAY)) {
+			return new ReceivePlan(Strategy.HEAP, expected, (int) contentLength, basis + ", single array presized to it");
+		}
+
+		if (expected < 0) {
+			return new ReceivePlan(Strategy.POOLED, expected, DEFAULT_WRITE_BUFFER, basis + ", default chunks");
+		}
+
+		// Some tens of chunks, small enough not to waste much at the end.
+		int chunk = (int) clamp(ceilPowerOfTwo(expected / 32), MIN_CHUNK, MAX_CHUNK);
+		return new ReceivePlan(Strategy.POOLED, expected, chunk, basis + (contentLength >= 0 ? ", over the heap limit of " + heapLimit
+				+ " bytes" : "") + ", chunks sized to it");
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadStorage#canStore(long)
+	 */
+	@Override
+	public boolean canStore(long contentLength) {
+		// The uploads of unknown size go to the disk, as the planned ones over the heap limit.
+		return files == null || (contentLength >= 0 && contentLength <= heapLimit) || files.canStore(contentLength);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadStorage#createBlob(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public UploadBlob createBlob(String filename, String mimeType) throws IOException {
+		return createBlob(plan(-1, null));
+	}
+
+	/**
+	 * Creates a new blob as planned.
+	 * @param plan	the plan returned by {@link #plan(long, UploadStatistics)}.
+	 * @return	the new blob.
+	 * @throws IOException	if the blob couldn't be created.
+	 */
+	public UploadBlob createBlob(ReceivePlan plan) throws IOException {
+		switch (plan.getStrategy()) {
+		case FILE:
+		case DIRECT:
+			if (files == null) {
+				throw new IllegalStateException("The storage has no directory for the plan " + plan);
+			}
+			return files.createBlob(plan);
+
+		default:
+			return MemoryUploadStorage.getInstance().createBlob(plan);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadStorage#getBlob(java.lang.String)
+	 */
+	@Override
+	public UploadBlob getBlob(String id) {
+		UploadBlob blob = MemoryUploadStorage.getInstance().getBlob(id);
+		if (blob == null && files != null) {
+			blob = files.getBlob(id);
+		}
+
+		return blob;
+	}
+
+	/*
+	 * Gets the smallest power of two not under the value.
+	 */
+	private static long ceilPowerOfTwo(long value) {
+		return value <= 1 ? 1 : Long.highestOneBit(value - 1) << 1;
+	}
+
+	/*
+	 * Bound the value.
+	 */
+	private static long clamp(long value, long min, long max) {
+		return Math.max(min, Math.min(value, max));
+	}
+
+	/*
+	 * Resolve to the storage of the same directory on the node where this gets deserialized.
+	 */
+	private Object readResolve() throws ObjectStreamException {
+		if (files == null) {
+			return HEAP_INSTANCE;
+		}
+
+		try {
+			return getInstance(files.getDirectory());
+
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot use the upload directory " + files.getDirectory(), e);
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package org.vaadin.addons.upload;
+
+import java.io.Serializable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.vaadin.annotations.JavaScript;
+import com.vaadin.ui.AbstractJavaScriptComponent;
+import com.vaadin.ui.JavaScriptFunction;
+
+/**
+ * Button selecting several files at once (HTML5 multiple selection), and posting them from the browser.
+ * <br/>
+ * The selection is sent to the {@link SelectionHandler}, which tells which files to post with 
+ * {@link #startUploads(String[])}. The browser posts them to the URL in the state, a few at a time.
+ * Used by the {@link BatchUploadProgress}.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+@JavaScript("batch-upload-button.js")
+public class BatchUploadButton extends AbstractJavaScriptComponent {
+
+	/*
+	 * Handles the selected files.
+	 */
+	private SelectionHandler selectionHandler;
+
+	/**
+	 * Create a batch upload button.
+	 * @param selectionHandler	handles the selected files.
+	 */
+	public BatchUploadButton(SelectionHandler selectionHandler) {
+		this.selectionHandler = selectionHandler;
+
+		addFunction("filesSelected", new JavaScriptFunction() {
+
+			@Override
+			public void call(JSONArray arguments) throws JSONException {
+				JSONArray files = arguments.getJSONArray(0);
+
+				for (int i = 0; i < files.length(); i++) {
+					JSONObject file = files.getJSONObject(i);
+					BatchUploadButton.this.selectionHandler.fileSelected(file.getString("key"), file.getString("name"), file.getString("type"),
+							file.getLong("size"));
+				}
+
+				BatchUploadButton.this.selectionHandler.selectionEnded();
+			}
+
+		});
+	}
+
+	/**
+	 * Sets the caption of the button.
+	 * @param buttonCaption	the button caption.
+	 */
+	public void setButtonCaption(String buttonCaption) {
+		getState().buttonCaption = buttonCaption;
+	}
+
+	/**
+	 * Sets where the files are posted.
+	 * @param url	a Vaadin URI the key of the file is appended to, null to post nothing.
+	 */
+	public void setUrl(String url) {
+		getState().url = url;
+	}
+
+	/**
+	 * Sets the maximum number of files posted at the same time.
+	 * @param parallelism	the number of parallel posts.
+	 */
+	public void setParallelism(int parallelism) {
+		getState().parallelism = parallelism;
+	}
+
+	/**
+	 * Post the specified files, queued after the ones being posted.
+	 * @param keys	the keys of the files.
+	 */
+	public void startUploads(String[] keys) {
+		callFunction("startUploads", (Object) keys);
+	}
+
+	/**
+	 * Stop posting the specified file, or remove it from the queue.
+	 * @param key	the key of the file.
+	 */
+	public void abortUpload(String key) {
+		callFunction("abortUpload", key);
+	}
+
+	/*
+	 * Gets the handler of the selected files, for the tests selecting files without a browser.
+	 */
+	SelectionHandler getSelectionHandler() {
+		return selectionHandler;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.vaadin.ui.AbstractJavaScriptComponent#getState()
+	 */
+	@Override
+	protected BatchUploadButtonState getState() {
+		return (BatchUploadButtonState) super.getState();
+	}
+
+	/**
+	 * Handles the files selected in the browser.
+	 */
+	public interface SelectionHandler extends Serializable {
+
+		/**
+		 * A file was selected.
+		 * @param key		the key of the file, unique in the button.
+		 * @param name		the name of the file.
+		 * @param mimeType	the mime type of the file.
+		 * @param size		the size of the file in bytes.
+		 */
+		void fileSelected(String key, String name, String mimeType, long size);
+
+		/**
+		 * All the files of the selection were handed.
+		 */
+		void selectionEnded();
+
+	}
+
+}
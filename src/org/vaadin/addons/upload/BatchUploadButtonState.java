@@ -0,0 +1,28 @@
+package org.vaadin.addons.upload;
+
+import com.vaadin.shared.ui.JavaScriptComponentState;
+
+/**
+ * The state shared with the client side of the {@link BatchUploadButton}.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class BatchUploadButtonState extends JavaScriptComponentState {
+
+	/**
+	 * The caption of the button opening the file selection.
+	 */
+	public String buttonCaption = "Upload files";
+
+	/**
+	 * Where the files are posted, a Vaadin URI the key of the file is appended to. Null while nothing can be posted.
+	 */
+	public String url;
+
+	/**
+	 * The maximum number of files posted at the same time.
+	 */
+	public int parallelism = 3;
+
+}
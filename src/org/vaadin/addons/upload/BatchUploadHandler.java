@@ -0,0 +1,98 @@
+package org.vaadin.addons.upload;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.vaadin.server.RequestHandler;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinSession;
+
+/**
+ * Receives the files of all the {@link BatchUploadProgress} components of a Vaadin session.
+ * <br/>
+ * The browser posts each file as the raw body of a request to <code>batch-upload/&lt;token&gt;/&lt;key&gt;</code>, the 
+ * token identifies the component and the key the file. The body is read outside the session lock, so the files are 
+ * received in parallel, the lock is taken only to dispatch the events.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class BatchUploadHandler implements RequestHandler {
+
+	/**
+	 * The path handled, relative to the Vaadin service.
+	 */
+	public static final String PATH = "batch-upload/";
+
+	/*
+	 * The registered components, by token.
+	 */
+	private final ConcurrentMap<String, BatchUploadProgress> batches = new ConcurrentHashMap<>();
+
+	/**
+	 * Gets the handler of the specified session, installing it if needed. Call it with the session locked.
+	 * @param session	the Vaadin session.
+	 * @return	the batch upload handler of the session.
+	 */
+	public static BatchUploadHandler getInstance(VaadinSession session) {
+		Iterator<RequestHandler> iterator = session.getRequestHandlers().iterator();
+		while (iterator.hasNext()) {
+			RequestHandler handler = iterator.next();
+			if (handler instanceof BatchUploadHandler) {
+				return (BatchUploadHandler) handler;
+			}
+		}
+
+		BatchUploadHandler handler = new BatchUploadHandler();
+		session.addRequestHandler(handler);
+		return handler;
+	}
+
+	/*
+	 * Register a component, return the token identifying it in the requests.
+	 */
+	String register(BatchUploadProgress batch) {
+		String token = UUID.randomUUID().toString();
+		batches.put(token, batch);
+		return token;
+	}
+
+	/*
+	 * Unregister a component, the requests for it are refused from now on.
+	 */
+	void unregister(String token) {
+		batches.remove(token);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.vaadin.server.RequestHandler#handleRequest(com.vaadin.server.VaadinSession, com.vaadin.server.VaadinRequest, com.vaadin.server.VaadinResponse)
+	 */
+	@Override
+	public boolean handleRequest(VaadinSession session, VaadinRequest request, VaadinResponse response) throws IOException {
+		String path = request.getPathInfo();
+		if (path == null || !path.startsWith("/" + PATH)) {
+			return false;
+		}
+
+		String[] parts = path.substring(PATH.length() + 1).split("/");
+		BatchUploadProgress batch = parts.length == 2 ? batches.get(parts[0]) : null;
+
+		if (batch == null) {
+			response.sendError(404, "No such batch upload");
+
+		} else if (!"POST".equals(request.getMethod())) {
+			response.sendError(405, "Files are posted");
+
+		} else {
+			int status = batch.receive(parts[1], request.getInputStream(), request.getContentLength());
+			response.setStatus(status);
+		}
+
+		return true;
+	}
+
+}
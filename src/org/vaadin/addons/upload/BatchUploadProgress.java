@@ -0,0 +1,893 @@
+package org.vaadin.addons.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.vaadin.addons.upload.BatchUploadButton.SelectionHandler;
+import org.vaadin.addons.upload.Progress.ProgressDelegate;
+import org.vaadin.addons.upload.UploadProgress.UploadException;
+import org.vaadin.addons.upload.UploadProgress.UploadStatus;
+import org.vaadin.addons.upload.UploadSession.CancelReason;
+import org.vaadin.addons.upload.UploadSession.UploadInterrupter;
+import org.vaadin.addons.upload.UploadSession.UploadSessionListener;
+
+import com.vaadin.ui.CustomComponent;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.VerticalLayout;
+
+/**
+ * Upload component taking many files in one selection, with a {@link Progress} row for each file.
+ * <br/>
+ * Unlike the {@link UploadProgress}, which needs a component and a full Vaadin upload cycle per file, the browser 
+ * posts all the selected files to the {@link BatchUploadHandler} of the session, a few at a time. Each file has its
+ * own {@link UploadSession}, while the storage, the constraints and the listeners are shared by the whole batch.
+ * The listeners are notified of each file individually, on the UI thread.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class BatchUploadProgress extends CustomComponent {
+
+	/**
+	 * The default number of files received at the same time.
+	 */
+	public static final int DEFAULT_PARALLELISM = 3;
+
+	/*
+	 * How long a request waits for its turn before being refused, in seconds.
+	 */
+	private static final long PERMIT_TIMEOUT = 60;
+
+	/*
+	 * The minimum time between two progress events of a file, in milliseconds.
+	 */
+	private static final long PROGRESS_INTERVAL = 100;
+
+	/*
+	 * The size of the buffer the request body is read with.
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/*
+	 * Measures the listener notifications.
+	 */
+	private static final UploadTracer TRACER = UploadTracer.getInstance();
+
+	/*
+	 * The button and the rows.
+	 */
+	private VerticalLayout layout = new VerticalLayout();
+
+	/*
+	 * Selects and posts the files.
+	 */
+	private BatchUploadButton button;
+
+	/*
+	 * The files, by key.
+	 */
+	private Map<String, FileHandler> files = Collections.synchronizedMap(new LinkedHashMap<String, FileHandler>());
+
+	/*
+	 * The keys of the selected files to post once the selection ends.
+	 */
+	private List<String> selectedKeys = new ArrayList<>();
+
+	/*
+	 * The number of files queued or uploading.
+	 */
+	private int pendingCount;
+
+	/*
+	 * Where the uploaded data is kept.
+	 */
+	private UploadStorage storage = AdaptiveUploadStorage.getInstance();
+
+	/*
+	 * The sizes and the rates of the recent files of the batch.
+	 */
+	private final UploadStatistics statistics = new UploadStatistics();
+
+	/*
+	 * The limits each file must respect.
+	 */
+	private UploadConstraints constraints;
+
+	/*
+	 * Bounds the number of files received at the same time.
+	 */
+	private Semaphore permits = new Semaphore(DEFAULT_PARALLELISM);
+
+	/*
+	 * The handler receiving the files and the token identifying this component, while attached.
+	 */
+	private BatchUploadHandler handler;
+	private String token;
+
+	/**
+	 * Create a batch upload component.
+	 */
+	public BatchUploadProgress() {
+		this(null);
+	}
+
+	/**
+	 * Create a batch upload component.
+	 * @param listener	the initial batch listener.
+	 */
+	public BatchUploadProgress(BatchUploadListener listener) {
+		if (listener != null) {
+			addBatchUploadListener(listener);
+		}
+
+		button = new BatchUploadButton(new FileSelectionHandler());
+		layout.addComponent(button);
+
+		setCompositionRoot(layout);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.vaadin.ui.AbstractComponent#attach()
+	 */
+	@Override
+	public void attach() {
+		super.attach();
+
+		handler = BatchUploadHandler.getInstance(getSession());
+		token = handler.register(this);
+
+		button.setUrl("app://" + BatchUploadHandler.PATH + token + "/");
+	}
+
+	/* (non-Javadoc)
+	 * @see com.vaadin.ui.AbstractComponent#detach()
+	 */
+	@Override
+	public void detach() {
+		handler.unregister(token);
+		handler = null;
+		token = null;
+
+		button.setUrl(null);
+
+		// The files not received yet are stopped, nothing can post them anymore. The received ones keep their data,
+		// the component may just be moved to another parent, see release().
+		for (FileHandler file : getFileHandlers()) {
+			if (file.session.getStatus() == UploadStatus.UPLOADING) {
+				file.session.cancel(CancelReason.RELEASED);
+
+			} else if (file.session.getStatus() == UploadStatus.NONE) {
+				file.cancelUpload(file.progress);
+			}
+		}
+
+		super.detach();
+	}
+
+	/**
+	 * Release all the files: the ones uploading are canceled, the data is released and the rows are removed.
+	 * Detaching the component doesn't release the received files, call this when the component is discarded.
+	 */
+	public void release() {
+		for (FileHandler file : getFileHandlers()) {
+			file.session.cancel(CancelReason.RELEASED);
+
+			UploadLeakDetector.track(file.session);
+			file.remove();
+		}
+	}
+
+	/**
+	 * Sets the number of files received at the same time.
+	 * @param parallelism	the number of parallel uploads.
+	 */
+	public void setParallelism(int parallelism) {
+		permits = new Semaphore(parallelism);
+		button.setParallelism(parallelism);
+	}
+
+	/**
+	 * Sets the caption of the button selecting the files.
+	 * @param buttonCaption	the button caption.
+	 */
+	public void setButtonCaption(String buttonCaption) {
+		button.setButtonCaption(buttonCaption);
+	}
+
+	/**
+	 * Sets the storage where the uploaded files are kept, for the files selected from now on.
+	 * @param storage	the upload storage.
+	 */
+	public void setStorage(UploadStorage storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * Gets the storage where the uploaded files are kept.
+	 * @return	the upload storage.
+	 */
+	public UploadStorage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Gets the statistics of the recent files of the batch, the {@link AdaptiveUploadStorage} plans from them.
+	 * @return	the statistics of the files.
+	 */
+	public UploadStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Sets the limits each file must respect, for the files selected from now on. A file too big is rejected 
+	 * before its transfer starts.
+	 * @param constraints	the constraints, null for no limits.
+	 */
+	public void setConstraints(UploadConstraints constraints) {
+		this.constraints = constraints;
+	}
+
+	/**
+	 * Gets the limits each file must respect.
+	 * @return	the constraints, null if there are none.
+	 */
+	public UploadConstraints getConstraints() {
+		return constraints;
+	}
+
+	/**
+	 * Gets the sessions of the files, in the selection order.
+	 * @return	the upload sessions.
+	 */
+	public List<UploadSession> getFiles() {
+		List<UploadSession> sessions = new ArrayList<>();
+		for (FileHandler file : getFileHandlers()) {
+			sessions.add(file.session);
+		}
+
+		return sessions;
+	}
+
+	/**
+	 * Gets whether files are queued or uploading.
+	 * @return	true while the batch is not finished.
+	 */
+	public boolean isUploading() {
+		return pendingCount > 0;
+	}
+
+	/*
+	 * Gets a copy of the file handlers.
+	 */
+	private List<FileHandler> getFileHandlers() {
+		synchronized (files) {
+			return new ArrayList<>(files.values());
+		}
+	}
+
+	/*
+	 * Receive the body of a request posting a file, called by the handler outside the session lock.
+	 * Returns the HTTP status of the response.
+	 */
+	int receive(String key, InputStream in, long contentLength) throws IOException {
+		FileHandler file = files.get(key);
+		if (file == null || file.session.getStatus() != UploadStatus.NONE) {
+			return 404;
+		}
+
+		// The client posts a few files at a time already, this guards the server.
+		try {
+			if (!permits.tryAcquire(PERMIT_TIMEOUT, TimeUnit.SECONDS)) {
+				return 503;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return 503;
+		}
+
+		try {
+			return file.receive(in, contentLength);
+
+		} finally {
+			permits.release();
+		}
+	}
+
+	/*
+	 * Run the specified code on the UI thread, return false if the component is detached.
+	 */
+	private boolean dispatch(Runnable runnable) {
+		UI ui = getUI();
+		if (ui == null) {
+			return false;
+		}
+
+		ui.accessSynchronously(runnable);
+		return true;
+	}
+
+	/*
+	 * A file ended, one way or another.
+	 */
+	private void fileEnded() {
+		pendingCount--;
+
+		if (pendingCount == 0) {
+			fireBatchFinished();
+		}
+	}
+
+	/*
+	 * Handle the selection of the files.
+	 */
+	private class FileSelectionHandler implements SelectionHandler {
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.BatchUploadButton.SelectionHandler#fileSelected(java.lang.String, java.lang.String, java.lang.String, long)
+		 */
+		@Override
+		public void fileSelected(String key, String name, String mimeType, long size) {
+			if (files.containsKey(key)) {
+				return;
+			}
+
+			FileHandler file = new FileHandler(key, name, mimeType, size);
+			files.put(key, file);
+			layout.addComponent(file.progress);
+
+			pendingCount++;
+			fireFileQueued(file.session);
+
+			// Too big, so don't even post it.
+			if (constraints != null && !constraints.isSizeAllowed(size)) {
+				file.session.start(name, mimeType, size);
+				file.session.fail(null);
+
+			} else {
+				selectedKeys.add(key);
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.BatchUploadButton.SelectionHandler#selectionEnded()
+		 */
+		@Override
+		public void selectionEnded() {
+			if (!selectedKeys.isEmpty()) {
+				button.startUploads(selectedKeys.toArray(new String[selectedKeys.size()]));
+				selectedKeys.clear();
+			}
+		}
+
+	}
+
+	/*
+	 * One file of the batch: receives its data and binds its session to its progress row.
+	 */
+	private class FileHandler implements UploadSessionListener, UploadInterrupter, ProgressDelegate {
+
+		/*
+		 * The key of the file in the button.
+		 */
+		private final String key;
+
+		/*
+		 * What the browser told about the file.
+		 */
+		private final String name;
+		private final String mimeType;
+		private final long size;
+
+		/*
+		 * The model and the view of the file.
+		 */
+		private final UploadSession session = new UploadSession();
+		private final Progress progress;
+
+		/*
+		 * Whether the receiving must stop.
+		 */
+		private volatile boolean interrupted;
+
+		/*
+		 * Create the handler of a selected file.
+		 */
+		private FileHandler(String key, String name, String mimeType, long size) {
+			this.key = key;
+			this.name = name;
+			this.mimeType = mimeType;
+			this.size = size;
+
+			session.setStorage(storage);
+			session.setStatistics(statistics);
+			session.setConstraints(constraints);
+			session.setInterrupter(this);
+			session.addUploadSessionListener(this);
+
+			progress = new Progress(name, size);
+			progress.setDelegate(this);
+		}
+
+		/*
+		 * Receive the data of the file, return the HTTP status of the response.
+		 */
+		private int receive(InputStream in, long requestLength) {
+			final long contentLength = requestLength >= 0 ? requestLength : size;
+			final OutputStream[] stream = new OutputStream[1];
+
+			interrupted = false;
+
+			boolean attached = dispatch(new Runnable() {
+
+				@Override
+				public void run() {
+					session.start(name, mimeType, contentLength);
+
+					// Rejected as soon as it started, by the announced size, so end it for the batch to go on.
+					if (interrupted) {
+						session.fail(null);
+
+					} else {
+						try {
+							stream[0] = session.receive(name, mimeType);
+
+						} catch (UploadException e) {
+							session.fail(e);
+						}
+					}
+				}
+
+			});
+
+			if (attached && stream[0] != null) {
+				try {
+					byte[] buffer = new byte[BUFFER_SIZE];
+					long bytesRead = 0;
+					long progressTime = System.currentTimeMillis();
+
+					int n;
+					while (!interrupted && (n = in.read(buffer)) != -1) {
+						stream[0].write(buffer, 0, n);
+						bytesRead += n;
+
+						long now = System.currentTimeMillis();
+						if (now - progressTime >= PROGRESS_INTERVAL) {
+							progressTime = now;
+
+							final long read = bytesRead;
+							interrupted |= !dispatch(new Runnable() {
+
+								@Override
+								public void run() {
+									session.progress(read, contentLength);
+								}
+
+							});
+						}
+					}
+
+					if (interrupted) {
+						throw new IOException("Upload interrupted");
+					}
+
+					stream[0].close();
+
+					dispatch(new Runnable() {
+
+						@Override
+						public void run() {
+							session.succeed();
+						}
+
+					});
+
+				} catch (final IOException e) {
+					dispatch(new Runnable() {
+
+						@Override
+						public void run() {
+							session.fail(e);
+						}
+
+					});
+				}
+			}
+
+			switch (session.getStatus()) {
+			case DONE:
+				return 200;
+			case REJECTED:
+				return 413;
+			case CANCELED:
+				return 409;
+			default:
+				return 500;
+			}
+		}
+
+		/*
+		 * Remove the file from the batch and release its data.
+		 */
+		private void remove() {
+			files.remove(key);
+			layout.removeComponent(progress);
+
+			session.releaseData();
+			session.removeUploadSessionListener(this);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadInterrupter#interruptUpload()
+		 */
+		@Override
+		public void interruptUpload() {
+			// May be called while receiving, outside the session lock, so only the flag is set here.
+			interrupted = true;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadStarted(org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void uploadStarted(UploadSession session) {
+			fireFileStarted(session);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadProgress(org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void uploadProgress(UploadSession session) {
+			progress.setProgressValue(session.getBytesRead());
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadSucceeded(org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void uploadSucceeded(UploadSession session) {
+			progress.setProgressDone();
+
+			fireFileDone(session);
+			fileEnded();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadFailed(org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void uploadFailed(UploadSession session) {
+			progress.setProgressFail();
+
+			fireFileFailed(session);
+			fileEnded();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadRejected(org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void uploadRejected(UploadSession session) {
+			progress.setProgressFail();
+
+			fireFileRejected(session);
+			fileEnded();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadCanceled(org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void uploadCanceled(UploadSession session) {
+			button.abortUpload(key);
+
+			remove();
+
+			fireFileCanceled(session);
+			fileEnded();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.Progress.ProgressDelegate#cancelUpload(org.vaadin.addons.upload.Progress)
+		 */
+		@Override
+		public void cancelUpload(Progress uploadInfo) {
+			if (session.getStatus() == UploadStatus.UPLOADING) {
+				session.cancel();
+
+			} else {
+				// Still queued, so it won't be posted anymore.
+				if (session.getStatus() == UploadStatus.NONE) {
+					button.abortUpload(key);
+					pendingCount--;
+				}
+
+				remove();
+
+				fireFileRemoved(session);
+
+				if (session.getStatus() == UploadStatus.NONE && pendingCount == 0) {
+					fireBatchFinished();
+				}
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.Progress.ProgressDelegate#retryUpload(org.vaadin.addons.upload.Progress)
+		 */
+		@Override
+		public void retryUpload(Progress uploadInfo) {
+		}
+
+	}
+
+	/*
+	 * The listeners.
+	 */
+	private List<BatchUploadListener> listeners = new LinkedList<>();
+
+	/**
+	 * Adds a batch listener.
+	 * @param listener	the listener to add.
+	 */
+	public synchronized void addBatchUploadListener(BatchUploadListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove the specified batch listener.
+	 * @param listener	the listener to remove.
+	 */
+	public synchronized void removeBatchUploadListener(BatchUploadListener listener) {
+		listeners.remove(listener);
+	}
+
+	/*
+	 * Called when a file is selected. 
+	 */
+	protected synchronized void fireFileQueued(UploadSession file) {
+		Iterator<BatchUploadListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			BatchUploadListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.fileQueued(this, file);
+			TRACER.endNotification("fileQueued", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when a file starts uploading. 
+	 */
+	protected synchronized void fireFileStarted(UploadSession file) {
+		Iterator<BatchUploadListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			BatchUploadListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.fileStarted(this, file);
+			TRACER.endNotification("fileStarted", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when a file was uploaded. 
+	 */
+	protected synchronized void fireFileDone(UploadSession file) {
+		Iterator<BatchUploadListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			BatchUploadListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.fileDone(this, file);
+			TRACER.endNotification("fileDone", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when a file failed to upload. 
+	 */
+	protected synchronized void fireFileFailed(UploadSession file) {
+		Iterator<BatchUploadListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			BatchUploadListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.fileFailed(this, file);
+			TRACER.endNotification("fileFailed", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when a file broke the constraints. 
+	 */
+	protected synchronized void fireFileRejected(UploadSession file) {
+		Iterator<BatchUploadListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			BatchUploadListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.fileRejected(this, file);
+			TRACER.endNotification("fileRejected", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when the upload of a file was canceled by the user. 
+	 */
+	protected synchronized void fireFileCanceled(UploadSession file) {
+		Iterator<BatchUploadListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			BatchUploadListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.fileCanceled(this, file);
+			TRACER.endNotification("fileCanceled", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when the user removed a file which was not uploading. 
+	 */
+	protected synchronized void fireFileRemoved(UploadSession file) {
+		Iterator<BatchUploadListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			BatchUploadListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.fileRemoved(this, file);
+			TRACER.endNotification("fileRemoved", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when no file is queued or uploading anymore. 
+	 */
+	protected synchronized void fireBatchFinished() {
+		Iterator<BatchUploadListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			BatchUploadListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.batchFinished(this);
+			TRACER.endNotification("batchFinished", listener, begin);
+		}
+	}
+
+	/**
+	 * Notified of each file of the batch, on the UI thread. The data of a done file is read from its {@link UploadSession}.
+	 */
+	public interface BatchUploadListener extends Serializable {
+
+		/**
+		 * Called when a file is selected, before its transfer starts.
+		 * @param batch	the batch component.
+		 * @param file	the upload session of the file.
+		 */
+		void fileQueued(BatchUploadProgress batch, UploadSession file);
+
+		/**
+		 * Called when the transfer of a file starts.
+		 * @param batch	the batch component.
+		 * @param file	the upload session of the file.
+		 */
+		void fileStarted(BatchUploadProgress batch, UploadSession file);
+
+		/**
+		 * Called when a file was uploaded.
+		 * @param batch	the batch component.
+		 * @param file	the upload session of the file.
+		 */
+		void fileDone(BatchUploadProgress batch, UploadSession file);
+
+		/**
+		 * Called when a file failed to upload.
+		 * @param batch	the batch component.
+		 * @param file	the upload session of the file.
+		 */
+		void fileFailed(BatchUploadProgress batch, UploadSession file);
+
+		/**
+		 * Called when a file broke the constraints. The reason is provided by {@link UploadSession#getRejectReason()}.
+		 * @param batch	the batch component.
+		 * @param file	the upload session of the file.
+		 */
+		void fileRejected(BatchUploadProgress batch, UploadSession file);
+
+		/**
+		 * Called when the user canceled the upload of a file.
+		 * @param batch	the batch component.
+		 * @param file	the upload session of the file.
+		 */
+		void fileCanceled(BatchUploadProgress batch, UploadSession file);
+
+		/**
+		 * Called when the user removed a file which was queued or finished.
+		 * @param batch	the batch component.
+		 * @param file	the upload session of the file.
+		 */
+		void fileRemoved(BatchUploadProgress batch, UploadSession file);
+
+		/**
+		 * Called when no file is queued or uploading anymore.
+		 * @param batch	the batch component.
+		 */
+		void batchFinished(BatchUploadProgress batch);
+
+	}
+
+	/**
+	 * Adapter for the {@link BatchUploadListener}, so only the needed methods are overridden.
+	 */
+	public static abstract class BatchUploadAdapter implements BatchUploadListener {
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.BatchUploadProgress.BatchUploadListener#fileQueued(org.vaadin.addons.upload.BatchUploadProgress, org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void fileQueued(BatchUploadProgress batch, UploadSession file) {
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.BatchUploadProgress.BatchUploadListener#fileStarted(org.vaadin.addons.upload.BatchUploadProgress, org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void fileStarted(BatchUploadProgress batch, UploadSession file) {
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.BatchUploadProgress.BatchUploadListener#fileDone(org.vaadin.addons.upload.BatchUploadProgress, org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void fileDone(BatchUploadProgress batch, UploadSession file) {
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.BatchUploadProgress.BatchUploadListener#fileFailed(org.vaadin.addons.upload.BatchUploadProgress, org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void fileFailed(BatchUploadProgress batch, UploadSession file) {
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.BatchUploadProgress.BatchUploadListener#fileRejected(org.vaadin.addons.upload.BatchUploadProgress, org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void fileRejected(BatchUploadProgress batch, UploadSession file) {
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.BatchUploadProgress.BatchUploadListener#fileCanceled(org.vaadin.addons.upload.BatchUploadProgress, org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void fileCanceled(BatchUploadProgress batch, UploadSession file) {
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.BatchUploadProgress.BatchUploadListener#fileRemoved(org.vaadin.addons.upload.BatchUploadProgress, org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void fileRemoved(BatchUploadProgress batch, UploadSession file) {
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.BatchUploadProgress.BatchUploadListener#batchFinished(org.vaadin.addons.upload.BatchUploadProgress)
+		 */
+		@Override
+		public void batchFinished(BatchUploadProgress batch) {
+		}
+
+	}
+
+}
@@ -0,0 +1,150 @@
+package org.vaadin.addons.upload;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.vaadin.addons.upload.UploadSession.RejectReason;
+import org.vaadin.addons.upload.UploadSession.UploadRejectedException;
+
+/**
+ * Checks the {@link UploadConstraints} on the data while it is written.
+ * <br/>
+ * The first bytes are held back until the content type is sniffed, so no data of a rejected content
+ * reaches the underlying stream.
+ * 
+ * @author bogdanudrescu
+ */
+class ConstrainedOutputStream extends FilterOutputStream {
+
+	/**
+	 * Notified when the constraints are broken, right before the write fails.
+	 */
+	interface RejectHandler {
+
+		/**
+		 * Called when the upload breaks the constraints.
+		 * @param reason	the broken constraint.
+		 */
+		void reject(RejectReason reason);
+
+	}
+
+	/*
+	 * The constraints to check.
+	 */
+	private final UploadConstraints constraints;
+
+	/*
+	 * Notified on rejection.
+	 */
+	private final RejectHandler handler;
+
+	/*
+	 * The leading bytes held until sniffed, null once the content was accepted.
+	 */
+	private byte[] head;
+
+	/*
+	 * The number of bytes in head.
+	 */
+	private int headLength;
+
+	/*
+	 * The number of bytes written so far.
+	 */
+	private long count;
+
+	/*
+	 * Create a stream checking the constraints on the data written to out.
+	 */
+	ConstrainedOutputStream(OutputStream out, UploadConstraints constraints, RejectHandler handler) {
+		super(out);
+
+		this.constraints = constraints;
+		this.handler = handler;
+
+		int sniffLength = constraints.getSniffLength();
+		if (sniffLength > 0) {
+			head = new byte[sniffLength];
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterOutputStream#write(int)
+	 */
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterOutputStream#write(byte[], int, int)
+	 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		count += len;
+		if (!constraints.isSizeAllowed(count)) {
+			reject(RejectReason.SIZE_EXCEEDED);
+		}
+
+		if (head != null) {
+			int n = Math.min(len, head.length - headLength);
+			System.arraycopy(b, off, head, headLength, n);
+			headLength += n;
+			off += n;
+			len -= n;
+
+			if (headLength < head.length) {
+				return;
+			}
+
+			sniff();
+		}
+
+		if (len > 0) {
+			out.write(b, off, len);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.FilterOutputStream#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			// The content was shorter then the sniff length.
+			if (head != null) {
+				sniff();
+			}
+
+		} finally {
+			super.close();
+		}
+	}
+
+	/*
+	 * Check the content type and release the held bytes if it's allowed.
+	 */
+	private void sniff() throws IOException {
+		byte[] head = this.head;
+		this.head = null;
+
+		if (!constraints.isContentAllowed(head, headLength)) {
+			reject(RejectReason.CONTENT_TYPE_NOT_ALLOWED);
+		}
+
+		out.write(head, 0, headLength);
+	}
+
+	/*
+	 * Reject the upload.
+	 */
+	private void reject(RejectReason reason) throws UploadRejectedException {
+		head = null;
+		handler.reject(reason);
+
+		throw new UploadRejectedException(reason);
+	}
+
+}
@@ -0,0 +1,123 @@
+package org.vaadin.addons.upload;
+
+import java.io.Serializable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import com.vaadin.annotations.JavaScript;
+import com.vaadin.server.AbstractJavaScriptExtension;
+import com.vaadin.ui.JavaScriptFunction;
+import com.vaadin.ui.Upload;
+
+/**
+ * Extends an {@link Upload} so the browser digests the selected file before sending it, and asks the server
+ * whether it has the content already. The file is sent only when the server doesn't have it.
+ * <br/>
+ * The file is read in chunks and digested in a web worker, so the page stays responsive. Browsers without web
+ * workers, and files smaller than the minimum size, are uploaded right away. Used by the {@link UploadProgress}
+ * when it has an {@link UploadContentIndex}.
+ *
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+@JavaScript("content-hash.js")
+public class ContentHashExtension extends AbstractJavaScriptExtension {
+
+	/**
+	 * The default size under which a file is uploaded without asking the server, 1MB.
+	 */
+	public static final long DEFAULT_MIN_SIZE = 1024 * 1024;
+
+	/*
+	 * Tells whether the server has the content.
+	 */
+	private ContentHandler contentHandler;
+
+	/**
+	 * Create a content hash extension.
+	 * @param contentHandler	tells whether the server has the content.
+	 */
+	public ContentHashExtension(ContentHandler contentHandler) {
+		this.contentHandler = contentHandler;
+
+		addFunction("checkContent", new JavaScriptFunction() {
+
+			@Override
+			public void call(JSONArray arguments) throws JSONException {
+				boolean found = ContentHashExtension.this.contentHandler.contentHashed(arguments.getString(0), arguments.getString(1),
+						arguments.getString(2), arguments.getLong(3));
+
+				callFunction("contentChecked", found);
+			}
+
+		});
+	}
+
+	/**
+	 * Extend the specified upload.
+	 * @param upload	the upload to extend.
+	 */
+	public void extend(Upload upload) {
+		super.extend(upload);
+	}
+
+	/**
+	 * Sets whether the selected files are digested before the upload.
+	 * @param enabled	false to upload the files right away.
+	 */
+	public void setEnabled(boolean enabled) {
+		getState().enabled = enabled;
+	}
+
+	/**
+	 * Gets whether the selected files are digested before the upload.
+	 * @return	true if the browser asks the server before the upload.
+	 */
+	public boolean isEnabled() {
+		return getState(false).enabled;
+	}
+
+	/**
+	 * Sets the size under which a file is uploaded without asking the server. Digesting small files costs
+	 * more than sending them.
+	 * @param minSize	the minimum size in bytes.
+	 */
+	public void setMinSize(long minSize) {
+		getState().minSize = minSize;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.vaadin.server.AbstractJavaScriptExtension#getState()
+	 */
+	@Override
+	protected ContentHashState getState() {
+		return (ContentHashState) super.getState();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.vaadin.server.AbstractJavaScriptExtension#getState(boolean)
+	 */
+	@Override
+	protected ContentHashState getState(boolean markAsDirty) {
+		return (ContentHashState) super.getState(markAsDirty);
+	}
+
+	/**
+	 * Tells whether the server has the content of a selected file.
+	 */
+	public interface ContentHandler extends Serializable {
+
+		/**
+		 * The browser digested the selected file.
+		 * @param digest	the lowercase hex SHA-256 of the file.
+		 * @param filename	the name of the file.
+		 * @param mimeType	the mime type of the file.
+		 * @param size		the size of the file in bytes.
+		 * @return	true if the server has the content, so the file is not sent.
+		 */
+		boolean contentHashed(String digest, String filename, String mimeType, long size);
+
+	}
+
+}
@@ -0,0 +1,28 @@
+package org.vaadin.addons.upload;
+
+import com.vaadin.shared.JavaScriptExtensionState;
+
+/**
+ * The state shared with the client side of the {@link ContentHashExtension}.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class ContentHashState extends JavaScriptExtensionState {
+
+	/**
+	 * Whether the selected files are digested before the upload.
+	 */
+	public boolean enabled = true;
+
+	/**
+	 * The size under which a file is uploaded without asking the server, in bytes.
+	 */
+	public long minSize = ContentHashExtension.DEFAULT_MIN_SIZE;
+
+	/**
+	 * The size of the chunks the file is read with while digesting it, in bytes.
+	 */
+	public int chunkSize = 1024 * 1024;
+
+}
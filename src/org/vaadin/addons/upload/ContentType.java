@@ -0,0 +1,142 @@
+package org.vaadin.addons.upload;
+
+/**
+ * Content types recognized by sniffing the first bytes of an upload.
+ * 
+ * @author bogdanudrescu
+ */
+public enum ContentType {
+
+	/**
+	 * PNG image.
+	 */
+	PNG("image/png", new int[] { 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A }),
+
+	/**
+	 * JPEG image.
+	 */
+	JPEG("image/jpeg", new int[] { 0xFF, 0xD8, 0xFF }),
+
+	/**
+	 * GIF image.
+	 */
+	GIF("image/gif", new int[] { 'G', 'I', 'F', '8', '7', 'a' }, new int[] { 'G', 'I', 'F', '8', '9', 'a' }),
+
+	/**
+	 * PDF document.
+	 */
+	PDF("application/pdf", new int[] { '%', 'P', 'D', 'F', '-' }),
+
+	/**
+	 * ZIP archive, including the formats based on it (docx, xlsx, jar...).
+	 */
+	ZIP("application/zip", new int[] { 'P', 'K', 0x03, 0x04 }, new int[] { 'P', 'K', 0x05, 0x06 }, new int[] { 'P', 'K', 0x07, 0x08 }),
+
+	/**
+	 * GZIP compressed data.
+	 */
+	GZIP("application/gzip", new int[] { 0x1F, 0x8B }),
+
+	/**
+	 * Plain text, including csv, json and xml. Recognized by the absence of binary control characters.
+	 */
+	TEXT("text/plain") {
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.ContentType#matches(byte[], int)
+		 */
+		@Override
+		public boolean matches(byte[] head, int length) {
+			for (int i = 0; i < length; i++) {
+				int b = head[i] & 0xFF;
+				if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != 0x1B) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.ContentType#getSniffLength()
+		 */
+		@Override
+		public int getSniffLength() {
+			return 512;
+		}
+
+	};
+
+	/*
+	 * The mime type.
+	 */
+	private final String mimeType;
+
+	/*
+	 * The possible magic bytes the content starts with.
+	 */
+	private final int[][] signatures;
+
+	/*
+	 * Create a content type.
+	 */
+	private ContentType(String mimeType, int[]... signatures) {
+		this.mimeType = mimeType;
+		this.signatures = signatures;
+	}
+
+	/**
+	 * Gets the mime type of the content.
+	 * @return	the mime type.
+	 */
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	/**
+	 * Gets the number of leading bytes needed to recognize the content.
+	 * @return	the number of bytes to sniff.
+	 */
+	public int getSniffLength() {
+		int length = 0;
+		for (int[] signature : signatures) {
+			length = Math.max(length, signature.length);
+		}
+
+		return length;
+	}
+
+	/**
+	 * Check whether the content starting with the specified bytes is of this type.
+	 * @param head		the first bytes of the content.
+	 * @param length	the number of valid bytes in head, less then the sniff length only if the content is shorter.
+	 * @return	true if the content matches this type, false otherwise.
+	 */
+	public boolean matches(byte[] head, int length) {
+		for (int[] signature : signatures) {
+			if (startsWith(head, length, signature)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/*
+	 * Check whether the head starts with the signature.
+	 */
+	private static boolean startsWith(byte[] head, int length, int[] signature) {
+		if (length < signature.length) {
+			return false;
+		}
+
+		for (int i = 0; i < signature.length; i++) {
+			if ((head[i] & 0xFF) != signature[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+}
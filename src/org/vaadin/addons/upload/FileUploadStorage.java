@@ -0,0 +1,794 @@
+package org.vaadin.addons.upload;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vaadin.addons.upload.ReceivePlan.Strategy;
+import org.vaadin.addons.upload.UploadSession.RejectReason;
+import org.vaadin.addons.upload.UploadSession.UploadRejectedException;
+
+import com.vaadin.server.SessionDestroyEvent;
+import com.vaadin.server.SessionDestroyListener;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+
+/**
+ * Keeps the uploaded data in temporary files of a directory of the current node.
+ * <br/>
+ * The storage accounts the disk used by each upload and each session, and rejects the uploads that would go over
+ * the quota with {@link RejectReason#QUOTA_EXCEEDED} instead of failing when the disk is full. The files of a session
+ * are deleted when the session is destroyed.
+ * <br/>
+ * A reaper deletes the orphan files: at startup and then periodically, the files left by JVMs that are not running
+ * anymore, the files of this JVM no blob refers to and, if a maximum age is set, the blobs older than that.
+ * <br/>
+ * Through the {@link AdaptiveUploadStorage}, the write buffer is sized to the rate of the uploads, and the large
+ * uploads may be written through the file channel from a direct buffer instead.
+ * <br/>
+ * There is a single instance per directory and JVM. Serializing it writes only the directory, and deserializing
+ * it resolves to the instance of that directory on the node where the session lands.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public final class FileUploadStorage implements UploadStorage {
+
+	/*
+	 * The logger.
+	 */
+	private static final Logger logger = Logger.getLogger(FileUploadStorage.class.getName());
+
+	/*
+	 * The extension of the upload files.
+	 */
+	private static final String UPLOAD_SUFFIX = ".upload";
+
+	/*
+	 * The extension of the files marking the owner JVMs as alive.
+	 */
+	private static final String LOCK_SUFFIX = ".lock";
+
+	/*
+	 * The write buffer of the blobs created without a plan.
+	 */
+	private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/*
+	 * Identifies this JVM in the name of the files it owns.
+	 */
+	private static final String JVM_ID = UUID.randomUUID().toString();
+
+	/*
+	 * The instances by their directory.
+	 */
+	private static final Map<File, FileUploadStorage> instances = new HashMap<>();
+
+	/**
+	 * Gets the storage of the specified directory, creating it if needed. The reaper runs every 10 minutes.
+	 * @param directory	the directory of the temporary files.
+	 * @return	the storage of the directory.
+	 * @throws IOException	if the directory can't be used.
+	 */
+	public static FileUploadStorage getInstance(File directory) throws IOException {
+		File key = directory.getCanonicalFile();
+
+		synchronized (instances) {
+			FileUploadStorage storage = instances.get(key);
+			if (storage == null) {
+				storage = new FileUploadStorage(key);
+				instances.put(key, storage);
+			}
+
+			return storage;
+		}
+	}
+
+	/*
+	 * The directory of the temporary files.
+	 */
+	private final File directory;
+
+	/*
+	 * The maximum number of bytes all the uploads may use, negative for no limit.
+	 */
+	private transient volatile long quota = -1;
+
+	/*
+	 * The maximum age of a blob, negative to keep them until released or their session is destroyed.
+	 */
+	private transient volatile long maxAge = -1;
+
+	/*
+	 * The bytes used by all the blobs.
+	 */
+	private transient AtomicLong usage;
+
+	/*
+	 * The bytes used by the blobs of each session.
+	 */
+	private transient ConcurrentMap<String, AtomicLong> sessionUsages;
+
+	/*
+	 * The live blobs by their id.
+	 */
+	private transient Map<String, FileBlob> blobs;
+
+	/*
+	 * The services destroying the sessions we listen to.
+	 */
+	private transient Set<VaadinService> services;
+
+	/*
+	 * Locked as long as this JVM runs, so the reapers of other JVMs know our files are not orphans.
+	 */
+	private transient FileLock jvmLock;
+
+	/*
+	 * Runs the reaper.
+	 */
+	private transient ScheduledExecutorService reaperExecutor;
+
+	/*
+	 * The scheduled reaper.
+	 */
+	private transient ScheduledFuture<?> reaper;
+
+	/*
+	 * Create the storage of the directory, use getInstance().
+	 */
+	private FileUploadStorage(File directory) throws IOException {
+		this.directory = directory;
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create the upload directory " + directory);
+		}
+
+		usage = new AtomicLong();
+		sessionUsages = new ConcurrentHashMap<>();
+		blobs = new ConcurrentHashMap<>();
+		services = Collections.newSetFromMap(new ConcurrentHashMap<VaadinService, Boolean>());
+
+		@SuppressWarnings("resource")
+		RandomAccessFile lockFile = new RandomAccessFile(new File(directory, JVM_ID + LOCK_SUFFIX), "rw");
+		jvmLock = lockFile.getChannel().lock();
+
+		reaperExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "upload-storage-reaper");
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+
+		// Clean up what crashed JVMs left behind, then keep it clean.
+		reapOrphans();
+		setReaperPeriod(10, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Gets the directory of the temporary files.
+	 * @return	the directory.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Sets the maximum number of bytes all the uploads of this node may use in this directory.
+	 * @param quota	the quota in bytes, negative for no limit.
+	 */
+	public void setQuota(long quota) {
+		this.quota = quota;
+	}
+
+	/**
+	 * Gets the maximum number of bytes all the uploads of this node may use in this directory.
+	 * @return	the quota in bytes, negative for no limit.
+	 */
+	public long getQuota() {
+		return quota;
+	}
+
+	/**
+	 * Sets the age after which the reaper deletes a blob even if it was not released.
+	 * @param maxAge	the maximum age in milliseconds, negative to keep the blobs until released or their session is destroyed.
+	 */
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Sets how often the reaper runs.
+	 * @param period	the period between two runs.
+	 * @param unit		the unit of the period.
+	 */
+	public synchronized void setReaperPeriod(long period, TimeUnit unit) {
+		if (reaper != null) {
+			reaper.cancel(false);
+		}
+
+		reaper = reaperExecutor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				reapOrphans();
+			}
+
+		}, period, period, unit);
+	}
+
+	/**
+	 * Gets the number of bytes used by all the uploads.
+	 * @return	the disk usage in bytes.
+	 */
+	public long getUsage() {
+		return usage.get();
+	}
+
+	/**
+	 * Gets the number of bytes used by the uploads of the specified session.
+	 * @param sessionId	the id of the HTTP session.
+	 * @return	the disk usage of the session in bytes.
+	 */
+	public long getSessionUsage(String sessionId) {
+		AtomicLong sessionUsage = sessionUsages.get(sessionId);
+		return sessionUsage != null ? sessionUsage.get() : 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadStorage#canStore(long)
+	 */
+	@Override
+	public boolean canStore(long contentLength) {
+		long quota = this.quota;
+		return quota < 0 || usage.get() + Math.max(contentLength, 0) <= quota;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadStorage#createBlob(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public UploadBlob createBlob(String filename, String mimeType) throws IOException {
+		return createBlob(DEFAULT_BUFFER_SIZE, false);
+	}
+
+	/*
+	 * Create a blob as planned: from a heap or a direct buffer.
+	 */
+	UploadBlob createBlob(ReceivePlan plan) throws IOException {
+		return createBlob(plan.getBufferSize(), plan.getStrategy() == Strategy.DIRECT);
+	}
+
+	/*
+	 * Create a blob written from a heap or a direct buffer of the specified size.
+	 */
+	private UploadBlob createBlob(int bufferSize, boolean direct) throws IOException {
+		String sessionId = null;
+
+		// The HTTP session is gone when the Vaadin session is closing, or if it runs without a container.
+		VaadinSession session = VaadinSession.getCurrent();
+		if (session != null && session.getSession() != null) {
+			sessionId = session.getSession().getId();
+			listenToSessionDestroy(session.getService());
+		}
+
+		FileBlob blob = new FileBlob(JVM_ID + '-' + UUID.randomUUID().toString(), sessionId, bufferSize, direct);
+		blobs.put(blob.id, blob);
+
+		return blob;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadStorage#getBlob(java.lang.String)
+	 */
+	@Override
+	public UploadBlob getBlob(String id) {
+		return blobs.get(id);
+	}
+
+	/**
+	 * Release all the blobs of the specified session.
+	 * @param sessionId	the id of the HTTP session.
+	 */
+	public void releaseSession(String sessionId) {
+		for (FileBlob blob : blobs.values()) {
+			if (sessionId.equals(blob.sessionId)) {
+				blob.release();
+			}
+		}
+
+		sessionUsages.remove(sessionId);
+	}
+
+	/**
+	 * Delete the orphan files now. This is done by the reaper periodically anyway.
+	 */
+	public void reapOrphans() {
+		long now = System.currentTimeMillis();
+		long maxAge = this.maxAge;
+
+		if (maxAge >= 0) {
+			for (FileBlob blob : blobs.values()) {
+				if (now - blob.created > maxAge) {
+					logger.info("Releasing the upload blob " + blob.id + " older then " + maxAge + "ms");
+					blob.release();
+				}
+			}
+		}
+
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String name = file.getName();
+
+			if (name.endsWith(UPLOAD_SUFFIX)) {
+				String id = name.substring(0, name.length() - UPLOAD_SUFFIX.length());
+
+				if (id.startsWith(JVM_ID) ? !blobs.containsKey(id) : id.length() < JVM_ID.length() || !isJvmAlive(id.substring(0, JVM_ID.length()))) {
+					delete(file);
+				}
+
+			} else if (name.endsWith(LOCK_SUFFIX) && !name.startsWith(JVM_ID) && !isJvmAlive(name.substring(0, name.length() - LOCK_SUFFIX.length()))) {
+				delete(file);
+			}
+		}
+	}
+
+	/*
+	 * Check whether the JVM with the specified id still holds its lock.
+	 */
+	private boolean isJvmAlive(String jvmId) {
+		File lockFile = new File(directory, jvmId + LOCK_SUFFIX);
+		if (!lockFile.exists()) {
+			return false;
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(lockFile, "rw")) {
+			FileLock lock = file.getChannel().tryLock();
+			if (lock == null) {
+				return true;
+			}
+
+			lock.release();
+			return false;
+
+		} catch (OverlappingFileLockException e) {
+			// Held by this JVM.
+			return true;
+
+		} catch (IOException e) {
+			// Don't delete what we can't check.
+			return true;
+		}
+	}
+
+	/*
+	 * Delete an orphan file.
+	 */
+	private void delete(File file) {
+		if (file.delete()) {
+			logger.info("Deleted the orphan upload file " + file);
+		} else if (file.exists()) {
+			logger.warning("Cannot delete the orphan upload file " + file);
+		}
+	}
+
+	/*
+	 * Release the blobs of the sessions destroyed by the service.
+	 */
+	private void listenToSessionDestroy(VaadinService service) {
+		if (service != null && services.add(service)) {
+			service.addSessionDestroyListener(new SessionReleaser(directory));
+		}
+	}
+
+	/*
+	 * Resolve to the storage of the directory on the node where this gets deserialized.
+	 */
+	private Object readResolve() throws ObjectStreamException {
+		try {
+			return getInstance(directory);
+
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot use the upload directory " + directory, e);
+		}
+	}
+
+	/*
+	 * Release the blobs of the destroyed sessions. Refers the storage by its directory, so it can be serialized.
+	 */
+	private static class SessionReleaser implements SessionDestroyListener {
+
+		/*
+		 * The directory of the storage.
+		 */
+		private final File directory;
+
+		/*
+		 * Create a listener for the storage of the directory.
+		 */
+		private SessionReleaser(File directory) {
+			this.directory = directory;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.vaadin.server.SessionDestroyListener#sessionDestroy(com.vaadin.server.SessionDestroyEvent)
+		 */
+		@Override
+		public void sessionDestroy(SessionDestroyEvent event) {
+			if (event.getSession().getSession() == null) {
+				return;
+			}
+
+			try {
+				getInstance(directory).releaseSession(event.getSession().getSession().getId());
+
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Cannot release the uploads of the destroyed session", e);
+			}
+		}
+
+	}
+
+	/*
+	 * Blob backed by a temporary file.
+	 */
+	private class FileBlob implements UploadBlob {
+
+		/*
+		 * The id of the blob.
+		 */
+		private final String id;
+
+		/*
+		 * The session owning the blob.
+		 */
+		private final String sessionId;
+
+		/*
+		 * When the blob was created.
+		 */
+		private final long created = System.currentTimeMillis();
+
+		/*
+		 * The file of the blob.
+		 */
+		private final File file;
+
+		/*
+		 * The number of bytes written.
+		 */
+		private final AtomicLong size = new AtomicLong();
+
+		/*
+		 * The size of the write buffer.
+		 */
+		private final int bufferSize;
+
+		/*
+		 * Whether the file is written from a direct buffer.
+		 */
+		private final boolean direct;
+
+		/*
+		 * The stream writing the file.
+		 */
+		private OutputStream stream;
+
+		/*
+		 * Whether the blob was released.
+		 */
+		private boolean released;
+
+		/*
+		 * Create a blob.
+		 */
+		private FileBlob(String id, String sessionId, int bufferSize, boolean direct) {
+			this.id = id;
+			this.sessionId = sessionId;
+			this.bufferSize = bufferSize;
+			this.direct = direct;
+			this.file = new File(directory, id + UPLOAD_SUFFIX);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getId()
+		 */
+		@Override
+		public String getId() {
+			return id;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getOutputStream()
+		 */
+		@Override
+		public synchronized OutputStream getOutputStream() throws IOException {
+			checkReleased();
+
+			if (stream == null) {
+				if (direct) {
+					stream = new AccountingOutputStream(new ChannelOutputStream(file, bufferSize));
+				} else {
+					stream = new AccountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+				}
+			}
+
+			return stream;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getInputStream()
+		 */
+		@Override
+		public InputStream getInputStream() throws IOException {
+			checkReleased();
+			return new FileInputStream(file);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getBytes()
+		 */
+		@Override
+		public byte[] getBytes() throws IOException {
+			checkReleased();
+			return Files.readAllBytes(file.toPath());
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getSize()
+		 */
+		@Override
+		public long getSize() {
+			return size.get();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#release()
+		 */
+		@Override
+		public void release() {
+			long bytes;
+
+			// Under the lock of reserve(), so no byte is accounted after the release.
+			synchronized (this) {
+				if (released) {
+					return;
+				}
+				released = true;
+				bytes = size.getAndSet(0);
+			}
+
+			blobs.remove(id);
+
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (IOException e) {
+					logger.log(Level.FINE, "Cannot close the upload file " + file, e);
+				}
+			}
+
+			if (!file.delete() && file.exists()) {
+				// The reaper will try again.
+				logger.warning("Cannot delete the upload file " + file);
+			}
+
+			account(-bytes);
+		}
+
+		/*
+		 * Fail on using a released blob.
+		 */
+		private synchronized void checkReleased() throws IOException {
+			if (released) {
+				throw new IOException("The upload blob " + id + " was released.");
+			}
+		}
+
+		/*
+		 * Account the bytes about to be written, failing before the quota is exceeded. The space is reserved
+		 * atomically, so concurrent uploads can't go over the quota together.
+		 */
+		private synchronized void reserve(long bytes) throws IOException {
+			checkReleased();
+
+			long quota = FileUploadStorage.this.quota;
+			long current;
+			do {
+				current = usage.get();
+				if (quota >= 0 && current + bytes > quota) {
+					throw new UploadRejectedException(RejectReason.QUOTA_EXCEEDED);
+				}
+			} while (!usage.compareAndSet(current, current + bytes));
+
+			accountSession(bytes);
+			size.addAndGet(bytes);
+		}
+
+		/*
+		 * Account released bytes.
+		 */
+		private void account(long bytes) {
+			usage.addAndGet(bytes);
+			accountSession(bytes);
+		}
+
+		/*
+		 * Account the bytes to the session of the blob.
+		 */
+		private void accountSession(long bytes) {
+			if (sessionId != null) {
+				AtomicLong sessionUsage = sessionUsages.get(sessionId);
+				if (sessionUsage == null && bytes > 0) {
+					AtomicLong newUsage = new AtomicLong();
+					sessionUsage = sessionUsages.putIfAbsent(sessionId, newUsage);
+					if (sessionUsage == null) {
+						sessionUsage = newUsage;
+					}
+				}
+				if (sessionUsage != null) {
+					sessionUsage.addAndGet(bytes);
+				}
+			}
+		}
+
+		/*
+		 * Account the written bytes, failing before the quota is exceeded.
+		 */
+		private class AccountingOutputStream extends FilterOutputStream {
+
+			/*
+			 * Create a stream accounting the data written to out.
+			 */
+			private AccountingOutputStream(OutputStream out) {
+				super(out);
+			}
+
+			/* (non-Javadoc)
+			 * @see java.io.FilterOutputStream#write(int)
+			 */
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			/* (non-Javadoc)
+			 * @see java.io.FilterOutputStream#write(byte[], int, int)
+			 */
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				reserve(len);
+
+				out.write(b, off, len);
+			}
+
+		}
+
+	}
+
+	/*
+	 * Writes a file through its channel from a direct buffer, so the data isn't copied again out of the heap on each
+	 * write. Unlike a mapped file, nothing stays bound to the file once it's closed, so it can be deleted right away.
+	 */
+	private static class ChannelOutputStream extends OutputStream {
+
+		/*
+		 * The channel of the file.
+		 */
+		private final FileChannel channel;
+
+		/*
+		 * The data not written yet.
+		 */
+		private final ByteBuffer buffer;
+
+		/*
+		 * Create a stream writing through a direct buffer of the specified size.
+		 */
+		private ChannelOutputStream(File file, int bufferSize) throws IOException {
+			this.channel = new FileOutputStream(file).getChannel();
+			this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#write(int)
+		 */
+		@Override
+		public void write(int b) throws IOException {
+			if (!buffer.hasRemaining()) {
+				writeBuffer();
+			}
+			buffer.put((byte) b);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (!buffer.hasRemaining()) {
+					writeBuffer();
+				}
+
+				int n = Math.min(len, buffer.remaining());
+				buffer.put(b, off, n);
+
+				off += n;
+				len -= n;
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#flush()
+		 */
+		@Override
+		public void flush() throws IOException {
+			writeBuffer();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#close()
+		 */
+		@Override
+		public void close() throws IOException {
+			if (!channel.isOpen()) {
+				return;
+			}
+
+			try {
+				writeBuffer();
+			} finally {
+				channel.close();
+			}
+		}
+
+		/*
+		 * Write the buffered data to the file.
+		 */
+		private void writeBuffer() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+	}
+
+}
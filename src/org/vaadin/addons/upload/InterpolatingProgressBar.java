@@ -0,0 +1,166 @@
+package org.vaadin.addons.upload;
+
+import com.vaadin.annotations.JavaScript;
+import com.vaadin.ui.AbstractJavaScriptComponent;
+
+/**
+ * Progress bar animated by the browser between the anchors sent by the server.
+ * <br/>
+ * The server records the bytes read on each progress event but updates the client only once per anchor interval,
+ * with the bytes read and the current rate. The browser extrapolates the progress from the last anchor and corrects
+ * itself smoothly when the next anchor comes, so the bar moves continuously with about one push per second.
+ * An anchor is sent earlier if the progress drifts too far from what the client extrapolates.
+ * <br/>
+ * It uses the style names of the Vaadin progress bar, so it looks the same with any theme.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+@JavaScript("interpolating-progress-bar.js")
+public class InterpolatingProgressBar extends AbstractJavaScriptComponent {
+
+	/**
+	 * The default time between two anchors, in milliseconds.
+	 */
+	public static final long DEFAULT_ANCHOR_INTERVAL = 1000;
+
+	/*
+	 * How far, in parts of the content length, the progress may drift from the client extrapolation before
+	 * an anchor is sent earlier.
+	 */
+	private static final double MAX_DRIFT = 0.05;
+
+	/*
+	 * The time between two anchors.
+	 */
+	private long anchorInterval = DEFAULT_ANCHOR_INTERVAL;
+
+	/*
+	 * When the last anchor was sent, in milliseconds.
+	 */
+	private long anchorTime;
+
+	/*
+	 * The bytes and the rate of the last anchor.
+	 */
+	private long anchorBytes;
+	private double anchorRate;
+
+	/**
+	 * Create a progress bar for a file of unknown size.
+	 */
+	public InterpolatingProgressBar() {
+		reset(-1);
+	}
+
+	/**
+	 * Start over the progress, for a new file.
+	 * @param contentLength	the size of the file in bytes, negative if unknown.
+	 */
+	public void reset(long contentLength) {
+		anchorTime = System.currentTimeMillis();
+		anchorBytes = 0;
+		anchorRate = 0;
+
+		InterpolatingProgressBarState state = getState();
+		state.contentLength = contentLength;
+		state.indeterminate = contentLength < 0;
+		state.bytes = 0;
+		state.rate = 0;
+		state.anchor++;
+	}
+
+	/**
+	 * Sets the count of the bytes read so far. The client is updated only if a new anchor is due.
+	 * @param bytes	the current count of the bytes read.
+	 * @return	true if a new anchor was set and the client should be updated.
+	 */
+	public boolean setBytes(long bytes) {
+		long now = System.currentTimeMillis();
+		long elapsed = now - anchorTime;
+
+		if (elapsed <= 0 || !isAnchorDue(bytes, elapsed)) {
+			return false;
+		}
+
+		anchorRate = (bytes - anchorBytes) * 1000.0 / elapsed;
+		anchorBytes = bytes;
+		anchorTime = now;
+
+		InterpolatingProgressBarState state = getState();
+		state.bytes = bytes;
+		state.rate = anchorRate;
+		state.anchor++;
+
+		return true;
+	}
+
+	/*
+	 * Gets whether the client needs a new anchor.
+	 */
+	private boolean isAnchorDue(long bytes, long elapsed) {
+		// No rate known yet, so the client doesn't move: anchor sooner.
+		if (anchorRate == 0) {
+			return elapsed >= anchorInterval / 4;
+		}
+
+		if (elapsed >= anchorInterval) {
+			return true;
+		}
+
+		long contentLength = getState(false).contentLength;
+		double extrapolated = anchorBytes + anchorRate * elapsed / 1000;
+
+		return contentLength > 0 && Math.abs(bytes - extrapolated) > MAX_DRIFT * contentLength;
+	}
+
+	/**
+	 * Sets whether the bar only shows that something is going on, instead of the progress.
+	 * @param indeterminate	true for an indeterminate bar.
+	 */
+	public void setIndeterminate(boolean indeterminate) {
+		getState().indeterminate = indeterminate;
+	}
+
+	/**
+	 * Gets whether the bar only shows that something is going on, instead of the progress.
+	 * @return	true for an indeterminate bar.
+	 */
+	public boolean isIndeterminate() {
+		return getState(false).indeterminate;
+	}
+
+	/**
+	 * Sets the time between two anchors. Shorter intervals correct the client more often, with more pushes.
+	 * @param anchorInterval	the anchor interval in milliseconds.
+	 */
+	public void setAnchorInterval(long anchorInterval) {
+		this.anchorInterval = anchorInterval;
+		getState().maxExtrapolation = (int) Math.max(3 * anchorInterval, 1000);
+	}
+
+	/**
+	 * Gets the time between two anchors.
+	 * @return	the anchor interval in milliseconds.
+	 */
+	public long getAnchorInterval() {
+		return anchorInterval;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.vaadin.ui.AbstractJavaScriptComponent#getState()
+	 */
+	@Override
+	protected InterpolatingProgressBarState getState() {
+		return (InterpolatingProgressBarState) super.getState();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.vaadin.ui.AbstractJavaScriptComponent#getState(boolean)
+	 */
+	@Override
+	protected InterpolatingProgressBarState getState(boolean markAsDirty) {
+		return (InterpolatingProgressBarState) super.getState(markAsDirty);
+	}
+
+}
@@ -0,0 +1,46 @@
+package org.vaadin.addons.upload;
+
+import com.vaadin.shared.ui.JavaScriptComponentState;
+
+/**
+ * The state shared with the client side of the {@link InterpolatingProgressBar}.
+ * <br/>
+ * The server only sends anchors: the bytes read and the rate at the moment of the anchor. The client extrapolates 
+ * the progress from the last anchor until the next one comes.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class InterpolatingProgressBarState extends JavaScriptComponentState {
+
+	/**
+	 * The size of the file in bytes, negative if unknown.
+	 */
+	public long contentLength = -1;
+
+	/**
+	 * The bytes read at the last anchor.
+	 */
+	public long bytes;
+
+	/**
+	 * The upload rate at the last anchor, in bytes per second.
+	 */
+	public double rate;
+
+	/**
+	 * Incremented on each anchor, so the client notices a new anchor even when the values didn't change.
+	 */
+	public int anchor;
+
+	/**
+	 * Whether the bar only shows that something is going on.
+	 */
+	public boolean indeterminate;
+
+	/**
+	 * How long the client extrapolates after the last anchor before it waits for the next one, in milliseconds.
+	 */
+	public int maxExtrapolation = 3000;
+
+}
@@ -0,0 +1,553 @@
+package org.vaadin.addons.upload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vaadin.addons.upload.ReceivePlan.Strategy;
+
+import com.vaadin.server.SessionDestroyEvent;
+import com.vaadin.server.SessionDestroyListener;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+
+/**
+ * Keeps the uploaded data in the heap of the current node.
+ * <br/>
+ * There is a single instance per JVM. Serializing it writes no data, and deserializing it resolves to the instance of the
+ * node where the session lands, so blobs uploaded on other nodes are simply not found there. The blobs of a session
+ * are released when the session is destroyed, even if the application never released them.
+ * <br/>
+ * Through the {@link AdaptiveUploadStorage}, a blob may be presized to the expected size, or made of chunks taken
+ * from a pool, so the uploads of unknown size don't copy their data each time the buffer grows.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public final class MemoryUploadStorage implements UploadStorage {
+
+	/*
+	 * The only instance.
+	 */
+	private static final MemoryUploadStorage INSTANCE = new MemoryUploadStorage();
+
+	/**
+	 * The default number of bytes the idle chunks may take in the pool, 32MB.
+	 */
+	public static final long DEFAULT_MAX_POOLED = 32 * 1024 * 1024;
+
+	/**
+	 * Gets the memory storage of this node.
+	 * @return	the memory storage.
+	 */
+	public static MemoryUploadStorage getInstance() {
+		return INSTANCE;
+	}
+
+	/*
+	 * The blobs by their id.
+	 */
+	private final transient Map<String, SessionBlob> blobs = new ConcurrentHashMap<>();
+
+	/*
+	 * The services destroying the sessions we listen to.
+	 */
+	private final transient Set<VaadinService> services = Collections.newSetFromMap(new ConcurrentHashMap<VaadinService, Boolean>());
+
+	/*
+	 * The idle chunks by their size, and the bytes they take.
+	 */
+	private final transient Map<Integer, Queue<byte[]>> pool = new ConcurrentHashMap<>();
+	private final transient AtomicLong pooled = new AtomicLong();
+
+	/*
+	 * The maximum number of bytes the idle chunks may take.
+	 */
+	private transient volatile long maxPooled = DEFAULT_MAX_POOLED;
+
+	/*
+	 * Use getInstance().
+	 */
+	private MemoryUploadStorage() {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadStorage#canStore(long)
+	 */
+	@Override
+	public boolean canStore(long contentLength) {
+		// The heap is not accounted.
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadStorage#createBlob(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public UploadBlob createBlob(String filename, String mimeType) {
+		MemoryBlob blob = new MemoryBlob(UUID.randomUUID().toString(), getCurrentSessionId(), 32);
+		blobs.put(blob.id, blob);
+
+		return blob;
+	}
+
+	/*
+	 * Create a blob as planned: a presized array, or pooled chunks.
+	 */
+	UploadBlob createBlob(ReceivePlan plan) {
+		String id = UUID.randomUUID().toString();
+		String sessionId = getCurrentSessionId();
+
+		SessionBlob blob;
+		if (plan.getStrategy() == Strategy.POOLED) {
+			blob = new PooledBlob(id, sessionId, plan.getBufferSize());
+		} else {
+			blob = new MemoryBlob(id, sessionId, plan.getBufferSize());
+		}
+		blobs.put(id, blob);
+
+		return blob;
+	}
+
+	/**
+	 * Sets the maximum number of bytes the idle chunks may take in the pool. The chunks released beyond are left
+	 * to the garbage collector.
+	 * @param maxPooled	the maximum size of the pool in bytes, 0 to not pool the chunks.
+	 */
+	public void setMaxPooled(long maxPooled) {
+		this.maxPooled = maxPooled;
+
+		while (pooled.get() > maxPooled && takeAny() != null) {
+		}
+	}
+
+	/**
+	 * Gets the maximum number of bytes the idle chunks may take in the pool.
+	 * @return	the maximum size of the pool in bytes.
+	 */
+	public long getMaxPooled() {
+		return maxPooled;
+	}
+
+	/**
+	 * Gets the number of bytes the idle chunks take in the pool.
+	 * @return	the size of the pool in bytes.
+	 */
+	public long getPooled() {
+		return pooled.get();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadStorage#getBlob(java.lang.String)
+	 */
+	@Override
+	public UploadBlob getBlob(String id) {
+		return blobs.get(id);
+	}
+
+	/**
+	 * Release all the blobs of the specified session.
+	 * @param sessionId	the id of the HTTP session.
+	 */
+	public void releaseSession(String sessionId) {
+		for (SessionBlob blob : blobs.values()) {
+			if (sessionId.equals(blob.getSessionId())) {
+				blob.release();
+			}
+		}
+	}
+
+	/*
+	 * Gets the id of the current HTTP session, listening to its destruction, null if there is none.
+	 */
+	private String getCurrentSessionId() {
+		// The HTTP session is gone when the Vaadin session is closing, or if it runs without a container.
+		VaadinSession session = VaadinSession.getCurrent();
+		if (session == null || session.getSession() == null) {
+			return null;
+		}
+
+		VaadinService service = session.getService();
+		if (service != null && services.add(service)) {
+			service.addSessionDestroyListener(new SessionReleaser());
+		}
+
+		return session.getSession().getId();
+	}
+
+	/*
+	 * Take an idle chunk of the specified size, or allocate one.
+	 */
+	private byte[] takeChunk(int size) {
+		Queue<byte[]> chunks = pool.get(size);
+		if (chunks != null) {
+			byte[] chunk = chunks.poll();
+			if (chunk != null) {
+				pooled.addAndGet(-size);
+				return chunk;
+			}
+		}
+
+		return new byte[size];
+	}
+
+	/*
+	 * Give a chunk back to the pool, if there is room.
+	 */
+	private void giveChunk(byte[] chunk) {
+		if (pooled.addAndGet(chunk.length) > maxPooled) {
+			pooled.addAndGet(-chunk.length);
+			return;
+		}
+
+		Queue<byte[]> chunks = pool.get(chunk.length);
+		if (chunks == null) {
+			synchronized (pool) {
+				chunks = pool.get(chunk.length);
+				if (chunks == null) {
+					pool.put(chunk.length, chunks = new ConcurrentLinkedQueue<>());
+				}
+			}
+		}
+		chunks.offer(chunk);
+	}
+
+	/*
+	 * Drop any idle chunk from the pool, null if it's empty.
+	 */
+	private byte[] takeAny() {
+		for (Queue<byte[]> chunks : pool.values()) {
+			byte[] chunk = chunks.poll();
+			if (chunk != null) {
+				pooled.addAndGet(-chunk.length);
+				return chunk;
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Resolve to the storage of the node where this gets deserialized.
+	 */
+	private Object readResolve() throws ObjectStreamException {
+		return INSTANCE;
+	}
+
+	/*
+	 * Release the blobs of the destroyed sessions. Refers the storage statically, so it can be serialized.
+	 */
+	private static class SessionReleaser implements SessionDestroyListener {
+
+		/* (non-Javadoc)
+		 * @see com.vaadin.server.SessionDestroyListener#sessionDestroy(com.vaadin.server.SessionDestroyEvent)
+		 */
+		@Override
+		public void sessionDestroy(SessionDestroyEvent event) {
+			if (event.getSession().getSession() != null) {
+				INSTANCE.releaseSession(event.getSession().getSession().getId());
+			}
+		}
+
+	}
+
+	/*
+	 * A blob knowing the session it was created in.
+	 */
+	private interface SessionBlob extends UploadBlob {
+
+		/*
+		 * Gets the id of the HTTP session, null if there was none.
+		 */
+		String getSessionId();
+
+	}
+
+	/*
+	 * Blob backed by a byte array.
+	 */
+	private class MemoryBlob extends ByteArrayOutputStream implements SessionBlob {
+
+		/*
+		 * The id of the blob, and of its session.
+		 */
+		private final String id;
+		private final String sessionId;
+
+		/*
+		 * Create a blob with the specified id and initial capacity.
+		 */
+		private MemoryBlob(String id, String sessionId, int capacity) {
+			super(capacity);
+			this.id = id;
+			this.sessionId = sessionId;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getId()
+		 */
+		@Override
+		public String getId() {
+			return id;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.MemoryUploadStorage.SessionBlob#getSessionId()
+		 */
+		@Override
+		public String getSessionId() {
+			return sessionId;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getOutputStream()
+		 */
+		@Override
+		public OutputStream getOutputStream() {
+			return this;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getInputStream()
+		 */
+		@Override
+		public synchronized InputStream getInputStream() {
+			// No copy, the buffer is not written anymore once the upload is done. The stream is an inner class
+			// so it keeps the blob reachable as long as the buffer, for the UploadLeakDetector.
+			return new ByteArrayInputStream(buf, 0, count) {
+			};
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getBytes()
+		 */
+		@Override
+		public byte[] getBytes() {
+			return toByteArray();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getSize()
+		 */
+		@Override
+		public synchronized long getSize() {
+			return count;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#release()
+		 */
+		@Override
+		public synchronized void release() {
+			blobs.remove(id);
+
+			buf = new byte[0];
+			count = 0;
+		}
+
+	}
+
+	/*
+	 * Blob backed by fixed size chunks from the pool.
+	 */
+	private class PooledBlob extends OutputStream implements SessionBlob {
+
+		/*
+		 * The id of the blob, and of its session.
+		 */
+		private final String id;
+		private final String sessionId;
+
+		/*
+		 * The size of the chunks.
+		 */
+		private final int chunkSize;
+
+		/*
+		 * The chunks, all full but the last one.
+		 */
+		private List<byte[]> chunks = new ArrayList<>();
+
+		/*
+		 * The number of bytes written.
+		 */
+		private long count;
+
+		/*
+		 * The input streams not closed yet, reading the chunks.
+		 */
+		private int readers;
+
+		/*
+		 * Create a blob with the specified id and chunk size.
+		 */
+		private PooledBlob(String id, String sessionId, int chunkSize) {
+			this.id = id;
+			this.sessionId = sessionId;
+			this.chunkSize = chunkSize;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getId()
+		 */
+		@Override
+		public String getId() {
+			return id;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.MemoryUploadStorage.SessionBlob#getSessionId()
+		 */
+		@Override
+		public String getSessionId() {
+			return sessionId;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#write(int)
+		 */
+		@Override
+		public synchronized void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			while (len > 0) {
+				int offset = (int) (count % chunkSize);
+				if (offset == 0 && count == (long) chunks.size() * chunkSize) {
+					chunks.add(takeChunk(chunkSize));
+				}
+
+				int n = Math.min(len, chunkSize - offset);
+				System.arraycopy(b, off, chunks.get(chunks.size() - 1), offset, n);
+
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getOutputStream()
+		 */
+		@Override
+		public OutputStream getOutputStream() {
+			return this;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getInputStream()
+		 */
+		@Override
+		public synchronized InputStream getInputStream() {
+			final List<byte[]> chunks = new ArrayList<>(this.chunks);
+			final long count = this.count;
+			readers++;
+
+			// An inner class, so it keeps the blob reachable as long as the chunks, for the UploadLeakDetector.
+			return new InputStream() {
+
+				private long position;
+
+				private boolean closed;
+
+				@Override
+				public int read() {
+					if (position >= count) {
+						return -1;
+					}
+
+					int b = chunks.get((int) (position / chunkSize))[(int) (position % chunkSize)] & 0xff;
+					position++;
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) {
+					if (position >= count) {
+						return -1;
+					}
+
+					int offset = (int) (position % chunkSize);
+					int n = (int) Math.min(Math.min(len, chunkSize - offset), count - position);
+					System.arraycopy(chunks.get((int) (position / chunkSize)), offset, b, off, n);
+
+					position += n;
+					return n;
+				}
+
+				@Override
+				public int available() {
+					return (int) Math.min(count - position, Integer.MAX_VALUE);
+				}
+
+				@Override
+				public void close() {
+					synchronized (PooledBlob.this) {
+						if (!closed) {
+							closed = true;
+							readers--;
+						}
+					}
+				}
+
+			};
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getBytes()
+		 */
+		@Override
+		public synchronized byte[] getBytes() {
+			byte[] bytes = new byte[(int) count];
+
+			for (int i = 0, offset = 0; offset < count; i++, offset += chunkSize) {
+				System.arraycopy(chunks.get(i), 0, bytes, offset, (int) Math.min(chunkSize, count - offset));
+			}
+			return bytes;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#getSize()
+		 */
+		@Override
+		public synchronized long getSize() {
+			return count;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadBlob#release()
+		 */
+		@Override
+		public synchronized void release() {
+			blobs.remove(id);
+
+			// The chunks still read by a stream opened before are left to the garbage collector.
+			if (readers == 0) {
+				for (byte[] chunk : chunks) {
+					giveChunk(chunk);
+				}
+			}
+
+			chunks = new ArrayList<>();
+			count = 0;
+		}
+
+	}
+
+}
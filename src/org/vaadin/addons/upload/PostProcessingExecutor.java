@@ -0,0 +1,348 @@
+package org.vaadin.addons.upload;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the {@link UploadPostProcessor}s on a bounded pool of threads.
+ * <br/>
+ * Jobs with a higher priority run first, jobs with the same priority in the order they were submitted.
+ * The results are cached by the digest of the content, so identical files are processed only once.
+ * 
+ * @author bogdanudrescu
+ */
+public class PostProcessingExecutor {
+
+	/*
+	 * The executor used when none is specified.
+	 */
+	private static PostProcessingExecutor defaultExecutor;
+
+	/**
+	 * Gets the executor shared by all producers with no executor of their own.
+	 * It runs as many threads as processors, with up to 1000 queued jobs and 1000 cached results.
+	 * @return	the default executor.
+	 */
+	public static synchronized PostProcessingExecutor getDefault() {
+		if (defaultExecutor == null) {
+			defaultExecutor = new PostProcessingExecutor(Runtime.getRuntime().availableProcessors(), 1000, 1000);
+		}
+
+		return defaultExecutor;
+	}
+
+	/*
+	 * Counts the executors, to name their threads.
+	 */
+	private static final AtomicInteger executorCount = new AtomicInteger();
+
+	/*
+	 * The thread pool.
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/*
+	 * Limits the number of queued and running jobs.
+	 */
+	private final Semaphore capacity;
+
+	/*
+	 * Orders the jobs with the same priority.
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+
+	/*
+	 * The running and done jobs by processor and content digest, least recently used first. A done job only keeps
+	 * its result, not the upload it processed nor its callback.
+	 */
+	private final Map<String, Future<PostProcessingResult>> cache;
+
+	/**
+	 * Create an executor.
+	 * @param threads		the number of worker threads.
+	 * @param queueCapacity	the maximum number of jobs waiting for a thread, further jobs are rejected.
+	 * @param cacheSize		the maximum number of results to keep.
+	 */
+	public PostProcessingExecutor(int threads, int queueCapacity, final int cacheSize) {
+		final String name = "upload-post-processing-" + executorCount.incrementAndGet() + "-";
+
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+
+			private AtomicInteger threadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+		executor.allowCoreThreadTimeOut(true);
+
+		capacity = new Semaphore(threads + queueCapacity);
+
+		cache = new LinkedHashMap<String, Future<PostProcessingResult>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Future<PostProcessingResult>> eldest) {
+				return size() > cacheSize;
+			}
+
+		};
+	}
+
+	/**
+	 * Submit the processing of an upload.
+	 * @param uploadProgress	the upload to process.
+	 * @param processor			the processor.
+	 * @param priority			the priority of the job, higher runs first.
+	 * @param callback			notified on the worker thread when the processing ends, may be null.
+	 * @return	the future result of the processing.
+	 * @throws RejectedExecutionException	if too many jobs are waiting.
+	 */
+	public Future<PostProcessingResult> submit(UploadProgress uploadProgress, UploadPostProcessor processor, int priority,
+			PostProcessingCallback callback) {
+
+		if (!capacity.tryAcquire()) {
+			throw new RejectedExecutionException("Too many uploads waiting to be processed.");
+		}
+
+		Job job = new Job(new JobTask(uploadProgress, processor), priority, callback);
+		try {
+			executor.execute(job);
+
+		} catch (RejectedExecutionException e) {
+			capacity.release();
+			throw e;
+		}
+
+		return job;
+	}
+
+	/**
+	 * Stop the worker threads once the submitted jobs are done.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/*
+	 * Gets the job already processing the same content, or registers this one.
+	 */
+	private Future<PostProcessingResult> lookup(String key, Job job) {
+		synchronized (cache) {
+			Future<PostProcessingResult> cached = cache.get(key);
+			if (cached == null) {
+				cache.put(key, job);
+			}
+
+			return cached;
+		}
+	}
+
+	/*
+	 * Forget a failed job, so the next identical file is processed again.
+	 */
+	private void forget(String key, Job job) {
+		synchronized (cache) {
+			if (cache.get(key) == job) {
+				cache.remove(key);
+			}
+		}
+	}
+
+	/*
+	 * Run the processor, unless an identical content is processed already.
+	 */
+	private PostProcessingResult process(Job job, UploadProgress uploadProgress, UploadPostProcessor processor) throws Exception {
+		String digest = null;
+		String key = null;
+
+		if (uploadProgress.hasStoredData()) {
+			digest = digest(uploadProgress);
+			key = processor.getClass().getName() + ':' + digest;
+
+			Future<PostProcessingResult> cached = lookup(key, job);
+			if (cached != null) {
+				try {
+					return cached.get().toCached();
+
+				} catch (ExecutionException e) {
+					return new PostProcessingResult(digest, null, e.getCause(), true);
+				}
+			}
+		}
+
+		try {
+			return new PostProcessingResult(digest, processor.process(uploadProgress), null, false);
+
+		} catch (Exception e) {
+			if (key != null) {
+				forget(key, job);
+			}
+
+			return new PostProcessingResult(digest, null, e, false);
+		}
+	}
+
+	/*
+	 * Compute the SHA-256 digest of the uploaded data.
+	 */
+	private static String digest(UploadProgress uploadProgress) throws Exception {
+		// Digested already while it was received.
+		String contentDigest = uploadProgress.getUploadSession().getContentDigest();
+		if (contentDigest != null) {
+			return contentDigest;
+		}
+
+		MessageDigest digest = MessageDigest.getInstance(UploadContentIndex.ALGORITHM);
+
+		InputStream stream = uploadProgress.getUploadStream();
+		try {
+			byte[] buffer = new byte[32 * 1024];
+			int n;
+			while ((n = stream.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+
+		} finally {
+			stream.close();
+		}
+
+		return UploadSession.toHex(digest.digest());
+	}
+
+	/*
+	 * A processing job, ordered by priority.
+	 */
+	private class Job extends FutureTask<PostProcessingResult> implements Comparable<Job> {
+
+		/*
+		 * The priority of the job.
+		 */
+		private final int priority;
+
+		/*
+		 * The order of submission.
+		 */
+		private final long order = sequence.getAndIncrement();
+
+		/*
+		 * Notified when the job is done, dropped then as it holds the upload and its session.
+		 */
+		private PostProcessingCallback callback;
+
+		/*
+		 * Create a job running the specified task.
+		 */
+		private Job(JobTask task, int priority, PostProcessingCallback callback) {
+			super(task);
+			task.job = this;
+
+			this.priority = priority;
+			this.callback = callback;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.FutureTask#done()
+		 */
+		@Override
+		protected void done() {
+			capacity.release();
+
+			PostProcessingCallback callback = this.callback;
+			this.callback = null;
+
+			if (callback != null && !isCancelled()) {
+				try {
+					callback.processed(get());
+
+				} catch (InterruptedException | ExecutionException e) {
+					callback.processed(new PostProcessingResult(null, null, e, false));
+				}
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		@Override
+		public int compareTo(Job other) {
+			if (priority != other.priority) {
+				return priority > other.priority ? -1 : 1;
+			}
+
+			return order < other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+
+	}
+
+	/*
+	 * The work of a job.
+	 */
+	private class JobTask implements Callable<PostProcessingResult> {
+
+		/*
+		 * The job running this task.
+		 */
+		private Job job;
+
+		/*
+		 * The upload to process.
+		 */
+		private final UploadProgress uploadProgress;
+
+		/*
+		 * The processor.
+		 */
+		private final UploadPostProcessor processor;
+
+		/*
+		 * Create the task.
+		 */
+		private JobTask(UploadProgress uploadProgress, UploadPostProcessor processor) {
+			this.uploadProgress = uploadProgress;
+			this.processor = processor;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public PostProcessingResult call() throws Exception {
+			return process(job, uploadProgress, processor);
+		}
+
+	}
+
+	/**
+	 * Notified when a processing job ends.
+	 */
+	public interface PostProcessingCallback {
+
+		/**
+		 * Called on the worker thread when the processing ended.
+		 * @param result	the processing result.
+		 */
+		void processed(PostProcessingResult result);
+
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.vaadin.addons.upload;
+
+/**
+ * The outcome of an {@link UploadPostProcessor}.
+ * 
+ * @author bogdanudrescu
+ */
+public class PostProcessingResult {
+
+	/*
+	 * The digest of the processed content.
+	 */
+	private final String digest;
+
+	/*
+	 * The value returned by the processor.
+	 */
+	private final Object value;
+
+	/*
+	 * The error thrown by the processor.
+	 */
+	private final Throwable error;
+
+	/*
+	 * Whether the result comes from the processing of an identical file.
+	 */
+	private final boolean cached;
+
+	/*
+	 * Create a result.
+	 */
+	PostProcessingResult(String digest, Object value, Throwable error, boolean cached) {
+		this.digest = digest;
+		this.value = value;
+		this.error = error;
+		this.cached = cached;
+	}
+
+	/**
+	 * Gets the SHA-256 digest of the processed content, as a hex string.
+	 * @return	the content digest, or null if the data was handled by a custom receiver.
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Gets the value returned by the processor.
+	 * @return	the processing result, null if it failed.
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	/**
+	 * Gets the error the processing failed with.
+	 * @return	the error, null if the processing succeeded.
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * Gets whether the processing succeeded.
+	 * @return	true if the processor returned normally.
+	 */
+	public boolean isSucceeded() {
+		return error == null;
+	}
+
+	/**
+	 * Gets whether the result was taken from the processing of a file with the same content.
+	 * @return	true if the processor didn't run for this upload.
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+
+	/*
+	 * Copy of this result, marked as cached.
+	 */
+	PostProcessingResult toCached() {
+		return new PostProcessingResult(digest, value, error, true);
+	}
+
+}
@@ -8,7 +8,6 @@ import com.vaadin.ui.Button.ClickListener;
 import com.vaadin.ui.CustomComponent;
 import com.vaadin.ui.HorizontalLayout;
 import com.vaadin.ui.Label;
-import com.vaadin.ui.ProgressBar;
 import com.vaadin.ui.UI;
 
 /**
@@ -16,13 +15,19 @@ import com.vaadin.ui.UI;
  * <br/>
  * This component actually uploads no file, but only show the progress. The progress should be updated by the actual uploader.
  * <br/>
- * Set the push mode on the UI to have this actually work. 
+ * Set the push mode on the UI to have this actually work. The bar is animated by the browser between the updates,
+ * so with manual push the client is pushed only about once per second, see {@link InterpolatingProgressBar}.
  * 
  * @author bogdanudrescu
  */
 @SuppressWarnings("serial")
 public class Progress extends CustomComponent {
 
+	/*
+	 * Measures the pushes.
+	 */
+	private static final UploadTracer TRACER = UploadTracer.getInstance();
+
 	/*
 	 * The label with the file name.
 	 */
@@ -31,10 +36,7 @@ public class Progress extends CustomComponent {
 	/*
 	 * The progress bar.
 	 */
-	private ProgressBar progressBar = new ProgressBar();
-	{
-		progressBar.setImmediate(true);
-	}
+	private InterpolatingProgressBar progressBar = new InterpolatingProgressBar();
 
 	/*
 	 * The cancel button.
@@ -79,28 +81,40 @@ public class Progress extends CustomComponent {
 		nameLabel.setValue(fileName);
 		this.contentLength = contentLength;
 
-		if (contentLength < 0) {
-			progressBar.setIndeterminate(true);
-		}
+		progressBar.reset(contentLength);
 
 		layout.addComponent(progressBar, 1);
 	}
 
 	/**
-	 * Sets the count of the bytes read so far.
+	 * Sets the count of the bytes read so far. The client is pushed only when the bar needs a new anchor.
 	 * @param currentBytesCount	the current count of the bytes read.
 	 */
 	public void setProgressValue(final long currentBytesCount) {
 		//System.out.println("setProgressValue: " + currentBytesCount + " of " + contentLength);
 
-		if (!progressBar.isIndeterminate()) {
-			progressBar.setValue((float) currentBytesCount / contentLength);
+		if (!progressBar.isIndeterminate() && progressBar.setBytes(currentBytesCount)) {
+			push();
+		}
+	}
+
+	/**
+	 * Sets the time between two updates of the client, which animates the bar in between.
+	 * @param anchorInterval	the time between two updates in milliseconds.
+	 */
+	public void setUpdateInterval(long anchorInterval) {
+		progressBar.setAnchorInterval(anchorInterval);
+	}
 
-			// Update the browser client.
-			UI currentUI = UI.getCurrent();
-			if (currentUI.getPushConfiguration().getPushMode() == PushMode.MANUAL) {
-				currentUI.push();
-			}
+	/*
+	 * Update the browser client.
+	 */
+	private void push() {
+		UI currentUI = UI.getCurrent();
+		if (currentUI != null && currentUI.getPushConfiguration().getPushMode() == PushMode.MANUAL) {
+			long begin = TRACER.begin();
+			currentUI.push();
+			TRACER.endPush(begin);
 		}
 	}
 
@@ -111,6 +125,26 @@ public class Progress extends CustomComponent {
 		layout.removeComponent(progressBar);
 	}
 
+	/**
+	 * Inform the component that the uploaded file is being processed.
+	 */
+	public void setProgressProcessing() {
+		progressBar.setIndeterminate(true);
+		progressBar.setDescription("Processing");
+		layout.addComponent(progressBar, 1);
+	}
+
+	/**
+	 * Inform the component that the processing of the uploaded file ended.
+	 * This is usually called from a background thread, inside UI.access().
+	 */
+	public void setProgressProcessed() {
+		progressBar.setDescription(null);
+		layout.removeComponent(progressBar);
+
+		push();
+	}
+
 	/**
 	 * Inform the component that the file failed to upload.
 	 */
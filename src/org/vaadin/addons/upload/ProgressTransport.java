@@ -0,0 +1,338 @@
+package org.vaadin.addons.upload;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vaadin.addons.upload.UploadSession.UploadSessionListener;
+
+import com.vaadin.shared.communication.PushMode;
+import com.vaadin.ui.PushConfiguration;
+import com.vaadin.ui.UI;
+
+/**
+ * Turns on the way the client gets the upload progress only while uploads are active.
+ * <br/>
+ * When the first upload starts, the UI gets either a manual push or a poll interval, and when the last one is idle
+ * the UI configuration is restored, so there's no permanent push connection on UIs uploading only now and then.
+ * The poll interval follows the active uploads: it's longer when many uploads are active, since each response carries
+ * all of them, and shorter when an upload is about to end, so its end shows without delay.
+ * <br/>
+ * A UI which pushes already is left as it is. Owned by the {@link UploadGroup}, which reports the active uploads.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class ProgressTransport implements Serializable, UploadSessionListener {
+
+	/**
+	 * How the client gets the progress.
+	 */
+	public static enum Mode {
+
+		/**
+		 * Manual push while uploads are active.
+		 */
+		PUSH,
+
+		/**
+		 * Polling while uploads are active.
+		 */
+		POLL,
+
+		/**
+		 * Manual push if available, polling otherwise.
+		 */
+		PUSH_OR_POLL
+	}
+
+	/**
+	 * The default poll interval, the same as the progress bar anchor interval.
+	 */
+	public static final int DEFAULT_POLL_INTERVAL = (int) InterpolatingProgressBar.DEFAULT_ANCHOR_INTERVAL;
+
+	/*
+	 * Measures the pushes.
+	 */
+	private static final UploadTracer TRACER = UploadTracer.getInstance();
+
+	/*
+	 * The number of active uploads above which the poll interval grows.
+	 */
+	private static final int UPLOADS_PER_POLL = 10;
+
+	/*
+	 * The chosen transport.
+	 */
+	private Mode mode = Mode.PUSH_OR_POLL;
+
+	/*
+	 * The poll interval bounds.
+	 */
+	private int pollInterval = DEFAULT_POLL_INTERVAL;
+	private int minPollInterval = 250;
+	private int maxPollInterval = 5000;
+
+	/*
+	 * The active uploads.
+	 */
+	private Set<UploadSession> activeSessions = new LinkedHashSet<>();
+
+	/*
+	 * The adapted UI, null while idle.
+	 */
+	private UI ui;
+
+	/*
+	 * The UI configuration to restore when idle.
+	 */
+	private PushMode savedPushMode;
+	private int savedPollInterval;
+
+	/*
+	 * Whether push was turned on, or polling.
+	 */
+	private boolean pushing;
+	private boolean polling;
+
+	/**
+	 * Sets how the client gets the progress while uploads are active.
+	 * @param mode	the transport mode.
+	 */
+	public synchronized void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Gets how the client gets the progress while uploads are active.
+	 * @return	the transport mode.
+	 */
+	public synchronized Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Sets the poll interval and its bounds.
+	 * @param pollInterval		the poll interval of a few uploads, in milliseconds.
+	 * @param minPollInterval	the shortest poll interval, used for uploads about to end.
+	 * @param maxPollInterval	the longest poll interval, used for many uploads.
+	 */
+	public synchronized void setPollInterval(int pollInterval, int minPollInterval, int maxPollInterval) {
+		this.pollInterval = pollInterval;
+		this.minPollInterval = minPollInterval;
+		this.maxPollInterval = maxPollInterval;
+	}
+
+	/**
+	 * Gets whether any upload is active, so the transport is on.
+	 * @return	true while uploads are active.
+	 */
+	public synchronized boolean isActive() {
+		return ui != null;
+	}
+
+	/**
+	 * An upload started or is being processed. Turns the transport on if it's the first one.
+	 * @param session	the upload session.
+	 * @param ui		the UI showing the upload.
+	 */
+	public synchronized void uploadActive(UploadSession session, UI ui) {
+		if (ui == null) {
+			return;
+		}
+
+		if (activeSessions.add(session)) {
+			session.addUploadSessionListener(this);
+		}
+
+		if (this.ui == null) {
+			turnOn(ui);
+		} else {
+			updatePollInterval();
+		}
+	}
+
+	/**
+	 * An upload is idle, finished or processed. Restores the UI if it was the last active one.
+	 * @param session	the upload session.
+	 */
+	public synchronized void uploadIdle(UploadSession session) {
+		if (!activeSessions.remove(session)) {
+			return;
+		}
+
+		session.removeUploadSessionListener(this);
+
+		if (activeSessions.isEmpty()) {
+			turnOff(true);
+		} else {
+			updatePollInterval();
+		}
+	}
+
+	/**
+	 * Forget all the active uploads and restore the UI configuration, when the owner is detached.
+	 */
+	public synchronized void release() {
+		Iterator<UploadSession> iterator = activeSessions.iterator();
+		while (iterator.hasNext()) {
+			iterator.next().removeUploadSessionListener(this);
+		}
+		activeSessions.clear();
+
+		if (ui != null) {
+			turnOff(false);
+		}
+	}
+
+	/*
+	 * Turn on push or polling on the UI.
+	 */
+	private void turnOn(UI ui) {
+		this.ui = ui;
+
+		PushConfiguration pushConfiguration = ui.getPushConfiguration();
+		savedPushMode = pushConfiguration.getPushMode();
+		savedPollInterval = ui.getPollInterval();
+
+		// The application pushes already.
+		if (savedPushMode.isEnabled()) {
+			return;
+		}
+
+		if (mode != Mode.POLL) {
+			try {
+				pushConfiguration.setPushMode(PushMode.MANUAL);
+				pushing = true;
+				return;
+
+			} catch (IllegalStateException e) {
+				if (mode == Mode.PUSH) {
+					Logger.getLogger(ProgressTransport.class.getName()).log(Level.WARNING, "Push is not available, the progress is not sent", e);
+					return;
+				}
+			}
+		}
+
+		polling = true;
+		updatePollInterval();
+	}
+
+	/*
+	 * Restore the UI configuration, sending the last changes first if asked.
+	 */
+	private void turnOff(boolean sendChanges) {
+		if (pushing) {
+			// Send the last changes before the connection goes away.
+			if (sendChanges) {
+				long begin = TRACER.begin();
+				ui.push();
+				TRACER.endPush(begin);
+			}
+			ui.getPushConfiguration().setPushMode(savedPushMode);
+		}
+
+		if (polling) {
+			ui.setPollInterval(savedPollInterval);
+		}
+
+		ui = null;
+		pushing = false;
+		polling = false;
+	}
+
+	/*
+	 * Set the poll interval on the UI, if it changed.
+	 */
+	private void updatePollInterval() {
+		if (!polling) {
+			return;
+		}
+
+		int interval = computePollInterval();
+
+		// The application polls more often anyway.
+		if (savedPollInterval > 0) {
+			interval = Math.min(interval, savedPollInterval);
+		}
+
+		if (ui.getPollInterval() != interval) {
+			ui.setPollInterval(interval);
+		}
+	}
+
+	/*
+	 * Compute the poll interval for the active uploads.
+	 */
+	int computePollInterval() {
+		double interval = pollInterval * Math.max(1.0, (double) activeSessions.size() / UPLOADS_PER_POLL);
+
+		long now = System.currentTimeMillis();
+
+		Iterator<UploadSession> iterator = activeSessions.iterator();
+		while (iterator.hasNext()) {
+			UploadSession session = iterator.next();
+
+			long bytesRead = session.getBytesRead();
+			long contentLength = session.getContentLength();
+			long elapsed = now - session.getStartTime();
+
+			if (bytesRead > 0 && contentLength > bytesRead && elapsed > 0) {
+				double remaining = (double) (contentLength - bytesRead) * elapsed / bytesRead;
+				interval = Math.min(interval, remaining / 2);
+			}
+		}
+
+		// Round to the shortest interval, so the UI isn't changed on each progress event.
+		int rounded = (int) Math.round(interval / minPollInterval) * minPollInterval;
+
+		return Math.max(minPollInterval, Math.min(maxPollInterval, rounded));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadProgress(org.vaadin.addons.upload.UploadSession)
+	 */
+	@Override
+	public synchronized void uploadProgress(UploadSession session) {
+		updatePollInterval();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadStarted(org.vaadin.addons.upload.UploadSession)
+	 */
+	@Override
+	public void uploadStarted(UploadSession session) {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadSucceeded(org.vaadin.addons.upload.UploadSession)
+	 */
+	@Override
+	public void uploadSucceeded(UploadSession session) {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadFailed(org.vaadin.addons.upload.UploadSession)
+	 */
+	@Override
+	public void uploadFailed(UploadSession session) {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadRejected(org.vaadin.addons.upload.UploadSession)
+	 */
+	@Override
+	public void uploadRejected(UploadSession session) {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadCanceled(org.vaadin.addons.upload.UploadSession)
+	 */
+	@Override
+	public void uploadCanceled(UploadSession session) {
+	}
+
+}
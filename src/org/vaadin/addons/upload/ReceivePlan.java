@@ -0,0 +1,114 @@
+package org.vaadin.addons.upload;
+
+import java.io.Serializable;
+
+/**
+ * How the {@link AdaptiveUploadStorage} decided to receive an upload, and why.
+ * <br/>
+ * Immutable, exposed per upload by {@link UploadSession#getReceivePlan()}.
+ *
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class ReceivePlan implements Serializable {
+
+	/**
+	 * Where the data of an upload is written.
+	 */
+	public enum Strategy {
+
+		/**
+		 * A single byte array in the heap, presized to the expected size.
+		 */
+		HEAP,
+
+		/**
+		 * Fixed size chunks in the heap, taken from a pool and given back when the blob is released.
+		 */
+		POOLED,
+
+		/**
+		 * A temporary file written through a buffer.
+		 */
+		FILE,
+
+		/**
+		 * A temporary file written through its channel from a direct buffer, without a copy in the heap.
+		 */
+		DIRECT
+
+	}
+
+	/*
+	 * Where the data is written.
+	 */
+	private final Strategy strategy;
+
+	/*
+	 * The size the plan was made for, negative if unknown.
+	 */
+	private final long expectedSize;
+
+	/*
+	 * The initial capacity, the chunk size or the size of the heap or direct write buffer, depending on the strategy.
+	 */
+	private final int bufferSize;
+
+	/*
+	 * Why the strategy and the buffer size were chosen.
+	 */
+	private final String reason;
+
+	/*
+	 * Create a plan, use AdaptiveUploadStorage.plan().
+	 */
+	ReceivePlan(Strategy strategy, long expectedSize, int bufferSize, String reason) {
+		this.strategy = strategy;
+		this.expectedSize = expectedSize;
+		this.bufferSize = bufferSize;
+		this.reason = reason;
+	}
+
+	/**
+	 * Gets where the data is written.
+	 * @return	the strategy.
+	 */
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * Gets the size the plan was made for: the announced content length, or the one expected from the statistics.
+	 * @return	the expected size in bytes, negative if unknown.
+	 */
+	public long getExpectedSize() {
+		return expectedSize;
+	}
+
+	/**
+	 * Gets the size of the buffer: the initial capacity of the {@link Strategy#HEAP} array, the size of the
+	 * {@link Strategy#POOLED} chunks, the write buffer of the {@link Strategy#FILE} or the direct buffer of the
+	 * {@link Strategy#DIRECT} file.
+	 * @return	the buffer size in bytes.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Gets why the strategy and the buffer size were chosen, for humans.
+	 * @return	the reason.
+	 */
+	public String getReason() {
+		return reason;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return strategy + " " + bufferSize + " bytes: " + reason;
+	}
+
+}
@@ -0,0 +1,478 @@
+package org.vaadin.addons.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import org.vaadin.addons.upload.UploadSession.UploadReceiver;
+import org.vaadin.addons.upload.UploadSession.UploadReceiverStream;
+
+/**
+ * Receiver splitting the uploaded data in records (lines of a csv or ndjson file) while the upload is in progress.
+ * <br/>
+ * The records are handed to the {@link RecordBatchConsumer} in batches, on the upload thread, as soon as a batch is full.
+ * The records left are handed once the {@link UploadSession} ends: in the {@link RecordBatch#isLast() last} batch if
+ * the upload succeeded, in an {@link RecordBatch#isAborted() aborted} one without the incomplete record otherwise.
+ * The bytes are never decoded to strings and the memory used stays the same whatever the size of the file.
+ * <br/>
+ * Set it on the {@link UploadProgress} through {@link UploadProgress#setUploadReceiver(UploadReceiver)}, or on an {@link UploadSession}
+ * to use it without UI, in which case the upload data won't be available through {@link UploadProgress#getUploadBytes()}.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class RecordReceiver implements UploadReceiver {
+
+	/*
+	 * The default number of records in a batch.
+	 */
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+
+	/*
+	 * The initial size of the record buffer.
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	/*
+	 * The batch consumer.
+	 */
+	private RecordBatchConsumer consumer;
+
+	/*
+	 * The maximum number of records in a batch.
+	 */
+	private int batchSize;
+
+	/*
+	 * The byte ending each record.
+	 */
+	private byte delimiter = '\n';
+
+	/*
+	 * The maximum length of a record in bytes.
+	 */
+	private int maxRecordLength = 1024 * 1024;
+
+	/**
+	 * Create a receiver delivering batches of 1000 records.
+	 * @param consumer	the consumer of the record batches.
+	 */
+	public RecordReceiver(RecordBatchConsumer consumer) {
+		this(DEFAULT_BATCH_SIZE, consumer);
+	}
+
+	/**
+	 * Create a receiver delivering batches of the specified size.
+	 * @param batchSize	the maximum number of records in a batch.
+	 * @param consumer	the consumer of the record batches.
+	 */
+	public RecordReceiver(int batchSize, RecordBatchConsumer consumer) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+		}
+
+		this.batchSize = batchSize;
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Sets the byte ending each record. A carriage return preceding it is dropped from the record. Default is new line.
+	 * @param delimiter	the record delimiter.
+	 */
+	public void setDelimiter(byte delimiter) {
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * Sets the maximum length of a record. A longer record fails the upload. Default is 1MB.
+	 * @param maxRecordLength	the maximum length of a record in bytes.
+	 */
+	public void setMaxRecordLength(int maxRecordLength) {
+		this.maxRecordLength = maxRecordLength;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadSession.UploadReceiver#receiveUpload(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public OutputStream receiveUpload(String filename, String mimeType) {
+		return new RecordOutputStream(filename);
+	}
+
+	/*
+	 * Split the written data in records.
+	 */
+	private class RecordOutputStream extends OutputStream implements UploadReceiverStream {
+
+		/*
+		 * The records buffer, containing the records of the current batch followed by the incomplete record.
+		 */
+		private byte[] buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, maxRecordLength)];
+
+		/*
+		 * The number of bytes in buffer.
+		 */
+		private int position;
+
+		/*
+		 * Where the incomplete record starts in buffer.
+		 */
+		private int recordStart;
+
+		/*
+		 * The batch handed to the consumer, reused for all the batches.
+		 */
+		private RecordBatch batch;
+
+		/*
+		 * Create a stream for the specified file.
+		 */
+		private RecordOutputStream(String filename) {
+			batch = new RecordBatch(filename, batchSize);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#write(int)
+		 */
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			int end = off + len;
+
+			while (off < end) {
+				// Copy up to the next delimiter, or as much as it fits.
+				int i = off;
+				while (i < end && b[i] != delimiter) {
+					i++;
+				}
+
+				int segmentLength = (i < end ? i + 1 : end) - off;
+				int copied = copy(b, off, segmentLength);
+				off += copied;
+
+				// The delimiter was copied too.
+				if (copied == segmentLength && i < end) {
+					endRecord();
+				}
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#close()
+		 */
+		@Override
+		public void close() throws IOException {
+			// The stream is closed on failures too, so the records left wait for the end of the upload.
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadReceiverStream#uploadEnded(boolean)
+		 */
+		@Override
+		public void uploadEnded(boolean succeeded) throws IOException {
+			if (batch == null) {
+				return;
+			}
+
+			try {
+				if (succeeded) {
+					// The last record might have no delimiter.
+					if (position > recordStart) {
+						addRecord(recordStart, position);
+						recordStart = position;
+					}
+
+					batch.last = true;
+
+				} else {
+					// The incomplete record is dropped.
+					batch.aborted = true;
+				}
+
+				deliver();
+
+			} finally {
+				batch = null;
+				buffer = null;
+			}
+		}
+
+		/*
+		 * Copy the bytes in the buffer making room when needed, returns the number of bytes copied.
+		 */
+		private int copy(byte[] b, int off, int len) throws IOException {
+			if (position == buffer.length) {
+				makeRoom();
+			}
+
+			int n = Math.min(len, buffer.length - position);
+			System.arraycopy(b, off, buffer, position, n);
+			position += n;
+
+			return n;
+		}
+
+		/*
+		 * End the record at the current position, the delimiter included.
+		 */
+		private void endRecord() throws IOException {
+			addRecord(recordStart, position - 1);
+			recordStart = position;
+
+			if (batch.count == batchSize) {
+				deliver();
+			}
+		}
+
+		/*
+		 * Add the record to the batch, unless it's empty.
+		 */
+		private void addRecord(int start, int end) {
+			if (end > start && buffer[end - 1] == '\r') {
+				end--;
+			}
+
+			if (end > start) {
+				batch.add(start, end);
+			}
+		}
+
+		/*
+		 * The buffer is full: deliver the complete records, drop the skipped empty lines or grow it for a long record.
+		 */
+		private void makeRoom() throws IOException {
+			if (batch.count > 0) {
+				deliver();
+
+			} else if (recordStart > 0) {
+				compact();
+
+			} else if (position - recordStart >= maxRecordLength) {
+				throw new IOException("Record longer then " + maxRecordLength + " bytes in " + batch.filename);
+
+			} else {
+				byte[] newBuffer = new byte[(int) Math.min((long) buffer.length * 2, maxRecordLength + 1L)];
+				System.arraycopy(buffer, 0, newBuffer, 0, position);
+				buffer = newBuffer;
+			}
+		}
+
+		/*
+		 * Hand the complete records to the consumer, then compact the buffer.
+		 */
+		private void deliver() throws IOException {
+			batch.buffer = buffer;
+			consumer.consume(batch);
+
+			batch.index++;
+			batch.first += batch.count;
+			batch.count = 0;
+
+			compact();
+		}
+
+		/*
+		 * Move the incomplete record at the start of the buffer.
+		 */
+		private void compact() {
+			System.arraycopy(buffer, recordStart, buffer, 0, position - recordStart);
+			position -= recordStart;
+			recordStart = 0;
+		}
+
+	}
+
+	/**
+	 * A batch of records, pointing directly in the receive buffer.
+	 * <br/>
+	 * The batch and its records are valid only during the {@link RecordBatchConsumer#consume(RecordBatch)} call, 
+	 * copy what needs to be kept afterwards.
+	 */
+	public static class RecordBatch {
+
+		/*
+		 * The name of the uploaded file.
+		 */
+		private final String filename;
+
+		/*
+		 * The buffer holding the records.
+		 */
+		private byte[] buffer;
+
+		/*
+		 * The start offsets of the records.
+		 */
+		private final int[] starts;
+
+		/*
+		 * The end offsets (exclusive) of the records.
+		 */
+		private final int[] ends;
+
+		/*
+		 * The number of records in the batch.
+		 */
+		private int count;
+
+		/*
+		 * The index of the batch.
+		 */
+		private long index;
+
+		/*
+		 * The index in the file of the first record of the batch.
+		 */
+		private long first;
+
+		/*
+		 * Whether this is the last batch of the file.
+		 */
+		private boolean last;
+
+		/*
+		 * Whether the upload failed or was canceled.
+		 */
+		private boolean aborted;
+
+		/*
+		 * Create a batch of the specified capacity.
+		 */
+		private RecordBatch(String filename, int capacity) {
+			this.filename = filename;
+			this.starts = new int[capacity];
+			this.ends = new int[capacity];
+		}
+
+		/*
+		 * Add a record.
+		 */
+		private void add(int start, int end) {
+			starts[count] = start;
+			ends[count] = end;
+			count++;
+		}
+
+		/**
+		 * Gets the name of the uploaded file.
+		 * @return	the file name.
+		 */
+		public String getFilename() {
+			return filename;
+		}
+
+		/**
+		 * Gets the number of records in the batch.
+		 * @return	the record count.
+		 */
+		public int getRecordCount() {
+			return count;
+		}
+
+		/**
+		 * Gets the index of the batch in the file, starting with 0.
+		 * @return	the batch index.
+		 */
+		public long getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets the index in the file of the first record of this batch.
+		 * @return	the index of the first record.
+		 */
+		public long getFirstRecordIndex() {
+			return first;
+		}
+
+		/**
+		 * Gets whether this is the last batch of the file. The last batch might have no records.
+		 * @return	true if the upload was completely received.
+		 */
+		public boolean isLast() {
+			return last;
+		}
+
+		/**
+		 * Gets whether the upload failed or was canceled, this batch ends the file then. It has the complete records 
+		 * received but not delivered yet, the incomplete one is dropped.
+		 * @return	true if the upload wasn't completely received.
+		 */
+		public boolean isAborted() {
+			return aborted;
+		}
+
+		/**
+		 * Gets the specified record, without the delimiter.
+		 * @param i	the index of the record in the batch.
+		 * @return	a read-only view of the record bytes.
+		 */
+		public ByteBuffer getRecord(int i) {
+			checkIndex(i);
+			return ByteBuffer.wrap(buffer, starts[i], ends[i] - starts[i]).asReadOnlyBuffer();
+		}
+
+		/**
+		 * Gets the buffer holding the records, to read them without any allocation together with
+		 * {@link #getRecordStart(int)} and {@link #getRecordLength(int)}.
+		 * @return	the records buffer.
+		 */
+		public byte[] getBuffer() {
+			return buffer;
+		}
+
+		/**
+		 * Gets the offset of the specified record in the buffer.
+		 * @param i	the index of the record in the batch.
+		 * @return	the start offset of the record.
+		 */
+		public int getRecordStart(int i) {
+			checkIndex(i);
+			return starts[i];
+		}
+
+		/**
+		 * Gets the length of the specified record, without the delimiter.
+		 * @param i	the index of the record in the batch.
+		 * @return	the record length in bytes.
+		 */
+		public int getRecordLength(int i) {
+			checkIndex(i);
+			return ends[i] - starts[i];
+		}
+
+		/*
+		 * Check the record index.
+		 */
+		private void checkIndex(int i) {
+			if (i < 0 || i >= count) {
+				throw new IndexOutOfBoundsException("Record " + i + " of " + count);
+			}
+		}
+
+	}
+
+	/**
+	 * Consumes the records while they are received.
+	 */
+	public interface RecordBatchConsumer extends Serializable {
+
+		/**
+		 * Called on the upload thread each time a batch is complete, and once more when the upload session ends.
+		 * An exception thrown here fails the upload.
+		 * @param batch	the record batch, valid only during this call.
+		 * @throws IOException	to fail the upload.
+		 */
+		void consume(RecordBatch batch) throws IOException;
+
+	}
+
+}
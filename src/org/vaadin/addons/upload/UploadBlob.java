@@ -0,0 +1,54 @@
+package org.vaadin.addons.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The data of one upload, living in an {@link UploadStorage}.
+ * <br/>
+ * Blobs are not meant to be serialized, refer them by their id instead.
+ * 
+ * @author bogdanudrescu
+ */
+public interface UploadBlob {
+
+	/**
+	 * Gets the id of the blob, unique inside its storage.
+	 * @return	the id of the blob.
+	 */
+	String getId();
+
+	/**
+	 * Gets the stream where to write the uploaded data.
+	 * @return	the output stream.
+	 * @throws IOException	if the stream couldn't be opened.
+	 */
+	OutputStream getOutputStream() throws IOException;
+
+	/**
+	 * Gets a stream to read the uploaded data.
+	 * @return	the input stream.
+	 * @throws IOException	if the stream couldn't be opened.
+	 */
+	InputStream getInputStream() throws IOException;
+
+	/**
+	 * Gets a copy of the uploaded data.
+	 * @return	the uploaded bytes.
+	 * @throws IOException	if the data couldn't be read.
+	 */
+	byte[] getBytes() throws IOException;
+
+	/**
+	 * Gets the number of bytes written so far.
+	 * @return	the size of the blob in bytes.
+	 */
+	long getSize();
+
+	/**
+	 * Release the data of the blob from the storage. The blob is unusable afterwards.
+	 */
+	void release();
+
+}
@@ -0,0 +1,125 @@
+package org.vaadin.addons.upload;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Limits an upload must respect. They are checked while the data is received, so the upload is interrupted
+ * as soon as it breaks one of them, before the data gets buffered.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class UploadConstraints implements Serializable {
+
+	/*
+	 * The maximum size of the upload in bytes, negative for no limit.
+	 */
+	private long maxSize = -1;
+
+	/*
+	 * The allowed content types, empty for any.
+	 */
+	private EnumSet<ContentType> allowedContentTypes = EnumSet.noneOf(ContentType.class);
+
+	/**
+	 * Create constraints with no limit.
+	 */
+	public UploadConstraints() {
+	}
+
+	/**
+	 * Create constraints with the specified limits.
+	 * @param maxSize				the maximum size of the upload in bytes, negative for no limit.
+	 * @param allowedContentTypes	the allowed content types, none for any.
+	 */
+	public UploadConstraints(long maxSize, ContentType... allowedContentTypes) {
+		this.maxSize = maxSize;
+		Collections.addAll(this.allowedContentTypes, allowedContentTypes);
+	}
+
+	/**
+	 * Gets the maximum size of the upload in bytes.
+	 * @return	the maximum size, negative for no limit.
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Sets the maximum size of the upload in bytes.
+	 * @param maxSize	the maximum size, negative for no limit.
+	 */
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Gets the allowed content types.
+	 * @return	the allowed content types, empty if any content is allowed.
+	 */
+	public Set<ContentType> getAllowedContentTypes() {
+		return Collections.unmodifiableSet(allowedContentTypes);
+	}
+
+	/**
+	 * Allow the specified content type. Once a content type is allowed, all the others are rejected.
+	 * @param contentType	the content type to allow.
+	 */
+	public void addAllowedContentType(ContentType contentType) {
+		allowedContentTypes.add(contentType);
+	}
+
+	/**
+	 * Stop allowing the specified content type.
+	 * @param contentType	the content type to remove.
+	 */
+	public void removeAllowedContentType(ContentType contentType) {
+		allowedContentTypes.remove(contentType);
+	}
+
+	/**
+	 * Check whether the size announced by the browser is acceptable.
+	 * @param contentLength	the announced size, negative if unknown.
+	 * @return	true if the size is acceptable.
+	 */
+	public boolean isSizeAllowed(long contentLength) {
+		return maxSize < 0 || contentLength <= maxSize;
+	}
+
+	/**
+	 * Gets the number of leading bytes needed to check the content type.
+	 * @return	the number of bytes to sniff, 0 if any content type is allowed.
+	 */
+	public int getSniffLength() {
+		int length = 0;
+		for (ContentType contentType : allowedContentTypes) {
+			length = Math.max(length, contentType.getSniffLength());
+		}
+
+		return length;
+	}
+
+	/**
+	 * Check whether the content starting with the specified bytes is allowed.
+	 * @param head		the first bytes of the content.
+	 * @param length	the number of valid bytes in head.
+	 * @return	true if the content type is allowed.
+	 */
+	public boolean isContentAllowed(byte[] head, int length) {
+		if (allowedContentTypes.isEmpty()) {
+			return true;
+		}
+
+		for (ContentType contentType : allowedContentTypes) {
+			if (contentType.matches(head, Math.min(length, contentType.getSniffLength()))) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+}
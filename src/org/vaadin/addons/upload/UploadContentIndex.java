@@ -0,0 +1,40 @@
+package org.vaadin.addons.upload;
+
+import java.io.Serializable;
+
+/**
+ * Finds the content the server has already, by its digest, so the browser can skip sending it again.
+ * <br/>
+ * The digests are the lowercase hex SHA-256 of the content. The {@link UploadSession} computes the digest of the
+ * data it receives when it has an index, and reports it through {@link #contentReceived(String, UploadSession)}.
+ * Implementations keep their own content (a content-addressed store, a database, ...), the data of the session
+ * is released with the session as usual.
+ * <br/>
+ * The digest looked up comes from the browser, so knowing it is not a proof of having the file. Return only the
+ * content the current user may access anyway.
+ *
+ * @author bogdanudrescu
+ */
+public interface UploadContentIndex extends Serializable {
+
+	/**
+	 * The digest algorithm, the same on the browser and the server.
+	 */
+	String ALGORITHM = "SHA-256";
+
+	/**
+	 * Find the content with the specified digest.
+	 * @param digest	the lowercase hex digest of the content.
+	 * @param size		the size of the content in bytes.
+	 * @return	a reference to the existing content, or null if the content is not known and must be uploaded.
+	 */
+	String findContent(String digest, long size);
+
+	/**
+	 * Called when the data of an upload was received, before the listeners of the session are notified.
+	 * @param digest	the lowercase hex digest of the received data, computed by the server.
+	 * @param session	the upload session holding the data.
+	 */
+	void contentReceived(String digest, UploadSession session);
+
+}
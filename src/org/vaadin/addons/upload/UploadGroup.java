@@ -1,12 +1,23 @@
 package org.vaadin.addons.upload;
 
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.vaadin.addons.upload.Progress.ProgressDelegate;
+import org.vaadin.addons.upload.UploadHistory.HistoryEntry;
 import org.vaadin.addons.upload.UploadProducer.UploadProducerAdapter;
+import org.vaadin.addons.upload.UploadProgress.UploadException;
 import org.vaadin.addons.upload.UploadProgress.UploadStatus;
 
+import com.vaadin.ui.AbstractOrderedLayout;
+import com.vaadin.ui.Button;
+import com.vaadin.ui.Button.ClickEvent;
+import com.vaadin.ui.Button.ClickListener;
 import com.vaadin.ui.Component;
 import com.vaadin.ui.ComponentContainer;
 import com.vaadin.ui.Panel;
@@ -21,6 +32,11 @@ import com.vaadin.ui.Panel;
 @SuppressWarnings("serial")
 public abstract class UploadGroup extends Panel {
 
+	/**
+	 * The default number of history entries shown at once.
+	 */
+	public static final int DEFAULT_HISTORY_PAGE_SIZE = 20;
+
 	/*
 	 * Produce and manages the UploadProgress components.
 	 */
@@ -36,6 +52,33 @@ public abstract class UploadGroup extends Panel {
 	 */
 	private ComponentContainer componentContainer;
 
+	/*
+	 * Turns on push or polling while uploads are active.
+	 */
+	private ProgressTransport progressTransport = new ProgressTransport();
+
+	/*
+	 * Where the done uploads are recorded, and shown from when the group is shown again.
+	 */
+	private UploadHistory history;
+	private int historyPageSize = DEFAULT_HISTORY_PAGE_SIZE;
+
+	/*
+	 * The index after the latest history entry not shown yet.
+	 */
+	private int historyEnd;
+
+	/*
+	 * The history entries shown, and the button showing the earlier ones.
+	 */
+	private List<Progress> historyRows = new ArrayList<>();
+	private Button earlierButton;
+
+	/*
+	 * Removes the history entries the user closes.
+	 */
+	private HistoryRowHandler historyRowHandler = new HistoryRowHandler();
+
 	/**
 	 * Create a default upload group component.
 	 */
@@ -64,6 +107,117 @@ public abstract class UploadGroup extends Panel {
 		return producer;
 	}
 
+	/**
+	 * Gets what turns on push or polling on the UI while uploads are active.
+	 * @return	the progress transport.
+	 */
+	public ProgressTransport getProgressTransport() {
+		return progressTransport;
+	}
+
+	/**
+	 * Sets the history where the done uploads are recorded. The latest entries are shown right away, before the
+	 * uploads, and the earlier ones a page at a time, on demand.
+	 * @param history	the upload history, e.g. of the user, null to record nothing.
+	 */
+	public void setHistory(UploadHistory history) {
+		this.history = history;
+
+		restoreHistory();
+	}
+
+	/**
+	 * Gets the history where the done uploads are recorded.
+	 * @return	the upload history, null if there is none.
+	 */
+	public UploadHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Sets the number of history entries shown at once.
+	 * @param historyPageSize	the history page size.
+	 */
+	public void setHistoryPageSize(int historyPageSize) {
+		this.historyPageSize = historyPageSize;
+	}
+
+	/*
+	 * Show the latest page of the history instead of the entries shown so far.
+	 */
+	private void restoreHistory() {
+		for (Progress row : historyRows) {
+			componentContainer.removeComponent(row);
+		}
+		historyRows.clear();
+
+		if (earlierButton != null) {
+			componentContainer.removeComponent(earlierButton);
+		}
+
+		if (history != null) {
+			historyEnd = history.size();
+			showEarlierHistory();
+		}
+	}
+
+	/*
+	 * Show the next page of the history, above the entries shown already.
+	 */
+	private void showEarlierHistory() {
+		List<HistoryEntry> entries;
+		try {
+			entries = history.getPageBefore(historyEnd, historyPageSize);
+
+		} catch (IOException | UploadException e) {
+			Logger.getLogger(UploadGroup.class.getName()).log(Level.WARNING, "Cannot read the upload history " + history.getName(), e);
+			entries = new ArrayList<>();
+		}
+
+		historyEnd -= entries.size();
+
+		if (historyEnd > 0 && !entries.isEmpty()) {
+			if (earlierButton == null) {
+				earlierButton = new Button("Earlier uploads", new ClickListener() {
+
+					@Override
+					public void buttonClick(ClickEvent event) {
+						showEarlierHistory();
+					}
+
+				});
+			}
+			addHistoryComponent(earlierButton);
+
+		} else if (earlierButton != null) {
+			componentContainer.removeComponent(earlierButton);
+		}
+
+		// The latest first, each pushed down by the earlier ones.
+		for (HistoryEntry entry : entries) {
+			Progress row = new Progress(entry.getFilename(), entry.getSize());
+			row.setProgressDone();
+			row.setDelegate(historyRowHandler);
+
+			historyRows.add(row);
+			addHistoryComponent(row);
+		}
+	}
+
+	/*
+	 * Add a history component at the top, below the button showing the earlier entries.
+	 */
+	private void addHistoryComponent(Component component) {
+		if (componentContainer instanceof AbstractOrderedLayout) {
+			AbstractOrderedLayout layout = (AbstractOrderedLayout) componentContainer;
+			int index = component != earlierButton && layout.getComponentIndex(earlierButton) == 0 ? 1 : 0;
+			layout.addComponent(component, index);
+
+		} else {
+			componentContainer.addComponent(component);
+		}
+	}
+
 	/**
 	 * Remove all uploads from the producer and the UI components.
 	 */
@@ -72,9 +226,11 @@ public abstract class UploadGroup extends Panel {
 		List<UploadProgress> uploadProgresses = new ArrayList<>(componentContainer.getComponentCount());
 		Iterator<Component> iterator = componentContainer.iterator();
 		while (iterator.hasNext()) {
-			UploadProgress uploadProgress = (UploadProgress) iterator.next();
-			if (uploadProgress.getStatus() != UploadStatus.NONE) {
-				uploadProgresses.add(uploadProgress);
+			Component component = iterator.next();
+
+			// The history entries are not uploads.
+			if (component instanceof UploadProgress && ((UploadProgress) component).getStatus() != UploadStatus.NONE) {
+				uploadProgresses.add((UploadProgress) component);
 			}
 		}
 
@@ -96,19 +252,63 @@ public abstract class UploadGroup extends Panel {
 	 */
 	@Override
 	public void detach() {
-		producer.removeUploadProducerListener(handler);
-
-		handler = null;
+		// Leave the UI as it was. The uploads cancel themselves if active when detached with the group, the done
+		// ones keep their data since the group may be attached again somewhere else, see release().
+		progressTransport.release();
 
 		super.detach();
 	}
 
+	/* (non-Javadoc)
+	 * @see com.vaadin.ui.AbstractComponent#attach()
+	 */
+	@Override
+	public void attach() {
+		super.attach();
+
+		// Attached again after a detach, the uploads canceled meanwhile are not available for a new file.
+		producer.ensureUploadAvailable();
+	}
+
+	/**
+	 * Release all the uploads of the group: the active ones are canceled, the data of the done ones is released
+	 * and they are removed. Detaching the group doesn't release the data, call this when the group is discarded.
+	 * The group starts over with a new upload.
+	 */
+	public void release() {
+		producer.release();
+		producer.ensureUploadAvailable();
+	}
+
 	/**
 	 * Creates the component container where the UploadProgress components will be added.
 	 * @return	a ComponentContainer object, most likely a layout.
 	 */
 	protected abstract ComponentContainer createComponentContainer();
 
+	/*
+	 * Removes a history entry from the group when the user closes it. The entry stays in the history.
+	 */
+	private class HistoryRowHandler implements ProgressDelegate, Serializable {
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.Progress.ProgressDelegate#cancelUpload(org.vaadin.addons.upload.Progress)
+		 */
+		@Override
+		public void cancelUpload(Progress uploadInfo) {
+			historyRows.remove(uploadInfo);
+			componentContainer.removeComponent(uploadInfo);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.Progress.ProgressDelegate#retryUpload(org.vaadin.addons.upload.Progress)
+		 */
+		@Override
+		public void retryUpload(Progress uploadInfo) {
+		}
+
+	}
+
 	/*
 	 * Handle the UploadProducer notifications.
 	 */
@@ -128,6 +328,60 @@ public abstract class UploadGroup extends Panel {
 		@Override
 		public void shouldRemoveUploadProgress(UploadProgress uploadProgress) {
 			componentContainer.removeComponent(uploadProgress);
+
+			progressTransport.uploadIdle(uploadProgress.getUploadSession());
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadProducer.UploadProducerAdapter#uploadStarted(org.vaadin.addons.upload.UploadProgress)
+		 */
+		@Override
+		public void uploadStarted(UploadProgress uploadProgress) {
+			progressTransport.uploadActive(uploadProgress.getUploadSession(), getUI());
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadProducer.UploadProducerAdapter#uploadFailed(org.vaadin.addons.upload.UploadProgress)
+		 */
+		@Override
+		public void uploadFailed(UploadProgress uploadProgress) {
+			progressTransport.uploadIdle(uploadProgress.getUploadSession());
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadProducer.UploadProducerAdapter#uploadCanceled(org.vaadin.addons.upload.UploadProgress)
+		 */
+		@Override
+		public void uploadCanceled(UploadProgress uploadProgress) {
+			progressTransport.uploadIdle(uploadProgress.getUploadSession());
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadProducer.UploadProducerAdapter#uploadDone(org.vaadin.addons.upload.UploadProgress)
+		 */
+		@Override
+		public void uploadDone(UploadProgress uploadProgress) {
+			if (history != null) {
+				try {
+					history.append(uploadProgress.getUploadSession());
+
+				} catch (IOException | UploadException e) {
+					Logger.getLogger(UploadGroup.class.getName()).log(Level.WARNING, "Cannot record the upload in the history " + history.getName(), e);
+				}
+			}
+
+			// Still active while the post-processing runs.
+			if (!uploadProgress.isProcessing()) {
+				progressTransport.uploadIdle(uploadProgress.getUploadSession());
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadProducer.UploadProducerAdapter#uploadProcessed(org.vaadin.addons.upload.UploadProgress, org.vaadin.addons.upload.PostProcessingResult)
+		 */
+		@Override
+		public void uploadProcessed(UploadProgress uploadProgress, PostProcessingResult result) {
+			progressTransport.uploadIdle(uploadProgress.getUploadSession());
 		}
 
 	}
@@ -0,0 +1,546 @@
+package org.vaadin.addons.upload;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vaadin.addons.upload.UploadProgress.UploadException;
+
+/**
+ * Append-only record of the completed uploads of a user or a group, kept on disk so they can be shown again later.
+ * <br/>
+ * The history is made of two files: <code>&lt;name&gt;.dat</code> holds the entries one after the other, and
+ * <code>&lt;name&gt;.idx</code> holds the offset and the length of each entry, 12 bytes per entry. Both files are
+ * memory-mapped for reading, so getting any entry, or any page of entries, takes constant time whatever the size of
+ * the history. The entries appended since are read through the file channels, until the history doubled and is
+ * mapped again. An entry is visible once its index is written, so an interrupted append is dropped when the history
+ * is opened again. The data file holds up to 2GB, millions of entries.
+ * <br/>
+ * One instance is shared by all the users of the same files in the JVM, each {@link #open(File, String)} is paired
+ * with a {@link #close()} and the files are closed by the last one. It serializes as a reference to its files.
+ *
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class UploadHistory implements Closeable, Serializable {
+
+	/*
+	 * The size of an index entry: the offset (long) and the length (int) of the data entry.
+	 */
+	private static final int INDEX_ENTRY_SIZE = 12;
+
+	/*
+	 * The encoding of the strings.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/*
+	 * The open histories, by their index file.
+	 */
+	private static final Map<File, UploadHistory> histories = new HashMap<>();
+
+	/**
+	 * Open the history with the specified name, creating its files if needed. Close it when it's not used anymore.
+	 * @param directory	the directory of the history files.
+	 * @param name		the name of the history, e.g. the id of the user or of the group.
+	 * @return	the history.
+	 * @throws IOException	if the files couldn't be opened.
+	 */
+	public static UploadHistory open(File directory, String name) throws IOException {
+		if (name.isEmpty() || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || name.startsWith(".")) {
+			throw new IllegalArgumentException("Invalid history name: " + name);
+		}
+
+		File indexFile = new File(directory, name + ".idx").getCanonicalFile();
+
+		synchronized (histories) {
+			UploadHistory history = histories.get(indexFile);
+			if (history == null) {
+				history = new UploadHistory(directory, name);
+				histories.put(indexFile, history);
+			}
+
+			history.openCount++;
+			return history;
+		}
+	}
+
+	/*
+	 * Where the history is.
+	 */
+	private final File directory;
+	private final String name;
+
+	/*
+	 * The number of times the history was opened and not closed yet, guarded by the histories.
+	 */
+	private transient int openCount;
+
+	/*
+	 * The files.
+	 */
+	private transient RandomAccessFile indexFile;
+	private transient RandomAccessFile dataFile;
+
+	/*
+	 * The number of entries, and the end of the data.
+	 */
+	private transient int count;
+	private transient long dataEnd;
+
+	/*
+	 * The mapped files, and the entries they cover.
+	 */
+	private transient MappedByteBuffer indexBuffer;
+	private transient MappedByteBuffer dataBuffer;
+	private transient int mappedCount;
+
+	/*
+	 * Open the files, dropping an interrupted append.
+	 */
+	private UploadHistory(File directory, String name) throws IOException {
+		this.directory = directory;
+		this.name = name;
+
+		directory.mkdirs();
+		indexFile = new RandomAccessFile(new File(directory, name + ".idx"), "rw");
+		dataFile = new RandomAccessFile(new File(directory, name + ".dat"), "rw");
+
+		try {
+			count = (int) (indexFile.length() / INDEX_ENTRY_SIZE);
+			long dataLength = dataFile.length();
+
+			// The last entries may point to data which was never written.
+			while (count > 0) {
+				indexFile.seek((long) (count - 1) * INDEX_ENTRY_SIZE);
+				long end = indexFile.readLong() + indexFile.readInt();
+
+				if (end <= dataLength) {
+					dataEnd = end;
+					break;
+				}
+				count--;
+			}
+
+			indexFile.setLength((long) count * INDEX_ENTRY_SIZE);
+			dataFile.setLength(dataEnd);
+
+		} catch (IOException e) {
+			indexFile.close();
+			dataFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the name of the history.
+	 * @return	the history name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Append the done upload of the specified session.
+	 * @param session	the upload session, with the status {@link UploadProgress.UploadStatus#DONE}.
+	 * @return	the index of the new entry.
+	 * @throws IOException	if the entry couldn't be written.
+	 */
+	public int append(UploadSession session) throws IOException {
+		UploadState state = session.getState();
+		if (state.getStatus() != UploadProgress.UploadStatus.DONE) {
+			throw new UploadException("Only done uploads are recorded. Status: " + state.getStatus());
+		}
+
+		String storageHandle = session.getContentReference() != null ? session.getContentReference() : session.getBlobId();
+		long size = session.hasStoredData() ? session.getSize() : Math.max(state.getBytesRead(), state.getContentLength());
+
+		return append(new HistoryEntry(session.getContentDigest(), size, state.getFilename(), state.getMimeType(), storageHandle,
+				state.getStartTime(), state.getEndTime()));
+	}
+
+	/**
+	 * Append an entry.
+	 * @param entry	the entry to append.
+	 * @return	the index of the new entry.
+	 * @throws IOException	if the entry couldn't be written.
+	 */
+	public synchronized int append(HistoryEntry entry) throws IOException {
+		checkOpen();
+
+		byte[] data = entry.encode();
+
+		// Mapped buffers are addressed by int.
+		if (dataEnd + data.length > Integer.MAX_VALUE) {
+			throw new IOException("The upload history " + name + " is full");
+		}
+
+		// The data first, so the index never points to missing data.
+		write(dataFile.getChannel(), ByteBuffer.wrap(data), dataEnd);
+
+		ByteBuffer index = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+		index.putLong(dataEnd).putInt(data.length).flip();
+		write(indexFile.getChannel(), index, (long) count * INDEX_ENTRY_SIZE);
+
+		dataEnd += data.length;
+		return count++;
+	}
+
+	/**
+	 * Gets the number of entries.
+	 * @return	the entry count.
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Gets the entry at the specified index, in the order they were appended.
+	 * @param index	the index of the entry.
+	 * @return	the entry.
+	 * @throws IOException	if the entry couldn't be read.
+	 */
+	public synchronized HistoryEntry get(int index) throws IOException {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + count);
+		}
+
+		checkOpen();
+
+		// Mapped again once the history doubled, so the files are mapped a few times only.
+		if (index >= mappedCount && count >= 2 * mappedCount) {
+			map();
+		}
+
+		if (index >= mappedCount) {
+			return read(index);
+		}
+
+		long offset = indexBuffer.getLong(index * INDEX_ENTRY_SIZE);
+		int length = indexBuffer.getInt(index * INDEX_ENTRY_SIZE + 8);
+
+		ByteBuffer data = dataBuffer.duplicate();
+		data.position((int) offset);
+		data.limit((int) offset + length);
+
+		return HistoryEntry.decode(data);
+	}
+
+	/*
+	 * Read an entry appended since the files were mapped.
+	 */
+	private HistoryEntry read(int index) throws IOException {
+		ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+		read(indexFile.getChannel(), indexEntry, (long) index * INDEX_ENTRY_SIZE);
+
+		ByteBuffer data = ByteBuffer.allocate(indexEntry.getInt(8));
+		read(dataFile.getChannel(), data, indexEntry.getLong(0));
+
+		return HistoryEntry.decode(data);
+	}
+
+	/**
+	 * Gets a page of entries, the latest first: page 0 holds the latest entries.
+	 * @param page		the index of the page.
+	 * @param pageSize	the number of entries per page.
+	 * @return	the entries of the page, empty after the last page.
+	 * @throws IOException	if the entries couldn't be read.
+	 */
+	public synchronized List<HistoryEntry> getPage(int page, int pageSize) throws IOException {
+		return getPageBefore(count - page * pageSize, pageSize);
+	}
+
+	/**
+	 * Gets a page of the entries appended before the specified index, the latest first. Paging this way is not
+	 * shifted by the entries appended in the meantime.
+	 * @param end		the index after the latest entry of the page.
+	 * @param pageSize	the number of entries per page.
+	 * @return	the entries of the page, empty if end is 0.
+	 * @throws IOException	if the entries couldn't be read.
+	 */
+	public synchronized List<HistoryEntry> getPageBefore(int end, int pageSize) throws IOException {
+		List<HistoryEntry> entries = new ArrayList<>(pageSize);
+
+		for (int index = Math.min(end, count) - 1; index >= end - pageSize && index >= 0; index--) {
+			entries.add(get(index));
+		}
+
+		return entries;
+	}
+
+	/*
+	 * Map the files as they are now.
+	 */
+	private void map() throws IOException {
+		indexBuffer = indexFile.getChannel().map(MapMode.READ_ONLY, 0, (long) count * INDEX_ENTRY_SIZE);
+		dataBuffer = dataFile.getChannel().map(MapMode.READ_ONLY, 0, dataEnd);
+		mappedCount = count;
+	}
+
+	/*
+	 * Write the whole buffer at the specified position.
+	 */
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/*
+	 * Fill the buffer from the specified position, then rewind it.
+	 */
+	private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n < 0) {
+				throw new IOException("Unexpected end of the upload history file");
+			}
+			position += n;
+		}
+
+		buffer.flip();
+	}
+
+	/*
+	 * Fail if the history was closed.
+	 */
+	private void checkOpen() {
+		if (indexFile == null) {
+			throw new UploadException("The upload history " + name + " is closed");
+		}
+	}
+
+	/**
+	 * Close the history. The files are closed once it was closed as many times as it was opened, it can be opened
+	 * again afterwards.
+	 * @throws IOException	if the files couldn't be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (histories) {
+			if (openCount == 0 || --openCount > 0) {
+				return;
+			}
+
+			histories.values().remove(this);
+		}
+
+		synchronized (this) {
+			if (indexFile != null) {
+				indexBuffer = null;
+				dataBuffer = null;
+				mappedCount = 0;
+
+				try {
+					indexFile.close();
+				} finally {
+					dataFile.close();
+					indexFile = null;
+					dataFile = null;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Resolve to the history of the same files on this node.
+	 */
+	private Object readResolve() throws ObjectStreamException {
+		try {
+			return open(directory, name);
+
+		} catch (IOException e) {
+			throw new UploadException("Cannot open the upload history " + name, e);
+		}
+	}
+
+	/**
+	 * A completed upload in the history.
+	 */
+	public static class HistoryEntry implements Serializable {
+
+		/*
+		 * The content.
+		 */
+		private final String digest;
+		private final long size;
+
+		/*
+		 * The file.
+		 */
+		private final String filename;
+		private final String mimeType;
+
+		/*
+		 * Where the content is kept, for the application.
+		 */
+		private final String storageHandle;
+
+		/*
+		 * The timings.
+		 */
+		private final long startTime;
+		private final long endTime;
+
+		/**
+		 * Create a history entry.
+		 * @param digest		the lowercase hex SHA-256 of the content, null if unknown.
+		 * @param size			the size of the content in bytes.
+		 * @param filename		the name of the file.
+		 * @param mimeType		the mime type of the file.
+		 * @param storageHandle	where the content is kept, e.g. the id of the blob or a content reference, may be null.
+		 * @param startTime		when the upload started, in milliseconds.
+		 * @param endTime		when the upload ended, in milliseconds.
+		 */
+		public HistoryEntry(String digest, long size, String filename, String mimeType, String storageHandle, long startTime, long endTime) {
+			this.digest = digest;
+			this.size = size;
+			this.filename = filename;
+			this.mimeType = mimeType;
+			this.storageHandle = storageHandle;
+			this.startTime = startTime;
+			this.endTime = endTime;
+		}
+
+		/**
+		 * Gets the digest of the content.
+		 * @return	the lowercase hex SHA-256, null if unknown.
+		 */
+		public String getDigest() {
+			return digest;
+		}
+
+		/**
+		 * Gets the size of the content.
+		 * @return	the size in bytes.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the name of the file.
+		 * @return	the file name.
+		 */
+		public String getFilename() {
+			return filename;
+		}
+
+		/**
+		 * Gets the mime type of the file.
+		 * @return	the mime type.
+		 */
+		public String getMimeType() {
+			return mimeType;
+		}
+
+		/**
+		 * Gets where the content is kept. The history doesn't keep the content, it's up to the application
+		 * to keep it as long as the history refers it.
+		 * @return	the storage handle, null if unknown.
+		 */
+		public String getStorageHandle() {
+			return storageHandle;
+		}
+
+		/**
+		 * Gets when the upload started.
+		 * @return	the start time in milliseconds.
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 * Gets when the upload ended.
+		 * @return	the end time in milliseconds.
+		 */
+		public long getEndTime() {
+			return endTime;
+		}
+
+		/*
+		 * Encode the entry: the longs, then each string as its length (-1 for null) and its UTF-8 bytes.
+		 */
+		private byte[] encode() {
+			byte[][] strings = { bytes(digest), bytes(filename), bytes(mimeType), bytes(storageHandle) };
+
+			int length = 3 * 8;
+			for (byte[] string : strings) {
+				length += 4 + (string != null ? string.length : 0);
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			buffer.putLong(size).putLong(startTime).putLong(endTime);
+
+			for (byte[] string : strings) {
+				if (string == null) {
+					buffer.putInt(-1);
+				} else {
+					buffer.putInt(string.length).put(string);
+				}
+			}
+
+			return buffer.array();
+		}
+
+		/*
+		 * Decode an entry.
+		 */
+		private static HistoryEntry decode(ByteBuffer buffer) {
+			long size = buffer.getLong();
+			long startTime = buffer.getLong();
+			long endTime = buffer.getLong();
+
+			String digest = string(buffer);
+			String filename = string(buffer);
+			String mimeType = string(buffer);
+			String storageHandle = string(buffer);
+
+			return new HistoryEntry(digest, size, filename, mimeType, storageHandle, startTime, endTime);
+		}
+
+		/*
+		 * Gets the UTF-8 bytes of the string, null for null.
+		 */
+		private static byte[] bytes(String string) {
+			return string != null ? string.getBytes(UTF8) : null;
+		}
+
+		/*
+		 * Read a string written by encode.
+		 */
+		private static String string(ByteBuffer buffer) {
+			int length = buffer.getInt();
+			if (length < 0) {
+				return null;
+			}
+
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return new String(bytes, UTF8);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return filename + " (" + size + " bytes)";
+		}
+
+	}
+
+}
@@ -0,0 +1,252 @@
+package org.vaadin.addons.upload;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Reports the upload buffers still reachable a while after their component was released, or detached and never
+ * released.
+ * <br/>
+ * When an {@link UploadProgress} is released its data is released, so the blob holding it should soon be garbage.
+ * The detector keeps a weak reference to the blob, and after the grace period reports the blobs still in the storage
+ * or still reachable, most likely through a stream or a byte array kept by the application.
+ * <br/>
+ * When a done {@link UploadProgress} is detached its data is kept, since the component may be attached again
+ * somewhere else. If after the grace period it's still detached and its data was not released, the upload is
+ * reported: the application dropped the component without removing it from its producer or releasing it, and the
+ * data stays in the storage until the session is destroyed.
+ * <br/>
+ * The reports are logged as warnings and returned by {@link #check()}.
+ * <br/>
+ * Off by default, turn it on with {@link #setEnabled(boolean)} or the system property
+ * <code>org.vaadin.addons.upload.leakDetection=true</code>.
+ * 
+ * @author bogdanudrescu
+ */
+public class UploadLeakDetector {
+
+	/**
+	 * The default time given to the blobs to become unreachable, in milliseconds.
+	 */
+	public static final long DEFAULT_GRACE_PERIOD = 60 * 1000;
+
+	/*
+	 * Whether the released uploads are tracked.
+	 */
+	private static volatile boolean enabled = Boolean.getBoolean("org.vaadin.addons.upload.leakDetection");
+
+	/*
+	 * The time given to the blobs to become unreachable.
+	 */
+	private static volatile long gracePeriod = DEFAULT_GRACE_PERIOD;
+
+	/*
+	 * The tracked blobs.
+	 */
+	private static final List<TrackedBlob> tracked = new LinkedList<>();
+
+	/*
+	 * Runs the periodic checks, started with the first tracked blob.
+	 */
+	private static ScheduledExecutorService checker;
+
+	/*
+	 * Only static methods.
+	 */
+	private UploadLeakDetector() {
+	}
+
+	/**
+	 * Turn on or off the leak detection.
+	 * @param enabled	true to track the released uploads.
+	 */
+	public static void setEnabled(boolean enabled) {
+		UploadLeakDetector.enabled = enabled;
+	}
+
+	/**
+	 * Gets whether the leak detection is on.
+	 * @return	true if the released uploads are tracked.
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets the time given to the blobs of a released upload to become unreachable before they are reported.
+	 * @param gracePeriod	the grace period in milliseconds.
+	 */
+	public static void setGracePeriod(long gracePeriod) {
+		UploadLeakDetector.gracePeriod = gracePeriod;
+	}
+
+	/*
+	 * Track the blob of the specified session, which is about to be released.
+	 */
+	static void track(UploadSession session) {
+		track(session, null);
+	}
+
+	/*
+	 * Track the blob of the specified upload, which was just detached and keeps its data.
+	 */
+	static void trackDetached(UploadProgress uploadProgress) {
+		track(uploadProgress.getUploadSession(), uploadProgress);
+	}
+
+	/*
+	 * Track the blob of the session, released or kept by the detached component.
+	 */
+	private static void track(UploadSession session, UploadProgress detached) {
+		if (!enabled) {
+			return;
+		}
+
+		UploadBlob blob = session.peekBlob();
+		if (blob == null) {
+			return;
+		}
+
+		synchronized (tracked) {
+			tracked.add(new TrackedBlob(session, blob, detached));
+
+			if (checker == null) {
+				checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "upload-leak-detector");
+						thread.setDaemon(true);
+						return thread;
+					}
+
+				});
+
+				// The checks needn't be more frequent than every second, whatever the grace period.
+				long period = Math.max(gracePeriod, 1000);
+				checker.scheduleWithFixedDelay(new Runnable() {
+
+					@Override
+					public void run() {
+						check();
+					}
+
+				}, period, period, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Check the tracked blobs now. The blobs older than the grace period are reported if still reachable,
+	 * then forgotten.
+	 * @return	the description of the leaked blobs.
+	 */
+	public static List<String> check() {
+		List<String> leaks = new ArrayList<>();
+		long now = System.currentTimeMillis();
+
+		synchronized (tracked) {
+			Iterator<TrackedBlob> iterator = tracked.iterator();
+			while (iterator.hasNext()) {
+				TrackedBlob trackedBlob = iterator.next();
+
+				if (trackedBlob.reference.get() == null || trackedBlob.isAttachedOrReleased()) {
+					iterator.remove();
+
+				} else if (now - trackedBlob.releaseTime >= gracePeriod) {
+					iterator.remove();
+					leaks.add(trackedBlob.describe(now));
+				}
+			}
+		}
+
+		Logger logger = Logger.getLogger(UploadLeakDetector.class.getName());
+		for (String leak : leaks) {
+			logger.warning(leak);
+		}
+
+		return leaks;
+	}
+
+	/*
+	 * A blob of a released or detached upload.
+	 */
+	private static class TrackedBlob {
+
+		/*
+		 * The blob, which should become unreachable.
+		 */
+		private final WeakReference<UploadBlob> reference;
+
+		/*
+		 * The detached component keeping the data, null if the upload was released.
+		 */
+		private final WeakReference<UploadProgress> detached;
+
+		/*
+		 * Where the blob was kept.
+		 */
+		private final UploadStorage storage;
+		private final String blobId;
+
+		/*
+		 * What the blob was.
+		 */
+		private final String filename;
+		private final long size;
+
+		/*
+		 * When the upload was released or detached.
+		 */
+		private final long releaseTime = System.currentTimeMillis();
+
+		/*
+		 * Track the blob of the session.
+		 */
+		private TrackedBlob(UploadSession session, UploadBlob blob, UploadProgress detached) {
+			reference = new WeakReference<>(blob);
+			this.detached = detached != null ? new WeakReference<>(detached) : null;
+			storage = session.getStorage();
+			blobId = blob.getId();
+			filename = session.getFilename();
+			size = blob.getSize();
+		}
+
+		/*
+		 * Gets whether the detached component was attached again, or its data released since, so it's no leak.
+		 */
+		private boolean isAttachedOrReleased() {
+			if (detached == null) {
+				return false;
+			}
+
+			// A component garbage collected without releasing its data still leaves the blob in the storage.
+			UploadProgress uploadProgress = detached.get();
+			return (uploadProgress != null && uploadProgress.isAttached()) || storage.getBlob(blobId) == null;
+		}
+
+		/*
+		 * Describe the leak.
+		 */
+		private String describe(long now) {
+			if (detached != null) {
+				return "The upload buffer of " + filename + " (" + size + " bytes) is still in the storage "
+						+ (now - releaseTime) / 1000 + " s after its component was detached without being released";
+			}
+
+			String where = storage.getBlob(blobId) != null ? "is still in the storage" : "is still reachable";
+			return "The upload buffer of " + filename + " (" + size + " bytes) " + where + " " + (now - releaseTime) / 1000
+					+ " s after its component was released";
+		}
+
+	}
+
+}
@@ -0,0 +1,25 @@
+package org.vaadin.addons.upload;
+
+import java.io.Serializable;
+
+/**
+ * Processes an upload once it's done (thumbnails, scanning, indexing...), off the request thread.
+ * <br/>
+ * The processors run on a {@link PostProcessingExecutor}. Files with the same content are processed only once,
+ * so the result must depend only on the uploaded data.
+ * 
+ * @author bogdanudrescu
+ */
+public interface UploadPostProcessor extends Serializable {
+
+	/**
+	 * Process the specified upload. Called on a worker thread, the upload data is read through 
+	 * {@link UploadProgress#getUploadStream()}. No UI change should be done here, use the 
+	 * {@link UploadProducer.UploadProcessedListener#uploadProcessed(UploadProgress, PostProcessingResult)} notification instead.
+	 * @param uploadProgress	the upload to process.
+	 * @return	the result of the processing, shared by all the uploads with the same content.
+	 * @throws Exception	if the processing failed.
+	 */
+	Object process(UploadProgress uploadProgress) throws Exception;
+
+}
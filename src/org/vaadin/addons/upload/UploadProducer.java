@@ -1,15 +1,21 @@
 package org.vaadin.addons.upload;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.vaadin.addons.upload.PostProcessingExecutor.PostProcessingCallback;
 import org.vaadin.addons.upload.UploadProgress.UploadProgressListener;
+import org.vaadin.addons.upload.UploadProgress.UploadRejectListener;
 import org.vaadin.addons.upload.UploadProgress.UploadStatus;
 
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
 import com.vaadin.ui.Upload.Receiver;
 
 /**
@@ -20,6 +26,11 @@ import com.vaadin.ui.Upload.Receiver;
 @SuppressWarnings("serial")
 public class UploadProducer implements Serializable {
 
+	/*
+	 * Measures the listener notifications.
+	 */
+	private static final UploadTracer TRACER = UploadTracer.getInstance();
+
 	/*
 	 * Listen to each upload events.
 	 */
@@ -67,7 +78,8 @@ public class UploadProducer implements Serializable {
 	//*/
 
 	/**
-	 * Remove the specified upload progress component.
+	 * Remove the specified upload progress component and release it: an active upload is canceled and the
+	 * data of a done one is released, see {@link UploadProgress#release()}.
 	 * @param uploadProgress	the component to remove.
 	 */
 	public void removeUpload(UploadProgress uploadProgress) {
@@ -76,10 +88,35 @@ public class UploadProducer implements Serializable {
 			// This doesn't need to synchronize
 			if (uploads.remove(uploadProgress)) {
 				fireShouldRemoveUpload(uploadProgress);
+
+				// No more events from it, so it must not keep the listeners reachable.
+				removeAllListenersFromUpload(uploadProgress);
+				uploadProgress.removeUploadListener(handler);
+
+				uploadProgress.release();
 			}
 		}
 	}
 
+	/**
+	 * Release all the uploads: the active ones are canceled, their data is released and they are removed.
+	 * The producer may produce new uploads afterwards with {@link #ensureUploadAvailable()}.
+	 */
+	public synchronized void release() {
+		for (UploadProgress uploadProgress : new ArrayList<>(uploads)) {
+			removeUpload(uploadProgress);
+		}
+	}
+
+	/**
+	 * Produce an upload if none is available for a new file.
+	 */
+	public synchronized void ensureUploadAvailable() {
+		if (!isAnyUploadAvailable()) {
+			produceUpload();
+		}
+	}
+
 	/**
 	 * Remove all upload progresses from the specified collection.
 	 * @param uploadProgresses	the collection of upload progresses to remove.
@@ -90,11 +127,202 @@ public class UploadProducer implements Serializable {
 		}
 	}
 
+	/*
+	 * The limits applied to all the uploads.
+	 */
+	private UploadConstraints constraints;
+
+	/**
+	 * Sets the limits applied to all the uploads, the ones already produced included.
+	 * @param constraints	the constraints, null for no limits.
+	 */
+	public synchronized void setConstraints(UploadConstraints constraints) {
+		this.constraints = constraints;
+
+		for (UploadProgress upload : uploads) {
+			upload.setConstraints(constraints);
+		}
+	}
+
+	/**
+	 * Gets the limits applied to all the uploads.
+	 * @return	the constraints, null if there are none.
+	 */
+	public synchronized UploadConstraints getConstraints() {
+		return constraints;
+	}
+
+	/*
+	 * The priority of the uploads among all the uploads of the server.
+	 */
+	private int uploadPriority;
+
+	/**
+	 * Sets the priority of all the uploads among all the uploads of the server, the ones already produced included.
+	 * Under pressure, the {@link UploadRegistry} sheds the lowest priority uploads first, e.g. the ones of a guest role.
+	 * @param priority	the priority, higher is shed later.
+	 */
+	public synchronized void setUploadPriority(int priority) {
+		this.uploadPriority = priority;
+
+		for (UploadProgress upload : uploads) {
+			upload.setPriority(priority);
+		}
+	}
+
+	/**
+	 * Gets the priority of the uploads among all the uploads of the server.
+	 * @return	the priority.
+	 */
+	public synchronized int getUploadPriority() {
+		return uploadPriority;
+	}
+
+	/*
+	 * Finds the content the server has already, for all the uploads.
+	 */
+	private UploadContentIndex contentIndex;
+
+	/**
+	 * Sets the index of the content the server has already, for all the uploads, the ones already produced included.
+	 * The browser skips the transfer of the files the index finds.
+	 * @param contentIndex	the content index, null to transfer every file.
+	 */
+	public synchronized void setContentIndex(UploadContentIndex contentIndex) {
+		this.contentIndex = contentIndex;
+
+		for (UploadProgress upload : uploads) {
+			upload.setContentIndex(contentIndex);
+		}
+	}
+
+	/**
+	 * Gets the index of the content the server has already.
+	 * @return	the content index, null if there is none.
+	 */
+	public synchronized UploadContentIndex getContentIndex() {
+		return contentIndex;
+	}
+
+	/*
+	 * The sizes and the rates of the recent uploads.
+	 */
+	private final UploadStatistics statistics = new UploadStatistics();
+
+	/**
+	 * Gets the statistics of the recent uploads of this producer. The {@link AdaptiveUploadStorage} plans the
+	 * storage of the next uploads from them.
+	 * @return	the statistics of the uploads.
+	 */
+	public UploadStatistics getStatistics() {
+		return statistics;
+	}
+
+	/*
+	 * Processes the done uploads.
+	 */
+	private UploadPostProcessor postProcessor;
+
+	/*
+	 * The priority of the post-processing jobs.
+	 */
+	private int postProcessingPriority;
+
+	/*
+	 * Runs the post-processing jobs, the default executor if null.
+	 */
+	private transient PostProcessingExecutor postProcessingExecutor;
+
+	/**
+	 * Sets the processor to run on each upload once it's done, with the default priority 0.
+	 * @param postProcessor	the processor, null for none.
+	 */
+	public void setPostProcessor(UploadPostProcessor postProcessor) {
+		setPostProcessor(postProcessor, 0);
+	}
+
+	/**
+	 * Sets the processor to run on each upload once it's done.
+	 * <br/>
+	 * While the processor runs the upload is shown as processing, and 
+	 * {@link UploadProcessedListener#uploadProcessed(UploadProgress, PostProcessingResult)} is called when it ends.
+	 * @param postProcessor	the processor, null for none.
+	 * @param priority		the priority of the jobs of this producer among all the jobs of the executor, higher runs first.
+	 */
+	public synchronized void setPostProcessor(UploadPostProcessor postProcessor, int priority) {
+		this.postProcessor = postProcessor;
+		this.postProcessingPriority = priority;
+	}
+
+	/**
+	 * Sets the executor running the post-processing jobs.
+	 * @param postProcessingExecutor	the executor, null for the default one.
+	 */
+	public synchronized void setPostProcessingExecutor(PostProcessingExecutor postProcessingExecutor) {
+		this.postProcessingExecutor = postProcessingExecutor;
+	}
+
+	/*
+	 * Start the post-processing of the specified upload.
+	 */
+	private synchronized void postProcess(final UploadProgress uploadProgress) {
+		PostProcessingExecutor executor = postProcessingExecutor != null ? postProcessingExecutor : PostProcessingExecutor.getDefault();
+
+		uploadProgress.setProcessing(true);
+
+		// The component may be detached when the processing ends, it still belongs to this session.
+		final VaadinSession session = VaadinSession.getCurrent();
+
+		try {
+			executor.submit(uploadProgress, postProcessor, postProcessingPriority, new PostProcessingCallback() {
+
+				@Override
+				public void processed(final PostProcessingResult result) {
+					Runnable finish = new Runnable() {
+
+						@Override
+						public void run() {
+							uploadProgress.setProcessing(false);
+							fireUploadProcessed(uploadProgress, result);
+						}
+
+					};
+
+					UI ui = uploadProgress.getUI();
+					if (ui != null) {
+						ui.access(finish);
+
+					} else if (session != null) {
+						session.lock();
+						try {
+							finish.run();
+						} finally {
+							session.unlock();
+						}
+
+					} else {
+						// Not used in a Vaadin session at all, nothing to synchronize with.
+						finish.run();
+					}
+				}
+
+			});
+
+		} catch (RejectedExecutionException e) {
+			uploadProgress.setProcessing(false);
+			fireUploadProcessed(uploadProgress, new PostProcessingResult(null, null, e, false));
+		}
+	}
+
 	/*
 	 * Produce a new upload.
 	 */
 	private void produceUpload() {
 		UploadProgress upload = new UploadProgress(handler);
+		upload.setConstraints(constraints);
+		upload.setContentIndex(contentIndex);
+		upload.setPriority(uploadPriority);
+		upload.setStatistics(statistics);
 		addAllListenersToUpload(upload);
 
 		uploads.add(upload);
@@ -102,10 +330,17 @@ public class UploadProducer implements Serializable {
 		fireUploadProduced(upload);
 	}
 
+	/*
+	 * Gets the handler of the upload events, for the benchmarks and tests.
+	 */
+	UploadProgressHandler getUploadProgressHandler() {
+		return handler;
+	}
+
 	/*
 	 * Gets whether any upload is available.
 	 */
-	private boolean isAnyUploadAvailable() {
+	boolean isAnyUploadAvailable() {
 		EnumSet<UploadStatus> enumSet = EnumSet.noneOf(UploadStatus.class); // This should be slow though, but it's fancy enough.
 
 		Iterator<UploadProgress> iterator = uploads.iterator();
@@ -129,9 +364,11 @@ public class UploadProducer implements Serializable {
 			synchronized (UploadProducer.this) {
 
 				// This doesn't need to synchronize
-				uploads.remove(uploadProgress);
+				if (uploads.remove(uploadProgress)) {
+					uploadProgress.release();
+				}
 
-				// uploadProgress.removeUploadListener(this); // FIXME: either this or just remove the listeners automatically from the upload component directly. Any way there will be no further events...
+				// The upload clears its listeners itself right after this notification.
 			}
 		}
 
@@ -167,6 +404,9 @@ public class UploadProducer implements Serializable {
 		 */
 		@Override
 		public void uploadDone(UploadProgress uploadProgress) {
+			if (postProcessor != null) {
+				postProcess(uploadProgress);
+			}
 		}
 
 	}
@@ -223,9 +463,8 @@ public class UploadProducer implements Serializable {
 		}
 	}
 
-	/**
-	 * Remove all the listeners from the specified upload.
-	 * @deprecated dangerous method to remove all listeners.
+	/*
+	 * Remove all the listeners from the specified upload, once it's removed from the producer.
 	 */
 	private synchronized void removeAllListenersFromUpload(UploadProgress upload) {
 		for (UploadProducerListener listener : listeners) {
@@ -239,7 +478,24 @@ public class UploadProducer implements Serializable {
 	 */
 	protected synchronized void fireUploadProduced(UploadProgress upload) {
 		for (UploadProducerListener listener : listeners) {
+			long begin = TRACER.begin();
 			listener.uploadProgressProduced(upload);
+			TRACER.endNotification("uploadProgressProduced", listener, begin);
+		}
+	}
+
+	/**
+	 * Notify when the post-processing of an upload ended, only the {@link UploadProcessedListener}s are interested.
+	 * @param upload	the processed upload.
+	 * @param result	the processing result.
+	 */
+	protected synchronized void fireUploadProcessed(UploadProgress upload, PostProcessingResult result) {
+		for (UploadProducerListener listener : listeners) {
+			if (listener instanceof UploadProcessedListener) {
+				long begin = TRACER.begin();
+				((UploadProcessedListener) listener).uploadProcessed(upload, result);
+				TRACER.endNotification("uploadProcessed", listener, begin);
+			}
 		}
 	}
 
@@ -249,7 +505,9 @@ public class UploadProducer implements Serializable {
 	 */
 	protected synchronized void fireShouldRemoveUpload(UploadProgress upload) {
 		for (UploadProducerListener listener : listeners) {
+			long begin = TRACER.begin();
 			listener.shouldRemoveUploadProgress(upload);
+			TRACER.endNotification("shouldRemoveUploadProgress", listener, begin);
 		}
 	}
 
@@ -270,9 +528,25 @@ public class UploadProducer implements Serializable {
 	}
 
 	/**
-	 * Adapter with no body implementation for any of the methods.
+	 * An {@link UploadProducerListener} told when the {@link UploadPostProcessor} finished with an upload.
+	 */
+	public interface UploadProcessedListener extends UploadProducerListener {
+
+		/**
+		 * Called on the UI thread when the {@link UploadPostProcessor} finished with an upload, or with the session
+		 * locked if the upload was detached meanwhile.
+		 * @param uploadProgress	the processed component.
+		 * @param result			the processing result.
+		 */
+		void uploadProcessed(UploadProgress uploadProgress, PostProcessingResult result);
+
+	}
+
+	/**
+	 * Adapter with no body implementation for any of the methods. The rejected uploads are reported as failed
+	 * unless {@link #uploadRejected(UploadProgress)} is overridden.
 	 */
-	public static abstract class UploadProducerAdapter implements UploadProducerListener {
+	public static abstract class UploadProducerAdapter implements UploadProducerListener, UploadRejectListener, UploadProcessedListener {
 
 		/* (non-Javadoc)
 		 * @see com.example.utils.upload.UploadProgress.UploadProgressListener#shouldRemoveUploadProgress(com.example.utils.upload.UploadProgress)
@@ -295,6 +569,14 @@ public class UploadProducer implements Serializable {
 		public void uploadFailed(UploadProgress uploadProgress) {
 		}
 
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadProgress.UploadRejectListener#uploadRejected(org.vaadin.addons.upload.UploadProgress)
+		 */
+		@Override
+		public void uploadRejected(UploadProgress uploadProgress) {
+			uploadFailed(uploadProgress);
+		}
+
 		/* (non-Javadoc)
 		 * @see com.example.utils.upload.UploadProgress.UploadProgressListener#uploadCanceled(com.example.utils.upload.UploadProgress)
 		 */
@@ -316,6 +598,13 @@ public class UploadProducer implements Serializable {
 		public void uploadProgressProduced(UploadProgress uploadProgress) {
 		}
 
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadProducer.UploadProcessedListener#uploadProcessed(org.vaadin.addons.upload.UploadProgress, org.vaadin.addons.upload.PostProcessingResult)
+		 */
+		@Override
+		public void uploadProcessed(UploadProgress uploadProgress, PostProcessingResult result) {
+		}
+
 	}
 
 }
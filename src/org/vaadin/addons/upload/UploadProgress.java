@@ -1,14 +1,21 @@
 package org.vaadin.addons.upload;
 
-import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import org.vaadin.addons.upload.ContentHashExtension.ContentHandler;
 import org.vaadin.addons.upload.Progress.ProgressDelegate;
+import org.vaadin.addons.upload.UploadSession.CancelReason;
+import org.vaadin.addons.upload.UploadSession.RejectReason;
+import org.vaadin.addons.upload.UploadSession.UploadInterrupter;
+import org.vaadin.addons.upload.UploadSession.UploadReceiver;
+import org.vaadin.addons.upload.UploadSession.UploadSessionListener;
 
+import com.vaadin.server.Page;
 import com.vaadin.ui.CustomComponent;
 import com.vaadin.ui.Notification;
 import com.vaadin.ui.Notification.Type;
@@ -23,7 +30,7 @@ import com.vaadin.ui.Upload.SucceededEvent;
 import com.vaadin.ui.Upload.SucceededListener;
 
 /**
- * Files upload component, including the progress and file info.
+ * Files upload component, including the progress and file info. It's the view of an {@link UploadSession}.
  * 
  * @author bogdanudrescu
  */
@@ -34,11 +41,62 @@ import com.vaadin.ui.Upload.SucceededListener;
 @SuppressWarnings("serial")
 public class UploadProgress extends CustomComponent {
 
+	/**
+	 * Upload status.
+	 */
+	public static enum UploadStatus {
+
+		/**
+		 * The upload didn't start.
+		 */
+		NONE,
+
+		/**
+		 * Upload the date now.
+		 */
+		UPLOADING,
+
+		/**
+		 * Canceled by the user, or by the server, see {@link CancelReason}.
+		 */
+		CANCELED,
+
+		/**
+		 * Failed to upload.
+		 */
+		FAILED,
+
+		/**
+		 * Rejected because it broke the {@link UploadConstraints}.
+		 */
+		REJECTED,
+
+		/**
+		 * Upload succeeded.
+		 */
+		DONE
+	}
+
+	/*
+	 * Measures the listener notifications.
+	 */
+	private static final UploadTracer TRACER = UploadTracer.getInstance();
+
 	/*
 	 * The upload component.
 	 */
 	private Upload upload;
 
+	/*
+	 * The model of the upload.
+	 */
+	private UploadSession session;
+
+	/*
+	 * Digests the selected file in the browser, while there is a content index.
+	 */
+	private ContentHashExtension contentHash;
+
 	/*
 	 * Handle the upload component events.
 	 */
@@ -56,7 +114,22 @@ public class UploadProgress extends CustomComponent {
 	 * @param listener	the initial upload listener.
 	 */
 	public UploadProgress(UploadProgressListener listener) {
-		addUploadListener(listener);
+		this(new UploadSession(), listener);
+	}
+
+	/**
+	 * Create an upload progress info component as the view of the specified session.
+	 * @param session	the model of the upload.
+	 * @param listener	the initial upload listener.
+	 */
+	public UploadProgress(UploadSession session, UploadProgressListener listener) {
+		if (listener != null) {
+			addUploadListener(listener);
+		}
+
+		this.session = session;
+		session.setInterrupter(uploadEventsHandler);
+		session.addUploadSessionListener(uploadEventsHandler);
 
 		upload = new Upload();
 		upload.setReceiver(uploadEventsHandler);
@@ -68,58 +141,169 @@ public class UploadProgress extends CustomComponent {
 		setCompositionRoot(upload);
 	}
 
+	/* (non-Javadoc)
+	 * @see com.vaadin.ui.AbstractComponent#attach()
+	 */
+	@Override
+	public void attach() {
+		super.attach();
+
+		// Bound again to the session if the component was detached before, never twice.
+		released = false;
+		session.setInterrupter(uploadEventsHandler);
+		session.removeUploadSessionListener(uploadEventsHandler);
+		session.addUploadSessionListener(uploadEventsHandler);
+	}
+
 	/* (non-Javadoc)
 	 * @see com.vaadin.ui.AbstractComponent#detach()
 	 */
 	@Override
 	public void detach() {
-		// TODO Implement this?
+		// Only the active upload is stopped, nobody sees it anymore. A done upload keeps its data, the component
+		// may just be moved to another parent: the data is released when the upload is removed, see release().
+		if (!session.cancel(CancelReason.RELEASED)) {
+			UploadLeakDetector.trackDetached(this);
+		}
 
 		super.detach();
 	}
 
-	/**
-	 * Upload status.
+	/*
+	 * Whether the component was released.
 	 */
-	public static enum UploadStatus {
+	private volatile boolean released;
 
-		/**
-		 * The upload didn't start.
-		 */
-		NONE,
+	/**
+	 * Release the upload: an active upload is canceled, the stored data is released and the component stops
+	 * following its session. Called by the {@link UploadProducer} when it removes the upload, an application
+	 * using the component on its own calls it when it discards the component. Detaching the component doesn't
+	 * release the data, it only cancels an active upload.
+	 * <br/>
+	 * The data of an upload being post-processed is released when the processing ends.
+	 */
+	public void release() {
+		if (released) {
+			return;
+		}
+		released = true;
 
-		/**
-		 * Upload the date now.
-		 */
-		UPLOADING,
+		session.cancel(CancelReason.RELEASED);
 
-		/**
-		 * Canceled by the user.
-		 */
-		CANCELED,
+		UploadLeakDetector.track(session);
 
-		/**
-		 * Failed to upload.
-		 */
-		FAILED,
+		if (!processing) {
+			session.releaseData();
+		}
 
-		/**
-		 * Upload succeeded.
-		 */
-		DONE
+		session.removeUploadSessionListener(uploadEventsHandler);
+		session.setInterrupter(null);
 	}
 
 	/**
-	 * The status of the upload.
+	 * Gets the upload session this component is the view of.
+	 * @return	the upload session.
 	 */
-	private volatile UploadStatus status = UploadStatus.NONE;
+	public UploadSession getUploadSession() {
+		return session;
+	}
 
 	/**
 	 * Gets the current status of the upload.
 	 * @return	the current status of the upload.
 	 */
 	public UploadStatus getStatus() {
-		return status;
+		return session.getStatus();
+	}
+
+	/**
+	 * Gets a consistent snapshot of the upload, without locking. Safe to call from any thread.
+	 * @return	the current upload state.
+	 */
+	public UploadState getUploadState() {
+		return session.getState();
+	}
+
+	/**
+	 * Gets how the data of the current upload is received, and why.
+	 * @return	the plan, null if the storage is not an {@link AdaptiveUploadStorage} or a custom receiver got the data.
+	 */
+	public ReceivePlan getReceivePlan() {
+		return session.getReceivePlan();
+	}
+
+	/**
+	 * Sets the limits the upload must respect. An upload breaking them is interrupted right away
+	 * and ends with the {@link UploadStatus#REJECTED} status.
+	 * @param constraints	the constraints, null for no limits.
+	 */
+	public void setConstraints(UploadConstraints constraints) {
+		session.setConstraints(constraints);
+	}
+
+	/**
+	 * Gets the limits the upload must respect.
+	 * @return	the constraints, null if there are none.
+	 */
+	public UploadConstraints getConstraints() {
+		return session.getConstraints();
+	}
+
+	/**
+	 * Gets the reason the upload was rejected.
+	 * @return	the reject reason, or null if the status is not {@link UploadStatus#REJECTED}.
+	 */
+	public RejectReason getRejectReason() {
+		return session.getRejectReason();
+	}
+
+	/**
+	 * Gets the reason the upload was canceled.
+	 * @return	the cancel reason, or null if the status is not {@link UploadStatus#CANCELED}.
+	 */
+	public CancelReason getCancelReason() {
+		return session.getCancelReason();
+	}
+
+	/*
+	 * The priority of the upload among all the uploads of the server.
+	 */
+	private volatile int priority;
+
+	/**
+	 * Sets the priority of the upload among all the uploads of the server, 0 by default. Under pressure, the
+	 * {@link UploadRegistry} sheds the lowest priority uploads first. The priority is taken when the upload starts,
+	 * so it can be set by file class in {@link UploadProgressListener#uploadStarted(UploadProgress)}.
+	 * @param priority	the priority, higher is shed later.
+	 */
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * Gets the priority of the upload among all the uploads of the server.
+	 * @return	the priority.
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Sets the storage where the uploaded data is kept when no custom receiver handles it.
+	 * <br/>
+	 * Only the id of the blob is kept in the component, so the upload data is not serialized with the session.
+	 * @param storage	the upload storage.
+	 */
+	public void setStorage(UploadStorage storage) {
+		session.setStorage(storage);
+	}
+
+	/**
+	 * Gets the storage where the uploaded data is kept when no custom receiver handles it.
+	 * @return	the upload storage.
+	 */
+	public UploadStorage getStorage() {
+		return session.getStorage();
 	}
 
 	/**
@@ -127,80 +311,140 @@ public class UploadProgress extends CustomComponent {
 	 * @param receiver	the custom receiver.
 	 */
 	public void setReceiver(Receiver receiver) {
-		uploadEventsHandler.receiver = receiver;
+		session.setReceiver(receiver != null ? new ReceiverAdapter(receiver) : null);
 	}
 
-	/*
-	 * Used to upload attachment files.
+	/**
+	 * Sets the custom receiver, instead of a Vaadin {@link Receiver}.
+	 * @param receiver	the custom receiver, null to keep the data in the storage.
 	 */
-	private class UploadEventsHandler implements Receiver, StartedListener, ProgressListener, SucceededListener, FailedListener, ProgressDelegate {
+	public void setUploadReceiver(UploadReceiver receiver) {
+		session.setReceiver(receiver);
+	}
 
-		/*
-		 * The upload info component.
-		 */
-		private Progress uploadInfo;
+	/**
+	 * Sets the index of the content the server has already. The browser digests the selected file and skips the
+	 * transfer when the index finds its content: the upload is done right away, with the reference to the existing
+	 * content in {@link UploadSession#getContentReference()} and no stored data.
+	 * @param contentIndex	the content index, null to transfer every file.
+	 */
+	public void setContentIndex(UploadContentIndex contentIndex) {
+		session.setContentIndex(contentIndex);
 
-		/*
-		 * The name of the file being uploaded.
-		 */
-		private String filename;
+		if (contentIndex != null && contentHash == null) {
+			contentHash = new ContentHashExtension(uploadEventsHandler);
+			contentHash.extend(upload);
+		}
 
-		/*
-		 * The mime type of the file being uploaded.
-		 */
-		private String mimeType;
+		if (contentHash != null) {
+			contentHash.setEnabled(contentIndex != null);
+		}
+	}
 
-		/*
-		 * A custom receiver.
-		 */
-		private Receiver receiver;
+	/**
+	 * Gets the index of the content the server has already.
+	 * @return	the content index, null if there is none.
+	 */
+	public UploadContentIndex getContentIndex() {
+		return session.getContentIndex();
+	}
+
+	/**
+	 * Sets the statistics of the uploads of the same producer, to plan the storage of the next uploads.
+	 * @param statistics	the statistics, null to use only the global ones.
+	 */
+	public void setStatistics(UploadStatistics statistics) {
+		session.setStatistics(statistics);
+	}
+
+	/**
+	 * Gets the statistics of the uploads of the same producer.
+	 * @return	the statistics, null if there are none.
+	 */
+	public UploadStatistics getStatistics() {
+		return session.getStatistics();
+	}
+
+	/*
+	 * Gets the wrapped upload component, for the benchmarks and tests driving the upload events.
+	 */
+	Upload getUpload() {
+		return upload;
+	}
+
+	/*
+	 * Gets the handler of the upload component events, for the benchmarks and tests driving the upload events.
+	 */
+	UploadEventsHandler getUploadEventsHandler() {
+		return uploadEventsHandler;
+	}
+
+	/*
+	 * Translates the upload component events into session calls, and the session events into the progress view
+	 * and the upload listeners events.
+	 */
+	class UploadEventsHandler implements Receiver, StartedListener, ProgressListener, SucceededListener, FailedListener, ProgressDelegate,
+			UploadSessionListener, UploadInterrupter, ContentHandler {
 
 		/*
-		 * The output stream where to write the response.
+		 * The upload info component.
 		 */
-		private ByteArrayOutputStream stream;
+		private Progress uploadInfo;
 
 		/* (non-Javadoc)
 		 * @see com.vaadin.ui.Upload.Receiver#receiveUpload(java.lang.String, java.lang.String)
 		 */
 		@Override
 		public OutputStream receiveUpload(String filename, String mimeType) {
+			return session.receive(filename, mimeType);
+		}
 
-			this.filename = filename;
-			this.mimeType = mimeType;
+		/* (non-Javadoc)
+		 * @see com.vaadin.ui.Upload.StartedListener#uploadStarted(com.vaadin.ui.Upload.StartedEvent)
+		 */
+		@Override
+		public void uploadStarted(StartedEvent event) {
+			showProgress(event.getFilename(), event.getContentLength());
 
-			this.stream = null;
-			OutputStream stream = null;
+			session.start(event.getFilename(), event.getMIMEType(), event.getContentLength());
+		}
 
-			if (receiver != null) {
-				stream = receiver.receiveUpload(filename, mimeType);
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.ContentHashExtension.ContentHandler#contentHashed(java.lang.String, java.lang.String, java.lang.String, long)
+		 */
+		@Override
+		public boolean contentHashed(String digest, String filename, String mimeType, long size) {
+			UploadContentIndex contentIndex = session.getContentIndex();
+			if (contentIndex == null || released || upload.isUploading()) {
+				return false;
 			}
 
-			if (stream == null) {
-				this.stream = new ByteArrayOutputStream();
-				stream = this.stream;
+			String reference = contentIndex.findContent(digest, size);
+			if (reference == null) {
+				return false;
 			}
 
-			return stream;
+			showProgress(filename, size);
+
+			session.start(filename, mimeType, size);
+			session.reuse(digest, reference);
+
+			return true;
 		}
 
-		/* (non-Javadoc)
-		 * @see com.vaadin.ui.Upload.StartedListener#uploadStarted(com.vaadin.ui.Upload.StartedEvent)
+		/*
+		 * Show the progress of the specified file instead of the upload.
 		 */
-		@Override
-		public void uploadStarted(StartedEvent event) {
+		private void showProgress(String filename, long contentLength) {
 			if (uploadInfo == null) {
-				uploadInfo = new Progress(event.getFilename(), event.getContentLength());
+				uploadInfo = new Progress(filename, contentLength);
 				uploadInfo.setDelegate(this);
 
 			} else {
-				uploadInfo.reset(event.getFilename(), event.getContentLength());
+				uploadInfo.reset(filename, contentLength);
 			}
 
 			setCompositionRoot(uploadInfo);
-
-			status = UploadStatus.UPLOADING;
-			fireUploadStarted();
 		}
 
 		/* (non-Javadoc)
@@ -208,7 +452,7 @@ public class UploadProgress extends CustomComponent {
 		 */
 		@Override
 		public void updateProgress(long readBytes, long contentLength) {
-			uploadInfo.setProgressValue(readBytes);
+			session.progress(readBytes, contentLength);
 		}
 
 		/* (non-Javadoc)
@@ -216,48 +460,108 @@ public class UploadProgress extends CustomComponent {
 		 */
 		@Override
 		public void uploadSucceeded(SucceededEvent event) {
+			session.succeed();
+		}
+
+		/* (non-Javadoc)
+		 * @see com.vaadin.ui.Upload.FailedListener#uploadFailed(com.vaadin.ui.Upload.FailedEvent)
+		 */
+		@Override
+		public void uploadFailed(FailedEvent event) {
+			session.fail(event.getReason());
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadInterrupter#interruptUpload()
+		 */
+		@Override
+		public void interruptUpload() {
+			upload.interruptUpload();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadStarted(org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void uploadStarted(UploadSession session) {
+			fireUploadStarted();
+
+			UploadRegistry.register(UploadProgress.this);
+		}
 
-			System.out.println("uploadSucceeded");
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadProgress(org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void uploadProgress(UploadSession session) {
+			uploadInfo.setProgressValue(session.getBytesRead());
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadSucceeded(org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void uploadSucceeded(UploadSession session) {
+			UploadRegistry.unregister(UploadProgress.this);
 
 			uploadInfo.setProgressDone();
 
-			Notification.show("Upload succedded");
+			showNotification("Upload succedded", Type.HUMANIZED_MESSAGE);
 
-			status = UploadStatus.DONE;
 			fireUploadDone();
 		}
 
 		/* (non-Javadoc)
-		 * @see com.vaadin.ui.Upload.FailedListener#uploadFailed(com.vaadin.ui.Upload.FailedEvent)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadFailed(org.vaadin.addons.upload.UploadSession)
 		 */
 		@Override
-		public void uploadFailed(FailedEvent event) {
+		public void uploadFailed(UploadSession session) {
+			UploadRegistry.unregister(UploadProgress.this);
 
 			uploadInfo.setProgressFail();
 
-			Notification.show("Upload failed", Type.ERROR_MESSAGE);
+			showNotification("Upload failed", Type.ERROR_MESSAGE);
 
-			closeStream();
-
-			status = UploadStatus.FAILED;
 			fireUploadFailed();
 		}
 
 		/* (non-Javadoc)
-		 * @see com.example.utils.UploadInfo.UploadInfoDelegate#cancelUpload(com.example.utils.UploadInfo)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadRejected(org.vaadin.addons.upload.UploadSession)
 		 */
 		@Override
-		public void cancelUpload(Progress uploadInfo) {
-			if (upload.isUploading()) {
+		public void uploadRejected(UploadSession session) {
+			UploadRegistry.unregister(UploadProgress.this);
 
-				upload.interruptUpload();
+			uploadInfo.setProgressFail();
 
-				setCompositionRoot(upload);
+			showNotification("Upload rejected", Type.ERROR_MESSAGE);
+
+			fireUploadRejected();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadSessionListener#uploadCanceled(org.vaadin.addons.upload.UploadSession)
+		 */
+		@Override
+		public void uploadCanceled(UploadSession session) {
+			UploadRegistry.unregister(UploadProgress.this);
+
+			setCompositionRoot(upload);
+
+			if (session.getCancelReason() == CancelReason.OVERLOAD) {
+				showNotification("Upload interrupted, the server is busy", Type.WARNING_MESSAGE);
+			}
 
-				closeStream();
+			fireUploadCanceled();
+		}
 
-				status = UploadStatus.CANCELED;
-				fireUploadCanceled();
+		/* (non-Javadoc)
+		 * @see com.example.utils.UploadInfo.UploadInfoDelegate#cancelUpload(com.example.utils.UploadInfo)
+		 */
+		@Override
+		public void cancelUpload(Progress uploadInfo) {
+			if (upload.isUploading()) {
+				session.cancel();
 
 			} else {
 				fireShouldRemoveUploadComponent();
@@ -273,27 +577,51 @@ public class UploadProgress extends CustomComponent {
 		}
 
 		/*
-		 * Close the output stream where the data is saved.
-		 */
-		private void closeStream() {
-			try {
-				if (stream != null) {
-					stream.close();
-					stream = null;
-				}
-			} catch (Exception e) {
+		 * Show a notification on the current page, if there is one (not the case when driven headless).
+		 */
+		private void showNotification(String caption, Type type) {
+			if (Page.getCurrent() != null) {
+				Notification.show(caption, type);
 			}
 		}
 
 	}
 
+	/*
+	 * Lets a Vaadin receiver act as the receiver of the session.
+	 */
+	private static class ReceiverAdapter implements UploadReceiver {
+
+		/*
+		 * The Vaadin receiver.
+		 */
+		private Receiver receiver;
+
+		/*
+		 * Create the adapter of the Vaadin receiver.
+		 */
+		private ReceiverAdapter(Receiver receiver) {
+			this.receiver = receiver;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.vaadin.addons.upload.UploadSession.UploadReceiver#receiveUpload(java.lang.String, java.lang.String)
+		 */
+		@Override
+		public OutputStream receiveUpload(String filename, String mimeType) {
+			return receiver.receiveUpload(filename, mimeType);
+		}
+
+	}
+
 	/**
 	 * Gets the name of the uploaded file.
 	 * @return	the name of the uploaded file.
 	 */
 	public String getUploadFileName() {
-		checkConsistency();
-		return uploadEventsHandler.filename;
+		UploadState state = session.getState();
+		session.checkConsistency(state);
+		return state.getFilename();
 	}
 
 	/**
@@ -301,8 +629,9 @@ public class UploadProgress extends CustomComponent {
 	 * @return	the upload file mime type.
 	 */
 	public String getUploadMimeType() {
-		checkConsistency();
-		return uploadEventsHandler.mimeType;
+		UploadState state = session.getState();
+		session.checkConsistency(state);
+		return state.getMimeType();
 	}
 
 	/**
@@ -310,22 +639,61 @@ public class UploadProgress extends CustomComponent {
 	 * @return	the download bytes.
 	 */
 	public byte[] getUploadBytes() {
-		checkConsistency();
-		return uploadEventsHandler.stream.toByteArray();
+		return session.getBytes();
+	}
+
+	/**
+	 * Gets a stream to read the uploaded data without copying it in memory.
+	 * @return	the stream of the uploaded data.
+	 */
+	public InputStream getUploadStream() {
+		return session.getInputStream();
+	}
+
+	/**
+	 * Gets the size in bytes of the uploaded data.
+	 * @return	the size of the uploaded data.
+	 */
+	public long getUploadSize() {
+		return session.getSize();
+	}
+
+	/*
+	 * Whether the post-processing of the upload is running.
+	 */
+	private volatile boolean processing;
+
+	/**
+	 * Gets whether the upload is being post-processed. A done upload counts as finished only once this is false.
+	 * @return	true while the {@link UploadPostProcessor} runs.
+	 */
+	public boolean isProcessing() {
+		return processing;
 	}
 
 	/*
-	 * Check whether the upload is consistent and may provide the data.
+	 * Show the post-processing state, called by the producer on the UI thread.
 	 */
-	private void checkConsistency() {
-		if (status != UploadStatus.DONE) {
-			throw new UploadException("Inconsistent uploaded data. Status: " + status);
+	void setProcessing(boolean processing) {
+		this.processing = processing;
+
+		// Released while processing, so the data is not needed anymore.
+		if (!processing && released) {
+			session.releaseData();
+		}
 
-		} else if (uploadEventsHandler.stream == null) {
-			throw new UploadException(
-					"OutputStream and other upload info handled in the UploadProgressListener already. Check your delegate implementation and access the data in receiveUpload method you implemented.");
+		if (processing) {
+			uploadEventsHandler.uploadInfo.setProgressProcessing();
+		} else {
+			uploadEventsHandler.uploadInfo.setProgressProcessed();
 		}
+	}
 
+	/*
+	 * Gets whether the data of a done upload is in the storage, instead of a custom receiver.
+	 */
+	boolean hasStoredData() {
+		return session.hasStoredData();
 	}
 
 	/*
@@ -355,7 +723,11 @@ public class UploadProgress extends CustomComponent {
 	protected synchronized void fireShouldRemoveUploadComponent() {
 		Iterator<UploadProgressListener> iterator = listeners.iterator();
 		while (iterator.hasNext()) {
-			iterator.next().shouldRemoveUploadProgress(this);
+			UploadProgressListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.shouldRemoveUploadProgress(this);
+			TRACER.endNotification("shouldRemoveUploadProgress", listener, begin);
 		}
 
 		// We won't send any events so no need for listeners from now on.
@@ -368,7 +740,11 @@ public class UploadProgress extends CustomComponent {
 	protected synchronized void fireUploadStarted() {
 		Iterator<UploadProgressListener> iterator = listeners.iterator();
 		while (iterator.hasNext()) {
-			iterator.next().uploadStarted(this);
+			UploadProgressListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.uploadStarted(this);
+			TRACER.endNotification("uploadStarted", listener, begin);
 		}
 	}
 
@@ -378,7 +754,31 @@ public class UploadProgress extends CustomComponent {
 	protected synchronized void fireUploadFailed() {
 		Iterator<UploadProgressListener> iterator = listeners.iterator();
 		while (iterator.hasNext()) {
-			iterator.next().uploadFailed(this);
+			UploadProgressListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.uploadFailed(this);
+			TRACER.endNotification("uploadFailed", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when the upload broke the constraints. The listeners not interested in the rejections are told it failed.
+	 */
+	protected synchronized void fireUploadRejected() {
+		Iterator<UploadProgressListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			UploadProgressListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			if (listener instanceof UploadRejectListener) {
+				((UploadRejectListener) listener).uploadRejected(this);
+				TRACER.endNotification("uploadRejected", listener, begin);
+
+			} else {
+				listener.uploadFailed(this);
+				TRACER.endNotification("uploadFailed", listener, begin);
+			}
 		}
 	}
 
@@ -388,7 +788,11 @@ public class UploadProgress extends CustomComponent {
 	protected synchronized void fireUploadCanceled() {
 		Iterator<UploadProgressListener> iterator = listeners.iterator();
 		while (iterator.hasNext()) {
-			iterator.next().uploadCanceled(this);
+			UploadProgressListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.uploadCanceled(this);
+			TRACER.endNotification("uploadCanceled", listener, begin);
 		}
 	}
 
@@ -398,7 +802,11 @@ public class UploadProgress extends CustomComponent {
 	protected synchronized void fireUploadDone() {
 		Iterator<UploadProgressListener> iterator = listeners.iterator(); // TODO: This how to write all fire methods with one call, without the iteration loop here.
 		while (iterator.hasNext()) {
-			iterator.next().uploadDone(this);
+			UploadProgressListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.uploadDone(this);
+			TRACER.endNotification("uploadDone", listener, begin);
 		}
 	}
 
@@ -407,12 +815,10 @@ public class UploadProgress extends CustomComponent {
 	 * <br/>
 	 * In the {@link Receiver#receiveUpload(String, String)} returns null, then the {@link UploadProgress} 
 	 * will buffer and provide the file content through 
+	 * <br/>
+	 * To follow the upload without the component, listen to its {@link UploadSession} instead.
 	 */
 	public interface UploadProgressListener extends Serializable {
-		// TODO: Should have my own method for what Receiver does, but we'll see...
-		// OR: Create a model for the file upload so that one can bind it easily with
-		// external sources... though what can be better then an OutputStream...?
-
 		/**
 		 * Inform the API user that the upload should be removed.
 		 * @param uploadProgress	the {@link UploadProgress} component.
@@ -426,7 +832,10 @@ public class UploadProgress extends CustomComponent {
 		void uploadStarted(UploadProgress uploadProgress);
 
 		/**
-		 * Called when the upload failed. 
+		 * Called when the upload failed. Also called when the upload broke the constraints, then
+		 * {@link UploadProgress#getStatus()} is {@link UploadStatus#REJECTED} and {@link UploadProgress#getRejectReason()}
+		 * tells why. An {@link UploadRejectListener} is called on {@link UploadRejectListener#uploadRejected(UploadProgress)}
+		 * instead.
 		 * @param uploadProgress	the {@link UploadProgress} component.
 		 */
 		void uploadFailed(UploadProgress uploadProgress);
@@ -445,6 +854,21 @@ public class UploadProgress extends CustomComponent {
 
 	}
 
+	/**
+	 * An {@link UploadProgressListener} told apart when the upload broke the constraints, instead of through
+	 * {@link UploadProgressListener#uploadFailed(UploadProgress)}.
+	 */
+	public interface UploadRejectListener extends UploadProgressListener {
+
+		/**
+		 * Called when the upload was interrupted because it broke the constraints.
+		 * The reason is provided by {@link UploadProgress#getRejectReason()}.
+		 * @param uploadProgress	the {@link UploadProgress} component.
+		 */
+		void uploadRejected(UploadProgress uploadProgress);
+
+	}
+
 	/**
 	 * Exception thrown when the upload is in an inconsistent state and data about the upload is being accessed.
 	 */
@@ -457,6 +881,13 @@ public class UploadProgress extends CustomComponent {
 			super(message);
 		}
 
+		/**
+		 * Create an exception to notify that the upload data couldn't be handled.
+		 */
+		public UploadException(String message, Throwable cause) {
+			super(message, cause);
+		}
+
 	}
 
 }
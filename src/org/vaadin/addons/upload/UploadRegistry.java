@@ -0,0 +1,651 @@
+package org.vaadin.addons.upload;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.vaadin.addons.upload.UploadProgress.UploadStatus;
+import org.vaadin.addons.upload.UploadSession.CancelReason;
+
+import com.vaadin.ui.UI;
+
+/**
+ * Knows all the running uploads of the JVM, across sessions, and sheds load when the server is under pressure.
+ * <br/>
+ * Each {@link UploadProgress} is registered while its upload runs, with its priority (see
+ * {@link UploadProgress#setPriority(int)}, e.g. by user role or by file class). While the heap usage, the free disk
+ * space or the thread count cross their thresholds, the lowest priority uploads are shed, a tenth of them each check:
+ * paused (backpressure, the transport stops reading) or interrupted through the cancel path, with the
+ * {@link CancelReason#OVERLOAD} reason. Too many threads always interrupt, a paused upload keeps its request thread.
+ * Once the pressure is gone the paused uploads are resumed, the highest priority first. An upload paused for longer
+ * than the maximum pause is interrupted.
+ * <br/>
+ * No threshold is set by default, so nothing is shed. The running uploads and the pressure can be queried anytime,
+ * e.g. by an operator page.
+ *
+ * @author bogdanudrescu
+ */
+public class UploadRegistry {
+
+	/**
+	 * What to do with the uploads shed.
+	 */
+	public static enum ShedAction {
+
+		/**
+		 * Pause the upload until the pressure is gone, or the maximum pause elapsed.
+		 */
+		PAUSE,
+
+		/**
+		 * Interrupt the upload.
+		 */
+		INTERRUPT
+	}
+
+	/**
+	 * The time between two checks of the pressure, in milliseconds.
+	 */
+	public static final long CHECK_INTERVAL = 1000;
+
+	/**
+	 * The default time an upload stays paused before being interrupted, in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_PAUSE = 30 * 1000;
+
+	/*
+	 * The thresholds, off while 0.
+	 */
+	private static volatile double heapThreshold;
+	private static volatile File diskDirectory;
+	private static volatile long diskThreshold;
+	private static volatile int threadThreshold;
+
+	/*
+	 * What happens to the uploads shed.
+	 */
+	private static volatile ShedAction shedAction = ShedAction.PAUSE;
+
+	/*
+	 * The time an upload stays paused before being interrupted.
+	 */
+	private static volatile long maxPause = DEFAULT_MAX_PAUSE;
+
+	/*
+	 * The number of uploads paused and interrupted so far.
+	 */
+	private static final AtomicLong pausedCount = new AtomicLong();
+	private static final AtomicLong interruptedCount = new AtomicLong();
+
+	/*
+	 * The running uploads.
+	 */
+	private static final List<Entry> entries = new LinkedList<>();
+
+	/*
+	 * Runs the periodic checks, started with the first threshold and registered upload.
+	 */
+	private static ScheduledExecutorService checker;
+
+	/*
+	 * Only static methods.
+	 */
+	private UploadRegistry() {
+	}
+
+	/**
+	 * Sets the heap usage above which the uploads are shed.
+	 * @param usage	the fraction of the maximum heap, between 0 and 1, 0 to turn it off.
+	 */
+	public static void setHeapThreshold(double usage) {
+		heapThreshold = usage;
+		ensureChecker();
+	}
+
+	/**
+	 * Sets the free disk space under which the uploads are shed.
+	 * @param directory		the directory on the disk to watch, usually the one of the {@link FileUploadStorage}.
+	 * @param minFreeSpace	the minimum free space in bytes, 0 to turn it off.
+	 */
+	public static void setDiskThreshold(File directory, long minFreeSpace) {
+		diskDirectory = directory;
+		diskThreshold = minFreeSpace;
+		ensureChecker();
+	}
+
+	/**
+	 * Sets the number of live threads in the JVM above which the uploads are shed.
+	 * @param maxThreads	the maximum thread count, 0 to turn it off.
+	 */
+	public static void setThreadThreshold(int maxThreads) {
+		threadThreshold = maxThreads;
+		ensureChecker();
+	}
+
+	/**
+	 * Sets what happens to the uploads shed, paused by default.
+	 * @param shedAction	the shed action.
+	 */
+	public static void setShedAction(ShedAction shedAction) {
+		UploadRegistry.shedAction = shedAction;
+	}
+
+	/**
+	 * Sets the time an upload stays paused before being interrupted.
+	 * @param maxPause	the maximum pause in milliseconds.
+	 */
+	public static void setMaxPause(long maxPause) {
+		UploadRegistry.maxPause = maxPause;
+	}
+
+	/*
+	 * Register the upload which just started.
+	 */
+	static void register(UploadProgress uploadProgress) {
+		synchronized (entries) {
+			for (Entry entry : entries) {
+				if (entry.reference.get() == uploadProgress) {
+					return;
+				}
+			}
+
+			entries.add(new Entry(uploadProgress));
+		}
+
+		ensureChecker();
+	}
+
+	/*
+	 * Forget the upload which ended.
+	 */
+	static void unregister(UploadProgress uploadProgress) {
+		synchronized (entries) {
+			Iterator<Entry> iterator = entries.iterator();
+			while (iterator.hasNext()) {
+				UploadProgress registered = iterator.next().reference.get();
+				if (registered == null || registered == uploadProgress) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Start the checks if there is a threshold and an upload.
+	 */
+	private static void ensureChecker() {
+		if (heapThreshold <= 0 && diskThreshold <= 0 && threadThreshold <= 0) {
+			return;
+		}
+
+		synchronized (entries) {
+			if (checker != null || entries.isEmpty()) {
+				return;
+			}
+
+			checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "upload-registry");
+					thread.setDaemon(true);
+					return thread;
+				}
+
+			});
+
+			checker.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					check();
+				}
+
+			}, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Measure the pressure now.
+	 * @return	the current pressure.
+	 */
+	public static Pressure getPressure() {
+		Runtime runtime = Runtime.getRuntime();
+		double heapUsage = (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+
+		File directory = diskDirectory;
+		long freeSpace = directory != null ? directory.getUsableSpace() : -1;
+
+		int threadCount = ManagementFactory.getThreadMXBean().getThreadCount();
+
+		return new Pressure(heapUsage, freeSpace, threadCount);
+	}
+
+	/**
+	 * Gets the running uploads, the lowest priority first.
+	 * @return	a snapshot of the running uploads.
+	 */
+	public static List<RegisteredUpload> getUploads() {
+		List<RegisteredUpload> uploads = new ArrayList<>();
+		for (Entry entry : getEntries()) {
+			RegisteredUpload upload = entry.describe();
+			if (upload != null) {
+				uploads.add(upload);
+			}
+		}
+
+		return uploads;
+	}
+
+	/**
+	 * Gets the number of uploads paused to shed load since the JVM started.
+	 * @return	the paused uploads count.
+	 */
+	public static long getPausedCount() {
+		return pausedCount.get();
+	}
+
+	/**
+	 * Gets the number of uploads interrupted to shed load since the JVM started.
+	 * @return	the interrupted uploads count.
+	 */
+	public static long getInterruptedCount() {
+		return interruptedCount.get();
+	}
+
+	/**
+	 * Check the pressure now, and shed or resume uploads accordingly.
+	 * @return	the pressure measured.
+	 */
+	public static Pressure check() {
+		Pressure pressure = getPressure();
+		List<Entry> running = getEntries();
+
+		long now = System.currentTimeMillis();
+
+		if (pressure.isOverloaded()) {
+			int count = Math.max(1, running.size() / 10);
+
+			// Pausing doesn't release the request threads.
+			ShedAction action = pressure.isThreadsExceeded() ? ShedAction.INTERRUPT : shedAction;
+
+			for (Entry entry : running) {
+				if (count == 0) {
+					break;
+				}
+
+				if (entry.interrupted) {
+					continue;
+				}
+
+				if (action == ShedAction.INTERRUPT) {
+					entry.interrupt();
+					count--;
+
+				} else if (entry.pausedSince == 0) {
+					entry.pause(now);
+					count--;
+				}
+			}
+
+		} else {
+			int count = Math.max(1, running.size() / 10);
+
+			for (int i = running.size() - 1; i >= 0 && count > 0; i--) {
+				Entry entry = running.get(i);
+				if (entry.pausedSince != 0) {
+					entry.resume();
+					count--;
+				}
+			}
+		}
+
+		for (Entry entry : running) {
+			if (entry.pausedSince != 0 && now - entry.pausedSince >= maxPause) {
+				entry.interrupt();
+			}
+		}
+
+		return pressure;
+	}
+
+	/*
+	 * Gets the live entries, the lowest priority first, and the latest started first among the same priority
+	 * since they lose the least when shed.
+	 */
+	private static List<Entry> getEntries() {
+		List<Entry> running = new ArrayList<>();
+
+		synchronized (entries) {
+			Iterator<Entry> iterator = entries.iterator();
+			while (iterator.hasNext()) {
+				Entry entry = iterator.next();
+				UploadProgress uploadProgress = entry.reference.get();
+
+				if (uploadProgress == null || uploadProgress.getUploadSession().getStatus() != UploadStatus.UPLOADING) {
+					iterator.remove();
+				} else {
+					running.add(entry);
+				}
+			}
+		}
+
+		Collections.sort(running, new Comparator<Entry>() {
+
+			@Override
+			public int compare(Entry entry1, Entry entry2) {
+				if (entry1.priority != entry2.priority) {
+					return entry1.priority < entry2.priority ? -1 : 1;
+				}
+				return Long.compare(entry2.startTime, entry1.startTime);
+			}
+
+		});
+
+		return running;
+	}
+
+	/*
+	 * A registered upload.
+	 */
+	private static class Entry {
+
+		/*
+		 * The upload, not kept from the garbage collector.
+		 */
+		private final WeakReference<UploadProgress> reference;
+
+		/*
+		 * The priority and the start of the upload, as registered, so the order doesn't change while sorting.
+		 */
+		private final int priority;
+		private final long startTime;
+
+		/*
+		 * When the upload was paused, 0 if it's not paused.
+		 */
+		private volatile long pausedSince;
+
+		/*
+		 * Whether the upload was interrupted already, it still runs until its UI handles it.
+		 */
+		private volatile boolean interrupted;
+
+		/*
+		 * Register the upload.
+		 */
+		private Entry(UploadProgress uploadProgress) {
+			reference = new WeakReference<>(uploadProgress);
+			priority = uploadProgress.getPriority();
+			startTime = uploadProgress.getUploadSession().getStartTime();
+		}
+
+		/*
+		 * Pause the upload.
+		 */
+		private void pause(long now) {
+			UploadProgress uploadProgress = reference.get();
+			if (uploadProgress != null) {
+				uploadProgress.getUploadSession().pause();
+				pausedSince = now;
+				pausedCount.incrementAndGet();
+
+				Logger.getLogger(UploadRegistry.class.getName()).info("Paused the upload " + uploadProgress.getUploadSession().getFilename() + " to shed load");
+			}
+		}
+
+		/*
+		 * Resume the paused upload.
+		 */
+		private void resume() {
+			UploadProgress uploadProgress = reference.get();
+			if (uploadProgress != null) {
+				uploadProgress.getUploadSession().resume();
+			}
+			pausedSince = 0;
+		}
+
+		/*
+		 * Interrupt the upload through its UI, so the listeners are notified holding the session lock. Only once.
+		 */
+		private void interrupt() {
+			final UploadProgress uploadProgress = reference.get();
+			if (uploadProgress == null || interrupted) {
+				return;
+			}
+
+			UI ui = uploadProgress.getUI();
+			if (ui == null) {
+				return;
+			}
+
+			interrupted = true;
+			pausedSince = 0;
+			interruptedCount.incrementAndGet();
+
+			Logger.getLogger(UploadRegistry.class.getName()).info("Interrupting the upload " + uploadProgress.getUploadSession().getFilename() + " to shed load");
+
+			ui.access(new Runnable() {
+
+				@Override
+				public void run() {
+					uploadProgress.getUploadSession().cancel(CancelReason.OVERLOAD);
+				}
+
+			});
+		}
+
+		/*
+		 * Describe the upload, null if it's gone.
+		 */
+		private RegisteredUpload describe() {
+			UploadProgress uploadProgress = reference.get();
+			if (uploadProgress == null) {
+				return null;
+			}
+
+			UploadState state = uploadProgress.getUploadState();
+			return new RegisteredUpload(state.getFilename(), priority, state.getStatus(), state.getBytesRead(), state.getContentLength(),
+					startTime, pausedSince);
+		}
+
+	}
+
+	/**
+	 * The pressure on the server, measured at some point.
+	 */
+	public static class Pressure {
+
+		/*
+		 * The measures.
+		 */
+		private final double heapUsage;
+		private final long freeSpace;
+		private final int threadCount;
+
+		/*
+		 * Keep the measures.
+		 */
+		private Pressure(double heapUsage, long freeSpace, int threadCount) {
+			this.heapUsage = heapUsage;
+			this.freeSpace = freeSpace;
+			this.threadCount = threadCount;
+		}
+
+		/**
+		 * Gets the heap usage.
+		 * @return	the used fraction of the maximum heap.
+		 */
+		public double getHeapUsage() {
+			return heapUsage;
+		}
+
+		/**
+		 * Gets the free disk space.
+		 * @return	the free space in bytes, -1 if no disk is watched.
+		 */
+		public long getFreeSpace() {
+			return freeSpace;
+		}
+
+		/**
+		 * Gets the number of live threads.
+		 * @return	the thread count.
+		 */
+		public int getThreadCount() {
+			return threadCount;
+		}
+
+		/**
+		 * Gets whether the heap usage is above its threshold.
+		 * @return	true if the heap is under pressure.
+		 */
+		public boolean isHeapExceeded() {
+			return heapThreshold > 0 && heapUsage > heapThreshold;
+		}
+
+		/**
+		 * Gets whether the free disk space is under its threshold.
+		 * @return	true if the disk is under pressure.
+		 */
+		public boolean isDiskExceeded() {
+			return diskThreshold > 0 && freeSpace >= 0 && freeSpace < diskThreshold;
+		}
+
+		/**
+		 * Gets whether the thread count is above its threshold.
+		 * @return	true if there are too many threads.
+		 */
+		public boolean isThreadsExceeded() {
+			return threadThreshold > 0 && threadCount > threadThreshold;
+		}
+
+		/**
+		 * Gets whether any threshold is crossed, so the uploads are shed.
+		 * @return	true if the server is overloaded.
+		 */
+		public boolean isOverloaded() {
+			return isHeapExceeded() || isDiskExceeded() || isThreadsExceeded();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return String.format("heap %.0f%%, free disk %d bytes, %d threads%s", heapUsage * 100, freeSpace, threadCount,
+					isOverloaded() ? ", overloaded" : "");
+		}
+
+	}
+
+	/**
+	 * A running upload, as seen by the registry at some point.
+	 */
+	public static class RegisteredUpload {
+
+		/*
+		 * What the upload was.
+		 */
+		private final String filename;
+		private final int priority;
+		private final UploadStatus status;
+		private final long bytesRead;
+		private final long contentLength;
+		private final long startTime;
+		private final long pausedSince;
+
+		/*
+		 * Keep the upload info.
+		 */
+		private RegisteredUpload(String filename, int priority, UploadStatus status, long bytesRead, long contentLength, long startTime,
+				long pausedSince) {
+			this.filename = filename;
+			this.priority = priority;
+			this.status = status;
+			this.bytesRead = bytesRead;
+			this.contentLength = contentLength;
+			this.startTime = startTime;
+			this.pausedSince = pausedSince;
+		}
+
+		/**
+		 * Gets the name of the file.
+		 * @return	the file name.
+		 */
+		public String getFilename() {
+			return filename;
+		}
+
+		/**
+		 * Gets the priority of the upload, the lowest priority is shed first.
+		 * @return	the priority.
+		 */
+		public int getPriority() {
+			return priority;
+		}
+
+		/**
+		 * Gets the status of the upload.
+		 * @return	the upload status.
+		 */
+		public UploadStatus getStatus() {
+			return status;
+		}
+
+		/**
+		 * Gets the bytes read so far.
+		 * @return	the bytes read.
+		 */
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		/**
+		 * Gets the size of the upload.
+		 * @return	the content length, negative if unknown.
+		 */
+		public long getContentLength() {
+			return contentLength;
+		}
+
+		/**
+		 * Gets when the upload started.
+		 * @return	the start time in milliseconds.
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 * Gets when the upload was paused.
+		 * @return	the pause time in milliseconds, 0 if the upload is not paused.
+		 */
+		public long getPausedSince() {
+			return pausedSince;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return filename + " (priority " + priority + ", " + bytesRead + "/" + contentLength + " bytes" + (pausedSince != 0 ? ", paused" : "")
+					+ ")";
+		}
+
+	}
+
+}
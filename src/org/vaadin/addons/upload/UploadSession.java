@@ -0,0 +1,1256 @@
+package org.vaadin.addons.upload;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vaadin.addons.upload.ConstrainedOutputStream.RejectHandler;
+import org.vaadin.addons.upload.UploadProgress.UploadException;
+import org.vaadin.addons.upload.UploadProgress.UploadStatus;
+
+/**
+ * The model of one file upload, independent of any UI: status, byte counters, storage of the data and events.
+ * It uses the {@link UploadStatus} and the {@link UploadException} of the {@link UploadProgress}, where the clients
+ * know them. These nested types load without Vaadin.
+ * <br/>
+ * The transport drives it through {@link #start(String, String, long)}, {@link #receive(String, String)}, 
+ * {@link #progress(long, long)}, {@link #succeed()} and {@link #fail(Exception)}. The transport is usually the Vaadin
+ * upload wrapped by the {@link UploadProgress} view, but it can be as well a servlet, a background worker or a benchmark,
+ * with no UI involved. Views follow the upload through the {@link UploadSessionListener}.
+ * <br/>
+ * A session can be reused for several uploads one after the other, the data of the previous upload is released
+ * when the next one is received.
+ * <br/>
+ * With an {@link UploadContentIndex}, the transport may skip the transfer of a content the server has already,
+ * see {@link #reuse(String, String)}.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class UploadSession implements Serializable, RejectHandler {
+
+	/**
+	 * The reason an upload was rejected.
+	 */
+	public static enum RejectReason {
+
+		/**
+		 * The file is bigger then the maximum size allowed.
+		 */
+		SIZE_EXCEEDED,
+
+		/**
+		 * The content of the file is not of an allowed type.
+		 */
+		CONTENT_TYPE_NOT_ALLOWED,
+
+		/**
+		 * The archive has too many entries or extracts to too much data.
+		 */
+		ARCHIVE_LIMIT_EXCEEDED,
+
+		/**
+		 * The storage has no room left for the file.
+		 */
+		QUOTA_EXCEEDED
+	}
+
+	/**
+	 * The reason an upload was canceled.
+	 */
+	public static enum CancelReason {
+
+		/**
+		 * The user canceled the upload.
+		 */
+		USER,
+
+		/**
+		 * The component showing the upload was released, e.g. detached.
+		 */
+		RELEASED,
+
+		/**
+		 * The {@link UploadRegistry} interrupted the upload to shed load.
+		 */
+		OVERLOAD
+	}
+
+	/*
+	 * Measures the listener notifications.
+	 */
+	private static final UploadTracer TRACER = UploadTracer.getInstance();
+
+	/*
+	 * The status of the upload.
+	 */
+	private volatile UploadStatus status = UploadStatus.NONE;
+
+	/*
+	 * The snapshot of the upload, published on each transition and progress tick.
+	 */
+	private final AtomicReference<UploadState> state = new AtomicReference<>(UploadState.NONE);
+
+	/*
+	 * The name of the file being uploaded.
+	 */
+	private String filename;
+
+	/*
+	 * The mime type of the file being uploaded.
+	 */
+	private String mimeType;
+
+	/*
+	 * The size announced by the client, negative if unknown.
+	 */
+	private volatile long contentLength = -1;
+
+	/*
+	 * The number of bytes received so far.
+	 */
+	private volatile long bytesRead;
+
+	/*
+	 * When the upload started and ended, in milliseconds.
+	 */
+	private volatile long startTime;
+	private volatile long endTime;
+
+	/*
+	 * The reason the current upload was rejected, if it was.
+	 */
+	private volatile RejectReason rejectReason;
+
+	/*
+	 * Why the upload was canceled.
+	 */
+	private volatile CancelReason cancelReason;
+
+	/*
+	 * Whether the writes to the receive stream wait.
+	 */
+	private volatile boolean paused;
+
+	/*
+	 * Where the uploaded data is kept when no custom receiver handles it.
+	 */
+	private UploadStorage storage = AdaptiveUploadStorage.getInstance();
+
+	/*
+	 * The statistics of the uploads of the producer, fed on success and used to plan the next uploads.
+	 */
+	private UploadStatistics statistics;
+
+	/*
+	 * How the data of the current upload is received, when the storage is adaptive.
+	 */
+	private volatile ReceivePlan receivePlan;
+
+	/*
+	 * The limits the upload must respect.
+	 */
+	private UploadConstraints constraints;
+
+	/*
+	 * A custom receiver.
+	 */
+	private UploadReceiver receiver;
+
+	/*
+	 * Stops the transport when the upload is rejected or canceled.
+	 */
+	private UploadInterrupter interrupter;
+
+	/*
+	 * The output stream where the data is written.
+	 */
+	private transient OutputStream stream;
+
+	/*
+	 * The stream of the custom receiver, when it's told how the upload ended.
+	 */
+	private transient UploadReceiverStream receiverStream;
+
+	/*
+	 * The id of the blob holding the data, if no custom receiver was used.
+	 */
+	private String blobId;
+
+	/*
+	 * The blob holding the data, resolved lazily from the storage after deserialization.
+	 */
+	private transient UploadBlob blob;
+
+	/*
+	 * Finds the content known already and learns the received one.
+	 */
+	private UploadContentIndex contentIndex;
+
+	/*
+	 * Digests the data while it's received, when there is an index.
+	 */
+	private transient MessageDigest digest;
+
+	/*
+	 * The digest of the content, and the reference to it when the transfer was skipped.
+	 */
+	private volatile String contentDigest;
+	private volatile String contentReference;
+
+	/**
+	 * Gets the snapshot of the upload, consistent and taken without locking. It's published on each transition 
+	 * and progress tick, so the bytes read may be a bit behind {@link #getBytesRead()}.
+	 * @return	the current upload state.
+	 */
+	public UploadState getState() {
+		return state.get();
+	}
+
+	/**
+	 * Gets the current status of the upload.
+	 * @return	the current status of the upload.
+	 */
+	public UploadStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * Gets the name of the file of the current upload, whatever its status.
+	 * @return	the file name, null if no upload started.
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Gets the mime type of the current upload, whatever its status.
+	 * @return	the mime type, null if no upload started.
+	 */
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	/**
+	 * Gets the size of the current upload announced by the client.
+	 * @return	the content length, negative if unknown.
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * Gets the number of bytes of the current upload received so far.
+	 * @return	the bytes read.
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Gets when the current upload started.
+	 * @return	the start time in milliseconds, 0 if no upload started.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Gets when the current upload ended.
+	 * @return	the end time in milliseconds, 0 while uploading.
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * Gets the reason the upload was rejected.
+	 * @return	the reject reason, or null if the status is not {@link UploadStatus#REJECTED}.
+	 */
+	public RejectReason getRejectReason() {
+		return status == UploadStatus.REJECTED ? rejectReason : null;
+	}
+
+	/**
+	 * Gets the reason the upload was canceled.
+	 * @return	the cancel reason, null if the upload wasn't canceled.
+	 */
+	public CancelReason getCancelReason() {
+		return cancelReason;
+	}
+
+	/**
+	 * Sets the limits the upload must respect. An upload breaking them is interrupted right away
+	 * and ends with the {@link UploadStatus#REJECTED} status.
+	 * @param constraints	the constraints, null for no limits.
+	 */
+	public void setConstraints(UploadConstraints constraints) {
+		this.constraints = constraints;
+	}
+
+	/**
+	 * Gets the limits the upload must respect.
+	 * @return	the constraints, null if there are none.
+	 */
+	public UploadConstraints getConstraints() {
+		return constraints;
+	}
+
+	/**
+	 * Sets the storage where the uploaded data is kept when no custom receiver handles it.
+	 * <br/>
+	 * Only the id of the blob is kept in the session, so the upload data is not serialized with it.
+	 * @param storage	the upload storage.
+	 */
+	public void setStorage(UploadStorage storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * Gets the storage where the uploaded data is kept when no custom receiver handles it.
+	 * @return	the upload storage.
+	 */
+	public UploadStorage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Sets the custom receiver. If it returns no stream the data is kept in the storage.
+	 * @param receiver	the custom receiver, null to always use the storage.
+	 */
+	public void setReceiver(UploadReceiver receiver) {
+		this.receiver = receiver;
+	}
+
+	/**
+	 * Gets the custom receiver.
+	 * @return	the custom receiver, null if there is none.
+	 */
+	public UploadReceiver getReceiver() {
+		return receiver;
+	}
+
+	/**
+	 * Sets what stops the transport when the upload is rejected or canceled.
+	 * @param interrupter	the transport interrupter.
+	 */
+	public void setInterrupter(UploadInterrupter interrupter) {
+		this.interrupter = interrupter;
+	}
+
+	/**
+	 * Sets the index of the content the server has already. The data received is digested and reported to it.
+	 * @param contentIndex	the content index, null to transfer every upload.
+	 */
+	public void setContentIndex(UploadContentIndex contentIndex) {
+		this.contentIndex = contentIndex;
+	}
+
+	/**
+	 * Gets the index of the content the server has already.
+	 * @return	the content index, null if there is none.
+	 */
+	public UploadContentIndex getContentIndex() {
+		return contentIndex;
+	}
+
+	/**
+	 * Sets the statistics of the uploads of the same producer. The received uploads are recorded there and in
+	 * the global statistics, and the {@link AdaptiveUploadStorage} plans from them.
+	 * @param statistics	the statistics, null to use only the global ones.
+	 */
+	public void setStatistics(UploadStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Gets the statistics of the uploads of the same producer.
+	 * @return	the statistics, null if there are none.
+	 */
+	public UploadStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Gets how the data of the current upload is received, and why.
+	 * @return	the plan, null if the storage is not an {@link AdaptiveUploadStorage} or a custom receiver got the data.
+	 */
+	public ReceivePlan getReceivePlan() {
+		return receivePlan;
+	}
+
+	/**
+	 * Gets the digest of the content of a done upload, computed while receiving it or sent by the browser
+	 * when the transfer was skipped.
+	 * @return	the lowercase hex SHA-256 digest, null if there is no content index.
+	 */
+	public String getContentDigest() {
+		return contentDigest;
+	}
+
+	/**
+	 * Gets the reference to the existing content, when the transfer was skipped.
+	 * @return	the reference returned by the {@link UploadContentIndex}, null if the data was received.
+	 */
+	public String getContentReference() {
+		return contentReference;
+	}
+
+	/**
+	 * The transport started a new upload.
+	 * @param filename		the name of the file.
+	 * @param mimeType		the mime type of the file.
+	 * @param contentLength	the size announced by the client, negative if unknown.
+	 */
+	public void start(String filename, String mimeType, long contentLength) {
+		this.filename = filename;
+		this.mimeType = mimeType;
+		this.contentLength = contentLength;
+
+		bytesRead = 0;
+		startTime = System.currentTimeMillis();
+		endTime = 0;
+		rejectReason = null;
+		cancelReason = null;
+		paused = false;
+		contentDigest = null;
+		contentReference = null;
+		receivePlan = null;
+
+		status = UploadStatus.UPLOADING;
+
+		if (TRACER.isEnabled()) {
+			TRACER.uploadStarted(filename, contentLength);
+		}
+
+		publish();
+
+		fireUploadStarted();
+
+		if (constraints != null && !constraints.isSizeAllowed(contentLength)) {
+			reject(RejectReason.SIZE_EXCEEDED);
+		}
+	}
+
+	/**
+	 * Gets the stream where the transport writes the data of the upload.
+	 * @param filename	the name of the file.
+	 * @param mimeType	the mime type of the file.
+	 * @return	the stream where to write the data.
+	 * @throws UploadException	if the storage couldn't create the blob.
+	 */
+	public OutputStream receive(String filename, String mimeType) {
+		this.filename = filename;
+		this.mimeType = mimeType;
+		publish();
+
+		releaseData();
+
+		// Rejected already by the announced size, so don't store anything.
+		if (rejectReason != null) {
+			stream = new NullOutputStream();
+			return stream;
+		}
+
+		OutputStream stream = null;
+		receiverStream = null;
+
+		if (receiver != null) {
+			stream = receiver.receiveUpload(filename, mimeType);
+
+			if (stream instanceof UploadReceiverStream) {
+				receiverStream = (UploadReceiverStream) stream;
+			}
+		}
+
+		// Checked only now, a reused content isn't stored.
+		if (stream == null && !storage.canStore(contentLength)) {
+			reject(RejectReason.QUOTA_EXCEEDED);
+
+			this.stream = new NullOutputStream();
+			return this.stream;
+		}
+
+		if (stream == null) {
+			try {
+				if (storage instanceof AdaptiveUploadStorage) {
+					AdaptiveUploadStorage adaptive = (AdaptiveUploadStorage) storage;
+					receivePlan = adaptive.plan(contentLength, statistics);
+					blob = adaptive.createBlob(receivePlan);
+
+				} else {
+					blob = storage.createBlob(filename, mimeType);
+				}
+				blobId = blob.getId();
+				stream = blob.getOutputStream();
+
+			} catch (IOException e) {
+				releaseData();
+				throw new UploadException("Cannot store the uploaded file " + filename, e);
+			}
+		}
+
+		if (contentIndex != null) {
+			digest = createDigest();
+			stream = new DigestOutputStream(stream, digest);
+
+		} else {
+			digest = null;
+		}
+
+		if (constraints != null) {
+			stream = new ConstrainedOutputStream(stream, constraints, this);
+		}
+
+		this.stream = new CountingOutputStream(stream);
+		return this.stream;
+	}
+
+	/**
+	 * The transport reports the progress.
+	 * @param bytesRead		the bytes read so far.
+	 * @param contentLength	the size of the upload, negative if unknown.
+	 */
+	public void progress(long bytesRead, long contentLength) {
+		if (status != UploadStatus.UPLOADING) {
+			return;
+		}
+
+		if (bytesRead > this.bytesRead) {
+			this.bytesRead = bytesRead;
+		}
+		if (contentLength >= 0) {
+			this.contentLength = contentLength;
+		}
+
+		publish();
+
+		fireUploadProgress();
+	}
+
+	/**
+	 * The transport received the whole file.
+	 */
+	public void succeed() {
+		if (status != UploadStatus.UPLOADING) {
+			return;
+		}
+
+		try {
+			endReceiverStream(true);
+
+		} catch (IOException e) {
+			fail(e);
+			return;
+		}
+
+		if (digest != null) {
+			contentDigest = toHex(digest.digest());
+			digest = null;
+		}
+
+		endTime = System.currentTimeMillis();
+		status = UploadStatus.DONE;
+		traceFinished();
+
+		UploadStatistics.getGlobal().record(bytesRead, endTime - startTime);
+		if (statistics != null) {
+			statistics.record(bytesRead, endTime - startTime);
+		}
+
+		if (contentIndex != null && contentDigest != null) {
+			try {
+				contentIndex.contentReceived(contentDigest, this);
+
+			} catch (RuntimeException e) {
+				Logger.getLogger(UploadSession.class.getName()).log(Level.WARNING, "Cannot index the content of the upload " + filename, e);
+			}
+		}
+
+		publish();
+
+		fireUploadSucceeded();
+	}
+
+	/**
+	 * The transport skipped the transfer, because the server has the content already. The upload is done with no
+	 * stored data, the content is found by {@link #getContentReference()}. An upload rejected by its announced
+	 * size is rejected as usual.
+	 * @param digest	the digest of the content.
+	 * @param reference	the reference to the content, returned by the {@link UploadContentIndex}.
+	 */
+	public void reuse(String digest, String reference) {
+		if (status != UploadStatus.UPLOADING) {
+			return;
+		}
+
+		if (rejectReason != null) {
+			fail(null);
+			return;
+		}
+
+		releaseData();
+
+		contentDigest = digest;
+		contentReference = reference;
+
+		endTime = System.currentTimeMillis();
+		status = UploadStatus.DONE;
+		traceFinished();
+
+		publish();
+
+		fireUploadSucceeded();
+	}
+
+	/**
+	 * The transport failed to receive the file. Does nothing if the upload was canceled already.
+	 * @param reason	the cause of the failure, may be null.
+	 */
+	public void fail(Exception reason) {
+		if (status != UploadStatus.UPLOADING) {
+			return;
+		}
+
+		resume();
+		closeStream();
+		abortReceiverStream();
+		releaseData();
+
+		// The receive stream rejected the data itself.
+		if (rejectReason == null && reason instanceof UploadRejectedException) {
+			rejectReason = ((UploadRejectedException) reason).getReason();
+		}
+
+		endTime = System.currentTimeMillis();
+
+		if (rejectReason != null) {
+			status = UploadStatus.REJECTED;
+			traceFinished();
+
+			publish();
+
+			fireUploadRejected();
+
+		} else {
+			status = UploadStatus.FAILED;
+			traceFinished();
+
+			publish();
+
+			fireUploadFailed();
+		}
+	}
+
+	/**
+	 * Cancel the upload by the user, interrupting the transport.
+	 * @return	true if the upload was running and got canceled.
+	 */
+	public boolean cancel() {
+		return cancel(CancelReason.USER);
+	}
+
+	/**
+	 * Cancel the upload, interrupting the transport.
+	 * @param reason	why the upload is canceled.
+	 * @return	true if the upload was running and got canceled.
+	 */
+	public boolean cancel(CancelReason reason) {
+		if (status != UploadStatus.UPLOADING) {
+			return false;
+		}
+
+		cancelReason = reason;
+
+		interrupt();
+		resume();
+
+		closeStream();
+		abortReceiverStream();
+		releaseData();
+
+		endTime = System.currentTimeMillis();
+		status = UploadStatus.CANCELED;
+		traceFinished();
+
+		publish();
+
+		fireUploadCanceled();
+
+		return true;
+	}
+
+	/**
+	 * Pause the upload: the writes to the receive stream wait until it's resumed or canceled, so the transport
+	 * stops reading and the client is slowed down by the network.
+	 */
+	public void pause() {
+		if (status == UploadStatus.UPLOADING) {
+			paused = true;
+		}
+	}
+
+	/**
+	 * Resume the paused upload.
+	 */
+	public void resume() {
+		paused = false;
+
+		OutputStream stream = this.stream;
+		if (stream != null) {
+			synchronized (stream) {
+				stream.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Gets whether the upload is paused.
+	 * @return	true if the writes to the receive stream wait.
+	 */
+	public boolean isPaused() {
+		return paused;
+	}
+
+	/*
+	 * Publish the snapshot of the upload. A late progress tick never replaces the end of the same upload.
+	 */
+	private void publish() {
+		UploadState next = new UploadState(status, filename, mimeType, bytesRead, contentLength, startTime, endTime, rejectReason, cancelReason);
+
+		UploadState current;
+		do {
+			current = state.get();
+			if (current.isFinished() && !next.isFinished() && current.getStartTime() == next.getStartTime()) {
+				return;
+			}
+		} while (!state.compareAndSet(current, next));
+	}
+
+	/*
+	 * Trace the end of the upload.
+	 */
+	private void traceFinished() {
+		if (TRACER.isEnabled()) {
+			TRACER.uploadFinished(filename, status, bytesRead, endTime - startTime);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.ConstrainedOutputStream.RejectHandler#reject(org.vaadin.addons.upload.UploadSession.RejectReason)
+	 */
+	@Override
+	public void reject(RejectReason reason) {
+		rejectReason = reason;
+		interrupt();
+	}
+
+	/*
+	 * Stop the transport.
+	 */
+	private void interrupt() {
+		if (interrupter != null) {
+			interrupter.interruptUpload();
+		}
+	}
+
+	/**
+	 * Gets the uploaded bytes.
+	 * @return	a copy of the uploaded data.
+	 */
+	public byte[] getBytes() {
+		checkConsistency();
+		try {
+			return getBlob().getBytes();
+
+		} catch (IOException e) {
+			throw new UploadException("Cannot read the uploaded file " + filename, e);
+		}
+	}
+
+	/**
+	 * Gets a stream to read the uploaded data without copying it in memory.
+	 * @return	the stream of the uploaded data.
+	 */
+	public InputStream getInputStream() {
+		checkConsistency();
+		try {
+			return getBlob().getInputStream();
+
+		} catch (IOException e) {
+			throw new UploadException("Cannot read the uploaded file " + filename, e);
+		}
+	}
+
+	/**
+	 * Gets the size in bytes of the uploaded data.
+	 * @return	the size of the uploaded data.
+	 */
+	public long getSize() {
+		checkConsistency();
+		return getBlob().getSize();
+	}
+
+	/**
+	 * Gets whether the data of a done upload is in the storage, instead of a custom receiver.
+	 * @return	true if the data can be read from the session.
+	 */
+	public boolean hasStoredData() {
+		return status == UploadStatus.DONE && blobId != null;
+	}
+
+	/**
+	 * Release the data of the upload from the storage. It's not available anymore afterwards.
+	 */
+	public void releaseData() {
+		UploadBlob blob = peekBlob();
+		if (blob != null) {
+			blob.release();
+		}
+
+		this.blob = null;
+		this.blobId = null;
+	}
+
+	/*
+	 * Check whether the upload is consistent and may provide the data.
+	 */
+	void checkConsistency() {
+		checkConsistency(state.get());
+	}
+
+	/*
+	 * Check whether the upload of the specified snapshot is consistent and may provide the data.
+	 */
+	void checkConsistency(UploadState state) {
+		if (state.getStatus() != UploadStatus.DONE) {
+			throw new UploadException("Inconsistent uploaded data. Status: " + state.getStatus());
+
+		} else if (blobId == null && contentReference != null) {
+			throw new UploadException("The file " + state.getFilename() + " was not transferred, the server had its content already: " + contentReference);
+
+		} else if (blobId == null) {
+			throw new UploadException(
+					"OutputStream and other upload info handled in the UploadProgressListener already. Check your delegate implementation and access the data in receiveUpload method you implemented.");
+		}
+	}
+
+	/*
+	 * Gets the id of the blob holding the data, null if there is none.
+	 */
+	String getBlobId() {
+		return blobId;
+	}
+
+	/*
+	 * Gets the blob holding the data without failing, null if it's not available.
+	 */
+	UploadBlob peekBlob() {
+		UploadBlob blob = this.blob;
+		if (blob == null && blobId != null) {
+			blob = storage.getBlob(blobId);
+		}
+
+		return blob;
+	}
+
+	/*
+	 * Gets the blob holding the data, looking it up in the storage if needed.
+	 */
+	private UploadBlob getBlob() {
+		if (blob == null) {
+			blob = storage.getBlob(blobId);
+
+			if (blob == null) {
+				throw new UploadException("The data of the uploaded file " + filename
+						+ " is not available on this node. The session was most likely deserialized on another node.");
+			}
+		}
+
+		return blob;
+	}
+
+	/*
+	 * Create the digest of the content.
+	 */
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(UploadContentIndex.ALGORITHM);
+
+		} catch (NoSuchAlgorithmException e) {
+			throw new UploadException("The digest algorithm is not available", e);
+		}
+	}
+
+	/*
+	 * Format a digest as lowercase hex.
+	 */
+	static String toHex(byte[] digest) {
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+
+		return hex.toString();
+	}
+
+	/*
+	 * Close the output stream where the data is saved.
+	 */
+	private void closeStream() {
+		try {
+			if (stream != null) {
+				stream.close();
+				stream = null;
+			}
+		} catch (Exception e) {
+			Logger.getLogger(UploadSession.class.getName()).log(Level.WARNING, "Cannot close the stream of the upload " + filename, e);
+			stream = null;
+		}
+	}
+
+	/*
+	 * Tell the stream of the custom receiver how the upload ended.
+	 */
+	private void endReceiverStream(boolean succeeded) throws IOException {
+		UploadReceiverStream receiverStream = this.receiverStream;
+		this.receiverStream = null;
+
+		if (receiverStream != null) {
+			receiverStream.uploadEnded(succeeded);
+		}
+	}
+
+	/*
+	 * Tell the stream of the custom receiver the upload didn't succeed.
+	 */
+	private void abortReceiverStream() {
+		try {
+			endReceiverStream(false);
+
+		} catch (Exception e) {
+			Logger.getLogger(UploadSession.class.getName()).log(Level.WARNING, "Cannot abort the receiver of the upload " + filename, e);
+		}
+	}
+
+	/*
+	 * The listeners.
+	 */
+	private List<UploadSessionListener> listeners = new LinkedList<>();
+
+	/**
+	 * Adds a session listener.
+	 * @param listener	the listener to add.
+	 */
+	public synchronized void addUploadSessionListener(UploadSessionListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove the specified session listener.
+	 * @param listener	the listener to remove.
+	 */
+	public synchronized void removeUploadSessionListener(UploadSessionListener listener) {
+		listeners.remove(listener);
+	}
+
+	/*
+	 * Called when the upload starts. 
+	 */
+	protected synchronized void fireUploadStarted() {
+		Iterator<UploadSessionListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			UploadSessionListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.uploadStarted(this);
+			TRACER.endNotification("uploadStarted", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when the transport reports the progress. 
+	 */
+	protected synchronized void fireUploadProgress() {
+		Iterator<UploadSessionListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			UploadSessionListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.uploadProgress(this);
+			TRACER.endNotification("uploadProgress", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when the upload succeeded. 
+	 */
+	protected synchronized void fireUploadSucceeded() {
+		Iterator<UploadSessionListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			UploadSessionListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.uploadSucceeded(this);
+			TRACER.endNotification("uploadSucceeded", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when the upload failed. 
+	 */
+	protected synchronized void fireUploadFailed() {
+		Iterator<UploadSessionListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			UploadSessionListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.uploadFailed(this);
+			TRACER.endNotification("uploadFailed", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when the upload broke the constraints. 
+	 */
+	protected synchronized void fireUploadRejected() {
+		Iterator<UploadSessionListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			UploadSessionListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.uploadRejected(this);
+			TRACER.endNotification("uploadRejected", listener, begin);
+		}
+	}
+
+	/*
+	 * Called when the upload was canceled. 
+	 */
+	protected synchronized void fireUploadCanceled() {
+		Iterator<UploadSessionListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			UploadSessionListener listener = iterator.next();
+
+			long begin = TRACER.begin();
+			listener.uploadCanceled(this);
+			TRACER.endNotification("uploadCanceled", listener, begin);
+		}
+	}
+
+	/*
+	 * Counts the bytes written, and measures some of the writes when tracing.
+	 */
+	private class CountingOutputStream extends FilterOutputStream {
+
+		/*
+		 * The number of writes, for the sampling.
+		 */
+		private int writes;
+
+		/*
+		 * Create a stream counting the bytes written to out.
+		 */
+		private CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.FilterOutputStream#write(int)
+		 */
+		@Override
+		public void write(int b) throws IOException {
+			if (paused) {
+				awaitResume();
+			}
+
+			out.write(b);
+			bytesRead++;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.FilterOutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (paused) {
+				awaitResume();
+			}
+
+			if (TRACER.isEnabled() && ++writes % TRACER.getWriteSamplingPeriod() == 0) {
+				long begin = System.nanoTime();
+				out.write(b, off, len);
+				TRACER.streamWritten(len, System.nanoTime() - begin);
+
+			} else {
+				out.write(b, off, len);
+			}
+
+			bytesRead += len;
+		}
+
+		/*
+		 * Wait while the upload is paused.
+		 */
+		private synchronized void awaitResume() throws IOException {
+			while (paused) {
+				try {
+					wait();
+
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while the upload " + filename + " was paused");
+				}
+			}
+		}
+
+	}
+
+	/*
+	 * Discards the data of an upload rejected before it started.
+	 */
+	private static class NullOutputStream extends OutputStream {
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#write(int)
+		 */
+		@Override
+		public void write(int b) {
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+
+	}
+
+	/**
+	 * Provides the stream where to write the data of an upload, instead of the storage.
+	 */
+	public interface UploadReceiver extends Serializable {
+
+		/**
+		 * Gets the stream where to write the uploaded data.
+		 * @param filename	the name of the file.
+		 * @param mimeType	the mime type of the file.
+		 * @return	the stream, or null to keep the data in the storage.
+		 */
+		OutputStream receiveUpload(String filename, String mimeType);
+
+	}
+
+	/**
+	 * A stream returned by an {@link UploadReceiver} which is told how the upload ended, e.g. to complete the
+	 * received data only once the whole file arrived. It's usually closed by the transport before.
+	 */
+	public interface UploadReceiverStream {
+
+		/**
+		 * Called when the upload ended.
+		 * @param succeeded	true if the whole file was received, false if the upload failed or was canceled.
+		 * @throws IOException	if the received data couldn't be completed, which fails the upload.
+		 */
+		void uploadEnded(boolean succeeded) throws IOException;
+
+	}
+
+	/**
+	 * Stops the transport of an upload.
+	 */
+	public interface UploadInterrupter extends Serializable {
+
+		/**
+		 * Stop receiving the upload, the transport should then call {@link UploadSession#fail(Exception)}.
+		 */
+		void interruptUpload();
+
+	}
+
+	/**
+	 * Follow an upload session.
+	 */
+	public interface UploadSessionListener extends Serializable {
+
+		/**
+		 * Called when the upload starts.
+		 * @param session	the upload session.
+		 */
+		void uploadStarted(UploadSession session);
+
+		/**
+		 * Called when the transport reports the progress.
+		 * @param session	the upload session.
+		 */
+		void uploadProgress(UploadSession session);
+
+		/**
+		 * Called when the whole file was received.
+		 * @param session	the upload session.
+		 */
+		void uploadSucceeded(UploadSession session);
+
+		/**
+		 * Called when the upload failed.
+		 * @param session	the upload session.
+		 */
+		void uploadFailed(UploadSession session);
+
+		/**
+		 * Called when the upload was interrupted because it broke the constraints.
+		 * @param session	the upload session.
+		 */
+		void uploadRejected(UploadSession session);
+
+		/**
+		 * Called when the upload was canceled.
+		 * @param session	the upload session.
+		 */
+		void uploadCanceled(UploadSession session);
+
+	}
+
+	/**
+	 * Exception thrown by the receive stream when the upload breaks the constraints.
+	 */
+	public static class UploadRejectedException extends IOException {
+
+		/*
+		 * The broken constraint.
+		 */
+		private final RejectReason reason;
+
+		/**
+		 * Create an exception to notify that the upload was rejected.
+		 * @param reason	the broken constraint.
+		 */
+		public UploadRejectedException(RejectReason reason) {
+			super("Upload rejected: " + reason);
+			this.reason = reason;
+		}
+
+		/**
+		 * Gets the broken constraint.
+		 * @return	the reject reason.
+		 */
+		public RejectReason getReason() {
+			return reason;
+		}
+
+	}
+
+}
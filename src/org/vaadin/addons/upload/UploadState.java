@@ -0,0 +1,154 @@
+package org.vaadin.addons.upload;
+
+import java.io.Serializable;
+
+import org.vaadin.addons.upload.UploadProgress.UploadStatus;
+import org.vaadin.addons.upload.UploadSession.CancelReason;
+import org.vaadin.addons.upload.UploadSession.RejectReason;
+
+/**
+ * An immutable snapshot of an {@link UploadSession}, published on each transition and progress tick.
+ * <br/>
+ * All the values of a snapshot belong to the same upload at the same moment, so a thread polling the uploads
+ * (e.g. monitoring) gets a consistent view without any lock, even while a new upload starts in the same session.
+ *
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class UploadState implements Serializable {
+
+	/*
+	 * The state of a session which never uploaded.
+	 */
+	static final UploadState NONE = new UploadState(UploadStatus.NONE, null, null, 0, -1, 0, 0, null, null);
+
+	/*
+	 * The status and the reasons of its end.
+	 */
+	private final UploadStatus status;
+	private final RejectReason rejectReason;
+	private final CancelReason cancelReason;
+
+	/*
+	 * The file.
+	 */
+	private final String filename;
+	private final String mimeType;
+
+	/*
+	 * The byte counts.
+	 */
+	private final long bytesRead;
+	private final long contentLength;
+
+	/*
+	 * The timestamps.
+	 */
+	private final long startTime;
+	private final long endTime;
+
+	/*
+	 * Create a snapshot.
+	 */
+	UploadState(UploadStatus status, String filename, String mimeType, long bytesRead, long contentLength, long startTime, long endTime,
+			RejectReason rejectReason, CancelReason cancelReason) {
+		this.status = status;
+		this.filename = filename;
+		this.mimeType = mimeType;
+		this.bytesRead = bytesRead;
+		this.contentLength = contentLength;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.rejectReason = rejectReason;
+		this.cancelReason = cancelReason;
+	}
+
+	/**
+	 * Gets the status of the upload.
+	 * @return	the upload status.
+	 */
+	public UploadStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * Gets whether the upload ended, one way or another.
+	 * @return	true if the upload is not running and didn't just start.
+	 */
+	public boolean isFinished() {
+		return status != UploadStatus.NONE && status != UploadStatus.UPLOADING;
+	}
+
+	/**
+	 * Gets the name of the file.
+	 * @return	the file name, null if no upload started.
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Gets the mime type of the file.
+	 * @return	the mime type, null if no upload started.
+	 */
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	/**
+	 * Gets the bytes read at the last progress tick or transition.
+	 * @return	the bytes read.
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Gets the size of the upload.
+	 * @return	the content length, negative if unknown.
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * Gets when the upload started.
+	 * @return	the start time in milliseconds, 0 if no upload started.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Gets when the upload ended.
+	 * @return	the end time in milliseconds, 0 while the upload runs.
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * Gets the reason the upload was rejected.
+	 * @return	the reject reason, null if the status is not {@link UploadStatus#REJECTED}.
+	 */
+	public RejectReason getRejectReason() {
+		return status == UploadStatus.REJECTED ? rejectReason : null;
+	}
+
+	/**
+	 * Gets the reason the upload was canceled.
+	 * @return	the cancel reason, null if the status is not {@link UploadStatus#CANCELED}.
+	 */
+	public CancelReason getCancelReason() {
+		return cancelReason;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return filename + " " + status + " " + bytesRead + "/" + contentLength + " bytes";
+	}
+
+}
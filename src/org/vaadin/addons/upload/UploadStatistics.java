@@ -0,0 +1,190 @@
+package org.vaadin.addons.upload;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lightweight histogram of the sizes and the rates of the recent uploads, with power of two buckets.
+ * <br/>
+ * Recording is lock free. The counts are halved every {@link #WINDOW} uploads, so the old uploads weigh less and
+ * less. There is a global instance fed by all the uploads of the JVM, and an {@link UploadProducer} keeps one
+ * for its own uploads. Used by the {@link AdaptiveUploadStorage} to plan how to receive the next uploads.
+ *
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class UploadStatistics implements Serializable {
+
+	/**
+	 * The number of uploads after which the counts are halved.
+	 */
+	public static final int WINDOW = 512;
+
+	/*
+	 * One bucket per power of two: bucket i counts the values in [2^(i-1), 2^i), bucket 0 the zeros.
+	 */
+	private static final int BUCKETS = 64;
+
+	/*
+	 * The statistics of all the uploads of the JVM.
+	 */
+	private static final UploadStatistics GLOBAL = new UploadStatistics(true);
+
+	/**
+	 * Gets the statistics of all the uploads of the JVM.
+	 * @return	the global statistics.
+	 */
+	public static UploadStatistics getGlobal() {
+		return GLOBAL;
+	}
+
+	/*
+	 * Whether this is the global instance.
+	 */
+	private final boolean global;
+
+	/*
+	 * The size buckets in bytes, and the rate buckets in bytes per second.
+	 */
+	private final AtomicLongArray sizes = new AtomicLongArray(BUCKETS);
+	private final AtomicLongArray rates = new AtomicLongArray(BUCKETS);
+
+	/*
+	 * The weighted number of uploads in the buckets, and the uploads since the last decay.
+	 */
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong recorded = new AtomicLong();
+
+	/**
+	 * Create empty statistics.
+	 */
+	public UploadStatistics() {
+		this(false);
+	}
+
+	/*
+	 * Create the global or a local instance.
+	 */
+	private UploadStatistics(boolean global) {
+		this.global = global;
+	}
+
+	/**
+	 * Record a received upload.
+	 * @param size		the bytes received.
+	 * @param duration	how long the transfer took in milliseconds.
+	 */
+	public void record(long size, long duration) {
+		sizes.incrementAndGet(bucket(size));
+		rates.incrementAndGet(bucket(size * 1000 / Math.max(duration, 1)));
+		count.incrementAndGet();
+
+		if (recorded.incrementAndGet() >= WINDOW) {
+			decay();
+		}
+	}
+
+	/**
+	 * Gets the weighted number of recent uploads.
+	 * @return	the number of uploads the percentiles are computed on.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Gets the size under which the specified fraction of the recent uploads are.
+	 * @param fraction	the fraction of the uploads, between 0 and 1.
+	 * @return	the upper bound of the bucket in bytes, negative if nothing was recorded.
+	 */
+	public long getSizePercentile(double fraction) {
+		return percentile(sizes, fraction);
+	}
+
+	/**
+	 * Gets the rate under which the specified fraction of the recent uploads were received.
+	 * @param fraction	the fraction of the uploads, between 0 and 1.
+	 * @return	the upper bound of the bucket in bytes per second, negative if nothing was recorded.
+	 */
+	public long getRatePercentile(double fraction) {
+		return percentile(rates, fraction);
+	}
+
+	/**
+	 * Forget all the recorded uploads.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < BUCKETS; i++) {
+			sizes.set(i, 0);
+			rates.set(i, 0);
+		}
+		count.set(0);
+		recorded.set(0);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return getCount() + " uploads, median " + getSizePercentile(0.5) + " bytes at " + getRatePercentile(0.5) + " B/s";
+	}
+
+	/*
+	 * Halve the counts. A concurrent record may be halved or not, which doesn't matter for the estimate.
+	 */
+	private synchronized void decay() {
+		if (recorded.get() < WINDOW) {
+			return;
+		}
+		recorded.set(0);
+
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			sizes.set(i, sizes.get(i) / 2);
+			total += rates.get(i) / 2;
+			rates.set(i, rates.get(i) / 2);
+		}
+		count.set(total);
+	}
+
+	/*
+	 * Gets the upper bound of the bucket reaching the fraction of the total.
+	 */
+	private long percentile(AtomicLongArray buckets, double fraction) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += buckets.get(i);
+		}
+		if (total == 0) {
+			return -1;
+		}
+
+		long target = (long) Math.ceil(total * Math.min(Math.max(fraction, 0), 1));
+		long sum = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			sum += buckets.get(i);
+			if (sum >= Math.max(target, 1)) {
+				return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/*
+	 * Gets the bucket of a value.
+	 */
+	private static int bucket(long value) {
+		return value <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+	}
+
+	/*
+	 * The global statistics stay the ones of the node.
+	 */
+	private Object readResolve() throws ObjectStreamException {
+		return global ? GLOBAL : this;
+	}
+
+}
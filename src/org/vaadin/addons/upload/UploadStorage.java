@@ -0,0 +1,40 @@
+package org.vaadin.addons.upload;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Node-local store for the uploaded data.
+ * <br/>
+ * The {@link UploadProgress} component keeps only the id of its {@link UploadBlob} in its state, so the
+ * uploaded bytes never end up in the serialized session. Implementations should serialize as a lightweight
+ * reference to the store of the node they are deserialized on (e.g. through <code>readResolve</code>).
+ * 
+ * @author bogdanudrescu
+ */
+public interface UploadStorage extends Serializable {
+
+	/**
+	 * Check whether an upload of the specified size can be stored, before it starts.
+	 * @param contentLength	the size announced by the browser, negative if unknown.
+	 * @return	true if there is room for the upload.
+	 */
+	boolean canStore(long contentLength);
+
+	/**
+	 * Creates a new blob where to write the data of an upload.
+	 * @param filename	the name of the file being uploaded.
+	 * @param mimeType	the mime type of the file being uploaded.
+	 * @return	the new blob.
+	 * @throws IOException	if the blob couldn't be created.
+	 */
+	UploadBlob createBlob(String filename, String mimeType) throws IOException;
+
+	/**
+	 * Gets the blob with the specified id.
+	 * @param id	the id of the blob.
+	 * @return	the blob or null if it doesn't exist on this node, e.g. after the session was moved to another node.
+	 */
+	UploadBlob getBlob(String id);
+
+}
@@ -0,0 +1,139 @@
+package org.vaadin.addons.upload;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vaadin.addons.upload.UploadProgress.UploadStatus;
+
+/**
+ * Receives the timings of the upload lifecycle and of the hot paths: the receive stream writes, the pushes and the 
+ * listener notifications.
+ * <br/>
+ * The tracer is found once with the {@link ServiceLoader}, the first implementation listed in 
+ * <code>META-INF/services/org.vaadin.addons.upload.UploadTracer</code> is used. Without one, the tracer does nothing.
+ * The add-on checks {@link #isEnabled()} before measuring anything, so a disabled tracer costs a field read.
+ * <br/>
+ * The <code>jfr</code> module provides a tracer emitting JDK Flight Recorder events.
+ * 
+ * @author bogdanudrescu
+ */
+public abstract class UploadTracer {
+
+	/*
+	 * The tracer in use.
+	 */
+	private static final UploadTracer INSTANCE = load();
+
+	/**
+	 * Gets the tracer in use.
+	 * @return	the tracer, never null.
+	 */
+	public static UploadTracer getInstance() {
+		return INSTANCE;
+	}
+
+	/*
+	 * Find the tracer, or use the one doing nothing.
+	 */
+	private static UploadTracer load() {
+		try {
+			Iterator<UploadTracer> iterator = ServiceLoader.load(UploadTracer.class, UploadTracer.class.getClassLoader()).iterator();
+			if (iterator.hasNext()) {
+				return iterator.next();
+			}
+
+		} catch (ServiceConfigurationError e) {
+			Logger.getLogger(UploadTracer.class.getName()).log(Level.WARNING, "Cannot load the upload tracer, tracing is off", e);
+		}
+
+		return new UploadTracer() {
+		};
+	}
+
+	/**
+	 * Gets whether anything is recorded. When false the other methods are not called.
+	 * @return	true if the tracer records.
+	 */
+	public boolean isEnabled() {
+		return false;
+	}
+
+	/**
+	 * Gets how many receive stream writes are skipped between two measured writes.
+	 * @return	the write sampling period, 1 to measure all writes.
+	 */
+	public int getWriteSamplingPeriod() {
+		return 64;
+	}
+
+	/*
+	 * Gets the start of a measure, 0 if the tracer is disabled.
+	 */
+	final long begin() {
+		return isEnabled() ? System.nanoTime() : 0;
+	}
+
+	/*
+	 * End the measure of a listener notification.
+	 */
+	final void endNotification(String event, Object listener, long begin) {
+		if (begin != 0) {
+			listenerNotified(event, listener.getClass(), System.nanoTime() - begin);
+		}
+	}
+
+	/*
+	 * End the measure of a push.
+	 */
+	final void endPush(long begin) {
+		if (begin != 0) {
+			pushed(System.nanoTime() - begin);
+		}
+	}
+
+	/**
+	 * An upload started.
+	 * @param filename		the name of the file.
+	 * @param contentLength	the size announced by the client, negative if unknown.
+	 */
+	public void uploadStarted(String filename, long contentLength) {
+	}
+
+	/**
+	 * An upload ended.
+	 * @param filename	the name of the file.
+	 * @param status	how the upload ended.
+	 * @param bytes		the bytes received.
+	 * @param duration	the duration of the upload in milliseconds.
+	 */
+	public void uploadFinished(String filename, UploadStatus status, long bytes, long duration) {
+	}
+
+	/**
+	 * A sampled write to the receive stream, including the receiver and the storage below it.
+	 * @param length	the bytes written.
+	 * @param duration	the duration of the write in nanoseconds.
+	 */
+	public void streamWritten(int length, long duration) {
+	}
+
+	/**
+	 * A push to the client.
+	 * @param duration	the duration of the push in nanoseconds.
+	 */
+	public void pushed(long duration) {
+	}
+
+	/**
+	 * A listener was notified.
+	 * @param event			the name of the notification.
+	 * @param listenerClass	the class of the listener.
+	 * @param duration		the duration of the notification in nanoseconds.
+	 */
+	public void listenerNotified(String event, Class<?> listenerClass, long duration) {
+	}
+
+}
@@ -0,0 +1,691 @@
+package org.vaadin.addons.upload;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.vaadin.addons.upload.UploadSession.RejectReason;
+import org.vaadin.addons.upload.UploadSession.UploadReceiver;
+import org.vaadin.addons.upload.UploadSession.UploadRejectedException;
+
+/**
+ * Receiver extracting the entries of a ZIP archive while the archive is being uploaded.
+ * <br/>
+ * The archive is parsed as the data arrives, on the upload thread, and each entry is streamed to the stream provided by the
+ * {@link ZipEntrySink}. The archive itself is never buffered. The number of entries and the total extracted size are
+ * limited, an archive breaking the limits is rejected with {@link RejectReason#ARCHIVE_LIMIT_EXCEEDED}.
+ * <br/>
+ * Set it on the {@link UploadProgress} through {@link UploadProgress#setUploadReceiver(UploadReceiver)}, or on an {@link UploadSession}
+ * to use it without UI.
+ * 
+ * @author bogdanudrescu
+ */
+@SuppressWarnings("serial")
+public class ZipReceiver implements UploadReceiver {
+
+	/*
+	 * The signatures of the archive records.
+	 */
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_SIGNATURE = 0x06054b50;
+
+	/*
+	 * The compression methods.
+	 */
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	/*
+	 * The general purpose flags.
+	 */
+	private static final int FLAG_ENCRYPTED = 0x01;
+	private static final int FLAG_DESCRIPTOR = 0x08;
+
+	/*
+	 * Where to extract the entries.
+	 */
+	private ZipEntrySink sink;
+
+	/*
+	 * The maximum number of entries in the archive.
+	 */
+	private int maxEntries = 10000;
+
+	/*
+	 * The maximum size of all the extracted entries together.
+	 */
+	private long maxTotalSize = 1L << 30;
+
+	/**
+	 * Create a receiver extracting the entries in the specified sink.
+	 * @param sink	where to extract the entries.
+	 */
+	public ZipReceiver(ZipEntrySink sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * Sets the maximum number of entries, directories included. Default is 10000.
+	 * @param maxEntries	the maximum number of entries.
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Sets the maximum size of all the extracted entries together. Default is 1GB.
+	 * @param maxTotalSize	the maximum extracted size in bytes.
+	 */
+	public void setMaxTotalSize(long maxTotalSize) {
+		this.maxTotalSize = maxTotalSize;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.vaadin.addons.upload.UploadSession.UploadReceiver#receiveUpload(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public OutputStream receiveUpload(String filename, String mimeType) {
+		return new ExtractingOutputStream(filename);
+	}
+
+	/*
+	 * The parts of the archive the extractor expects.
+	 */
+	private static enum State {
+		SIGNATURE, LOCAL_HEADER, NAME_AND_EXTRA, DATA, DESCRIPTOR_SIGNATURE, DESCRIPTOR, END
+	}
+
+	/*
+	 * Parse the archive as it is written.
+	 */
+	private class ExtractingOutputStream extends OutputStream {
+
+		/*
+		 * The name of the archive.
+		 */
+		private final String filename;
+
+		/*
+		 * What is being parsed now.
+		 */
+		private State state = State.SIGNATURE;
+
+		/*
+		 * Accumulates the fixed size records.
+		 */
+		private byte[] header = new byte[64];
+
+		/*
+		 * The number of bytes in header.
+		 */
+		private int headerLength;
+
+		/*
+		 * The number of bytes the current record needs.
+		 */
+		private int needed = 4;
+
+		/*
+		 * The entry being extracted.
+		 */
+		private ZipEntryInfo entry;
+
+		/*
+		 * The stream of the entry being extracted, null to skip it.
+		 */
+		private OutputStream entryStream;
+
+		/*
+		 * The checksum of the entry being extracted.
+		 */
+		private CRC32 crc = new CRC32();
+
+		/*
+		 * Inflates the compressed entries.
+		 */
+		private Inflater inflater = new Inflater(true);
+
+		/*
+		 * The inflated data.
+		 */
+		private byte[] inflated = new byte[32 * 1024];
+
+		/*
+		 * The stored bytes of the current entry left to copy.
+		 */
+		private long storedRemaining;
+
+		/*
+		 * The general purpose flags of the current entry.
+		 */
+		private int flags;
+
+		/*
+		 * Whether the current entry has zip64 sizes.
+		 */
+		private boolean zip64;
+
+		/*
+		 * The number of entries so far.
+		 */
+		private int entryCount;
+
+		/*
+		 * The extracted bytes so far.
+		 */
+		private long totalSize;
+
+		/*
+		 * Create a stream extracting the specified archive.
+		 */
+		private ExtractingOutputStream(String filename) {
+			this.filename = filename;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#write(int)
+		 */
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#write(byte[], int, int)
+		 */
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			int end = off + len;
+
+			while (off < end && state != State.END) {
+				if (state == State.DATA) {
+					off = writeData(b, off, end);
+
+				} else {
+					int n = Math.min(needed - headerLength, end - off);
+					System.arraycopy(b, off, header, headerLength, n);
+					headerLength += n;
+					off += n;
+
+					if (headerLength == needed) {
+						parseRecord();
+					}
+				}
+			}
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.OutputStream#close()
+		 */
+		@Override
+		public void close() throws IOException {
+			if (inflater == null) {
+				return;
+			}
+
+			inflater.end();
+			inflater = null;
+
+			if (state != State.END && (state != State.SIGNATURE || headerLength > 0 || entryCount == 0)) {
+				closeEntry();
+				throw new IOException("Truncated zip archive " + filename);
+			}
+		}
+
+		/*
+		 * Parse the complete record in header.
+		 */
+		private void parseRecord() throws IOException {
+			switch (state) {
+			case SIGNATURE:
+				int signature = readInt(0);
+				if (signature == LOCAL_HEADER_SIGNATURE) {
+					expect(State.LOCAL_HEADER, 30);
+
+				} else if (entryCount > 0 && (signature == CENTRAL_HEADER_SIGNATURE || signature == END_SIGNATURE)) {
+					// All entries were read, the central directory repeats what we know.
+					state = State.END;
+
+				} else {
+					throw new UploadRejectedException(RejectReason.CONTENT_TYPE_NOT_ALLOWED);
+				}
+				break;
+
+			case LOCAL_HEADER:
+				expect(State.NAME_AND_EXTRA, 30 + readShort(26) + readShort(28));
+				break;
+
+			case NAME_AND_EXTRA:
+				startEntry();
+				break;
+
+			case DESCRIPTOR_SIGNATURE:
+				if (readInt(0) == DESCRIPTOR_SIGNATURE) {
+					expect(State.DESCRIPTOR, zip64 ? 20 : 12);
+
+				} else {
+					// The signature is optional, so these were already the crc.
+					state = State.DESCRIPTOR;
+					needed = zip64 ? 20 : 12;
+				}
+				break;
+
+			case DESCRIPTOR:
+				entry.crc = readInt(0) & 0xFFFFFFFFL;
+				entry.compressedSize = zip64 ? readLong(4) : readInt(4) & 0xFFFFFFFFL;
+				finishEntry();
+				break;
+
+			default:
+				throw new IllegalStateException(state.toString());
+			}
+		}
+
+		/*
+		 * Start extracting the entry described by the local header in header.
+		 */
+		private void startEntry() throws IOException {
+			if (++entryCount > maxEntries) {
+				throw new UploadRejectedException(RejectReason.ARCHIVE_LIMIT_EXCEEDED);
+			}
+
+			flags = readShort(6);
+			int method = readShort(8);
+			int nameLength = readShort(26);
+			int extraLength = readShort(28);
+
+			if ((flags & FLAG_ENCRYPTED) != 0) {
+				throw new IOException("Encrypted zip entries are not supported: " + filename);
+
+			} else if (method != STORED && method != DEFLATED) {
+				throw new IOException("Unsupported zip compression method " + method + ": " + filename);
+
+			} else if (method == STORED && (flags & FLAG_DESCRIPTOR) != 0) {
+				throw new IOException("Stored zip entries with data descriptor are not supported: " + filename);
+			}
+
+			entry = new ZipEntryInfo();
+			entry.archiveName = filename;
+			entry.index = entryCount - 1;
+			entry.name = new String(header, 30, nameLength, (flags & 0x800) != 0 ? "UTF-8" : "ISO-8859-1");
+			entry.method = method;
+			entry.crc = readInt(14) & 0xFFFFFFFFL;
+			entry.compressedSize = readInt(18) & 0xFFFFFFFFL;
+			entry.size = readInt(22) & 0xFFFFFFFFL;
+
+			zip64 = readZip64Sizes(30 + nameLength, extraLength);
+
+			if ((flags & FLAG_DESCRIPTOR) != 0) {
+				entry.crc = -1;
+				entry.compressedSize = -1;
+				entry.size = -1;
+			}
+
+			crc.reset();
+			inflater.reset();
+			storedRemaining = entry.compressedSize;
+
+			entryStream = sink.openEntry(entry);
+			fireEntryStarted(entry);
+
+			expect(State.DATA, 0);
+			if (method == STORED && storedRemaining == 0) {
+				endData();
+			}
+		}
+
+		/*
+		 * Read the zip64 extra field, if any, returns whether it was found.
+		 */
+		private boolean readZip64Sizes(int offset, int length) {
+			int end = offset + length;
+			while (offset + 4 <= end) {
+				int id = readShort(offset);
+				int size = readShort(offset + 2);
+
+				if (id == 0x0001) {
+					if (entry.size == 0xFFFFFFFFL && size >= 8) {
+						entry.size = readLong(offset + 4);
+					}
+					if (entry.compressedSize == 0xFFFFFFFFL && size >= 16) {
+						entry.compressedSize = readLong(offset + 12);
+					}
+					return true;
+				}
+
+				offset += 4 + size;
+			}
+
+			return false;
+		}
+
+		/*
+		 * Extract the entry data, returns the offset after the data consumed.
+		 */
+		private int writeData(byte[] b, int off, int end) throws IOException {
+			if (entry.method == STORED) {
+				int n = (int) Math.min(storedRemaining, end - off);
+				extracted(b, off, n);
+				storedRemaining -= n;
+
+				if (storedRemaining == 0) {
+					endData();
+				}
+
+				return off + n;
+			}
+
+			// The inflater keeps no reference to the data once it needs input again.
+			inflater.setInput(b, off, end - off);
+			try {
+				while (!inflater.finished() && !inflater.needsInput()) {
+					int n = inflater.inflate(inflated);
+					if (n == 0 && inflater.needsDictionary()) {
+						throw new IOException("Invalid zip entry " + entry.name + " in " + filename);
+					}
+					extracted(inflated, 0, n);
+				}
+
+			} catch (DataFormatException e) {
+				throw new IOException("Invalid zip entry " + entry.name + " in " + filename, e);
+			}
+
+			if (inflater.finished()) {
+				int remaining = inflater.getRemaining();
+				endData();
+
+				return end - remaining;
+			}
+
+			return end;
+		}
+
+		/*
+		 * Account and write the extracted bytes.
+		 */
+		private void extracted(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+
+			totalSize += len;
+			if (totalSize > maxTotalSize) {
+				throw new UploadRejectedException(RejectReason.ARCHIVE_LIMIT_EXCEEDED);
+			}
+
+			crc.update(b, off, len);
+			if (entryStream != null) {
+				entryStream.write(b, off, len);
+			}
+
+			entry.extracted += len;
+			fireEntryProgress(entry);
+		}
+
+		/*
+		 * The entry data ended, continue with the descriptor or the next entry.
+		 */
+		private void endData() throws IOException {
+			if ((flags & FLAG_DESCRIPTOR) != 0) {
+				expect(State.DESCRIPTOR_SIGNATURE, 4);
+
+			} else {
+				finishEntry();
+			}
+		}
+
+		/*
+		 * Verify and close the current entry.
+		 */
+		private void finishEntry() throws IOException {
+			entry.size = entry.extracted;
+
+			if (crc.getValue() != entry.crc) {
+				closeEntry();
+				throw new IOException("Corrupted zip entry " + entry.name + " in " + filename);
+			}
+
+			closeEntry();
+			fireEntryFinished(entry);
+
+			expect(State.SIGNATURE, 4);
+		}
+
+		/*
+		 * Close the stream of the current entry.
+		 */
+		private void closeEntry() throws IOException {
+			if (entryStream != null) {
+				OutputStream stream = entryStream;
+				entryStream = null;
+				stream.close();
+			}
+		}
+
+		/*
+		 * Wait until header holds the specified number of bytes, the local header parts are kept together.
+		 */
+		private void expect(State state, int needed) {
+			if (state != State.LOCAL_HEADER && state != State.NAME_AND_EXTRA) {
+				headerLength = 0;
+			}
+
+			if (needed > header.length) {
+				byte[] newHeader = new byte[needed];
+				System.arraycopy(header, 0, newHeader, 0, headerLength);
+				header = newHeader;
+			}
+
+			this.state = state;
+			this.needed = needed;
+		}
+
+		/*
+		 * Read a little endian short from header.
+		 */
+		private int readShort(int offset) {
+			return (header[offset] & 0xFF) | (header[offset + 1] & 0xFF) << 8;
+		}
+
+		/*
+		 * Read a little endian int from header.
+		 */
+		private int readInt(int offset) {
+			return readShort(offset) | readShort(offset + 2) << 16;
+		}
+
+		/*
+		 * Read a little endian long from header.
+		 */
+		private long readLong(int offset) {
+			return (readInt(offset) & 0xFFFFFFFFL) | (long) readInt(offset + 4) << 32;
+		}
+
+	}
+
+	/*
+	 * The entry listeners.
+	 */
+	private List<ZipEntryListener> listeners = new LinkedList<>();
+
+	/**
+	 * Adds an entry listener.
+	 * @param listener	the listener to add.
+	 */
+	public synchronized void addZipEntryListener(ZipEntryListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Remove the specified entry listener.
+	 * @param listener	the listener to remove.
+	 */
+	public synchronized void removeZipEntryListener(ZipEntryListener listener) {
+		listeners.remove(listener);
+	}
+
+	/*
+	 * Called when an entry starts being extracted.
+	 */
+	protected synchronized void fireEntryStarted(ZipEntryInfo entry) {
+		Iterator<ZipEntryListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			iterator.next().entryStarted(entry);
+		}
+	}
+
+	/*
+	 * Called each time data of an entry was extracted.
+	 */
+	protected synchronized void fireEntryProgress(ZipEntryInfo entry) {
+		Iterator<ZipEntryListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			iterator.next().entryProgress(entry);
+		}
+	}
+
+	/*
+	 * Called when an entry was completely extracted.
+	 */
+	protected synchronized void fireEntryFinished(ZipEntryInfo entry) {
+		Iterator<ZipEntryListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			iterator.next().entryFinished(entry);
+		}
+	}
+
+	/**
+	 * Info about an archive entry.
+	 */
+	public static class ZipEntryInfo {
+
+		/*
+		 * The fields read from the archive.
+		 */
+		private String archiveName;
+		private int index;
+		private String name;
+		private int method;
+		private long crc;
+		private long compressedSize;
+		private long size;
+		private long extracted;
+
+		/*
+		 * Created by the receiver.
+		 */
+		private ZipEntryInfo() {
+		}
+
+		/**
+		 * Gets the name of the uploaded archive.
+		 * @return	the archive file name.
+		 */
+		public String getArchiveName() {
+			return archiveName;
+		}
+
+		/**
+		 * Gets the index of the entry in the archive.
+		 * @return	the entry index.
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets the name of the entry, including its path inside the archive.
+		 * @return	the entry name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets whether the entry is a directory.
+		 * @return	true for a directory.
+		 */
+		public boolean isDirectory() {
+			return name.endsWith("/");
+		}
+
+		/**
+		 * Gets the size of the entry data in the archive.
+		 * @return	the compressed size, or -1 if it's not known yet.
+		 */
+		public long getCompressedSize() {
+			return compressedSize;
+		}
+
+		/**
+		 * Gets the extracted size of the entry.
+		 * @return	the size, or -1 if it's not known until the entry is extracted.
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the number of bytes extracted so far.
+		 * @return	the extracted bytes.
+		 */
+		public long getExtractedBytes() {
+			return extracted;
+		}
+
+	}
+
+	/**
+	 * Provides the streams where to extract the entries.
+	 */
+	public interface ZipEntrySink extends Serializable {
+
+		/**
+		 * Called on the upload thread when an entry starts. The stream is closed when the entry ends.
+		 * An exception thrown here fails the upload.
+		 * @param entry	the entry.
+		 * @return	the stream where to extract the entry, or null to skip it.
+		 * @throws IOException	to fail the upload.
+		 */
+		OutputStream openEntry(ZipEntryInfo entry) throws IOException;
+
+	}
+
+	/**
+	 * Receives the progress of the extraction for each entry.
+	 * <br/>
+	 * The methods are called on the upload request thread as the data is written, without the session lock. A listener
+	 * updating components must do it through {@link com.vaadin.ui.UI#access(Runnable)}, and should return fast since
+	 * the upload waits for it.
+	 */
+	public interface ZipEntryListener extends Serializable {
+
+		/**
+		 * Called when an entry starts being extracted.
+		 * @param entry	the entry.
+		 */
+		void entryStarted(ZipEntryInfo entry);
+
+		/**
+		 * Called each time data of the entry was extracted.
+		 * @param entry	the entry.
+		 */
+		void entryProgress(ZipEntryInfo entry);
+
+		/**
+		 * Called when the entry was completely extracted and verified.
+		 * @param entry	the entry.
+		 */
+		void entryFinished(ZipEntryInfo entry);
+
+	}
+
+}
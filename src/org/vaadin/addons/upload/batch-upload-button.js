@@ -0,0 +1,141 @@
+/*
+ * Client side of the BatchUploadButton.
+ * 
+ * Opens a multiple file selection, sends the selection to the server, then posts the files the server asks for,
+ * a few at a time, each as the raw body of a request.
+ * 
+ * @author bogdanudrescu
+ */
+window.org_vaadin_addons_upload_BatchUploadButton = function() {
+
+	var connector = this;
+	var element = connector.getElement();
+
+	var input = document.createElement("input");
+	input.type = "file";
+	input.multiple = true;
+	input.style.display = "none";
+
+	var button = document.createElement("div");
+	button.className = "v-button";
+	button.setAttribute("role", "button");
+	button.tabIndex = 0;
+
+	var caption = document.createElement("span");
+	caption.className = "v-button-caption";
+	button.appendChild(caption);
+
+	element.appendChild(input);
+	element.appendChild(button);
+
+	// The selected files by key, the keys waiting to be posted and the running requests.
+	var files = {};
+	var queue = [];
+	var running = {};
+	var runningCount = 0;
+	var nextKey = 0;
+
+	button.onclick = function() {
+		input.click();
+	};
+
+	input.onchange = function() {
+		var selected = [];
+
+		for (var i = 0; i < input.files.length; i++) {
+			var file = input.files[i];
+			var key = "f" + nextKey++;
+
+			files[key] = file;
+			selected.push({
+				key : key,
+				name : file.name,
+				type : file.type || "application/octet-stream",
+				size : file.size
+			});
+		}
+
+		// So the same files can be selected again.
+		input.value = "";
+
+		if (selected.length > 0) {
+			connector.filesSelected(selected);
+		}
+	};
+
+	/*
+	 * Post the next queued files, as long as there's room.
+	 */
+	function next() {
+		var state = connector.getState();
+
+		while (state.url && runningCount < state.parallelism && queue.length > 0) {
+			post(queue.shift());
+		}
+	}
+
+	/*
+	 * Post a file.
+	 */
+	function post(key) {
+		var file = files[key];
+		if (!file) {
+			return;
+		}
+
+		var request = new XMLHttpRequest();
+		running[key] = request;
+		runningCount++;
+
+		request.open("POST", connector.translateVaadinUri(connector.getState().url + key), true);
+		request.setRequestHeader("Content-Type", "application/octet-stream");
+
+		request.onloadend = function() {
+			delete running[key];
+			delete files[key];
+			runningCount--;
+
+			next();
+		};
+
+		request.send(file);
+	}
+
+	connector.startUploads = function(keys) {
+		for (var i = 0; i < keys.length; i++) {
+			queue.push(keys[i]);
+		}
+
+		next();
+	};
+
+	connector.abortUpload = function(key) {
+		for (var i = queue.length - 1; i >= 0; i--) {
+			if (queue[i] == key) {
+				queue.splice(i, 1);
+			}
+		}
+
+		if (running[key]) {
+			running[key].abort();
+		}
+
+		delete files[key];
+	};
+
+	connector.onStateChange = function() {
+		caption.innerHTML = "";
+		caption.appendChild(document.createTextNode(connector.getState().buttonCaption));
+
+		next();
+	};
+
+	connector.onUnregister = function() {
+		queue = [];
+
+		for ( var key in running) {
+			running[key].abort();
+		}
+	};
+
+};
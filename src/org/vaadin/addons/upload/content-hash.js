@@ -0,0 +1,258 @@
+/*
+ * Client side of the ContentHashExtension.
+ *
+ * Holds back the file selected in the extended upload, digests it in a worker, chunk by chunk, and asks the server
+ * whether it has the content already. The selection goes on to the upload only when the server doesn't have it.
+ * Without worker support, or for small files, the selection goes on right away.
+ *
+ * @author bogdanudrescu
+ */
+window.org_vaadin_addons_upload_ContentHashExtension = function() {
+
+	var connector = this;
+	var element = connector.getElement(connector.getParentId());
+
+	// The input whose selection waits for the answer of the server, and the change let through to the upload.
+	var pending = null;
+	var passing = false;
+
+	var worker = null;
+
+	/*
+	 * The code of the worker: an incremental SHA-256 of the chunks read from the file.
+	 */
+	function hashWorker() {
+
+		var K = [ 0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+				0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+				0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+				0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+				0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+				0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+				0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+				0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2 ];
+
+		function Sha256() {
+			this.h = [ 0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19 ];
+			this.w = new Int32Array(64);
+			this.buffer = new Uint8Array(64);
+			this.bufferLength = 0;
+			this.length = 0;
+		}
+
+		/*
+		 * Process the 64 bytes block at the specified offset.
+		 */
+		Sha256.prototype.block = function(bytes, offset) {
+			var w = this.w;
+			var h = this.h;
+			var i;
+
+			for (i = 0; i < 16; i++) {
+				var j = offset + i * 4;
+				w[i] = (bytes[j] << 24) | (bytes[j + 1] << 16) | (bytes[j + 2] << 8) | bytes[j + 3];
+			}
+			for (i = 16; i < 64; i++) {
+				var x = w[i - 15];
+				var y = w[i - 2];
+				var s0 = ((x >>> 7) | (x << 25)) ^ ((x >>> 18) | (x << 14)) ^ (x >>> 3);
+				var s1 = ((y >>> 17) | (y << 15)) ^ ((y >>> 19) | (y << 13)) ^ (y >>> 10);
+				w[i] = (w[i - 16] + s0 + w[i - 7] + s1) | 0;
+			}
+
+			var a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], k = h[7];
+
+			for (i = 0; i < 64; i++) {
+				var S1 = ((e >>> 6) | (e << 26)) ^ ((e >>> 11) | (e << 21)) ^ ((e >>> 25) | (e << 7));
+				var t1 = (k + S1 + ((e & f) ^ (~e & g)) + K[i] + w[i]) | 0;
+				var S0 = ((a >>> 2) | (a << 30)) ^ ((a >>> 13) | (a << 19)) ^ ((a >>> 22) | (a << 10));
+				var t2 = (S0 + ((a & b) ^ (a & c) ^ (b & c))) | 0;
+
+				k = g;
+				g = f;
+				f = e;
+				e = (d + t1) | 0;
+				d = c;
+				c = b;
+				b = a;
+				a = (t1 + t2) | 0;
+			}
+
+			h[0] = (h[0] + a) | 0;
+			h[1] = (h[1] + b) | 0;
+			h[2] = (h[2] + c) | 0;
+			h[3] = (h[3] + d) | 0;
+			h[4] = (h[4] + e) | 0;
+			h[5] = (h[5] + f) | 0;
+			h[6] = (h[6] + g) | 0;
+			h[7] = (h[7] + k) | 0;
+		};
+
+		/*
+		 * Add the bytes to the digest.
+		 */
+		Sha256.prototype.update = function(bytes) {
+			var offset = 0;
+			this.length += bytes.length;
+
+			// Complete the block started by the previous chunk.
+			if (this.bufferLength > 0) {
+				var n = Math.min(64 - this.bufferLength, bytes.length);
+				this.buffer.set(bytes.subarray(0, n), this.bufferLength);
+				this.bufferLength += n;
+				offset = n;
+
+				if (this.bufferLength < 64) {
+					return;
+				}
+				this.block(this.buffer, 0);
+				this.bufferLength = 0;
+			}
+
+			for (; offset + 64 <= bytes.length; offset += 64) {
+				this.block(bytes, offset);
+			}
+
+			this.buffer.set(bytes.subarray(offset), 0);
+			this.bufferLength = bytes.length - offset;
+		};
+
+		/*
+		 * Pad the message and get the lowercase hex digest.
+		 */
+		Sha256.prototype.digest = function() {
+			var bits = this.length * 8;
+
+			var padding = new Uint8Array(this.bufferLength < 56 ? 64 - this.bufferLength : 128 - this.bufferLength);
+			padding[0] = 0x80;
+
+			var end = padding.length - 8;
+			var high = Math.floor(bits / 0x100000000);
+			var low = bits >>> 0;
+			padding[end] = high >>> 24;
+			padding[end + 1] = high >>> 16;
+			padding[end + 2] = high >>> 8;
+			padding[end + 3] = high;
+			padding[end + 4] = low >>> 24;
+			padding[end + 5] = low >>> 16;
+			padding[end + 6] = low >>> 8;
+			padding[end + 7] = low;
+
+			this.update(padding);
+
+			var hex = "";
+			for (var i = 0; i < 8; i++) {
+				hex += ("0000000" + (this.h[i] >>> 0).toString(16)).slice(-8);
+			}
+			return hex;
+		};
+
+		self.onmessage = function(event) {
+			var file = event.data.file;
+			var chunkSize = event.data.chunkSize;
+
+			var reader = new FileReaderSync();
+			var sha = new Sha256();
+
+			for (var offset = 0; offset < file.size; offset += chunkSize) {
+				sha.update(new Uint8Array(reader.readAsArrayBuffer(file.slice(offset, offset + chunkSize))));
+			}
+
+			self.postMessage(sha.digest());
+		};
+	}
+
+	/*
+	 * Gets the worker digesting the files, null if the browser can't run it.
+	 */
+	function getWorker() {
+		if (worker == null && window.Worker && window.Blob && window.URL) {
+			try {
+				var url = URL.createObjectURL(new Blob([ "(" + hashWorker.toString() + ")();" ], {
+					type : "application/javascript"
+				}));
+				worker = new Worker(url);
+				URL.revokeObjectURL(url);
+
+			} catch (e) {
+				worker = null;
+			}
+		}
+		return worker;
+	}
+
+	/*
+	 * Let the selection of the input go on to the upload.
+	 */
+	function pass(input) {
+		var event = document.createEvent("HTMLEvents");
+		event.initEvent("change", true, false);
+
+		passing = true;
+		try {
+			input.dispatchEvent(event);
+		} finally {
+			passing = false;
+		}
+	}
+
+	// Captured on the way down, so the upload doesn't see the selection before the server answers.
+	element.addEventListener("change", function(event) {
+		var input = event.target;
+		var state = connector.getState();
+
+		if (passing || !state.enabled || input.type !== "file" || !input.files || input.files.length !== 1) {
+			return;
+		}
+
+		var file = input.files[0];
+		if (file.size < state.minSize || pending != null || getWorker() == null) {
+			return;
+		}
+
+		event.stopPropagation();
+		pending = input;
+
+		worker.onmessage = function(message) {
+			connector.checkContent(message.data, file.name, file.type, file.size);
+		};
+		worker.onerror = function(error) {
+			error.preventDefault();
+			worker.terminate();
+			worker = null;
+
+			pending = null;
+			pass(input);
+		};
+
+		worker.postMessage({
+			file : file,
+			chunkSize : state.chunkSize
+		});
+	}, true);
+
+	/*
+	 * The server answered whether it had the content.
+	 */
+	connector.contentChecked = function(found) {
+		var input = pending;
+		pending = null;
+
+		if (input == null) {
+			return;
+		}
+
+		if (found) {
+			input.value = "";
+		} else {
+			pass(input);
+		}
+	};
+
+	connector.onUnregister = function() {
+		if (worker != null) {
+			worker.terminate();
+			worker = null;
+		}
+	};
+};
@@ -0,0 +1,123 @@
+/*
+ * Client side of the InterpolatingProgressBar.
+ * 
+ * The server sends anchors: the bytes read and the rate when the anchor was set. Between anchors the bar is
+ * animated locally by extrapolating from the last anchor, and eased towards each new anchor so it never jumps.
+ * 
+ * @author bogdanudrescu
+ */
+window.org_vaadin_addons_upload_InterpolatingProgressBar = function() {
+
+	var connector = this;
+	var element = connector.getElement();
+
+	var wrapper = document.createElement("div");
+	wrapper.className = "v-progressbar-wrapper";
+
+	var indicator = document.createElement("div");
+	indicator.className = "v-progressbar-indicator";
+
+	wrapper.appendChild(indicator);
+	element.appendChild(wrapper);
+	element.className += " v-progressbar";
+
+	var requestFrame = window.requestAnimationFrame || function(callback) {
+		return window.setTimeout(callback, 40);
+	};
+	var cancelFrame = window.cancelAnimationFrame || window.clearTimeout;
+
+	var now = window.performance && window.performance.now ? function() {
+		return window.performance.now();
+	} : function() {
+		return new Date().getTime();
+	};
+
+	// The last anchor, timed with the local clock.
+	var anchor = -1;
+	var anchorBytes = 0;
+	var anchorTime = 0;
+	var rate = 0;
+
+	// The bytes shown by the bar.
+	var shown = 0;
+	var frameTime = 0;
+	var frame = null;
+
+	/*
+	 * The bytes the upload most likely reached at the specified time.
+	 */
+	function extrapolate(time) {
+		var state = connector.getState();
+		var elapsed = Math.min(time - anchorTime, state.maxExtrapolation);
+
+		// Never show the upload complete before the server says so.
+		return Math.min(anchorBytes + rate * elapsed / 1000, state.contentLength * 0.99);
+	}
+
+	/*
+	 * Move the bar one frame towards the extrapolated progress.
+	 */
+	function animate() {
+		frame = null;
+
+		var state = connector.getState();
+		var time = now();
+		var target = extrapolate(time);
+
+		if (target > shown) {
+			// Ease in over a quarter of a second, so a corrected rate doesn't make the bar jump.
+			shown += (target - shown) * Math.min(1, (time - frameTime) / 250);
+		}
+		frameTime = time;
+
+		indicator.style.width = (100 * shown / state.contentLength) + "%";
+
+		if (rate > 0 && time - anchorTime < state.maxExtrapolation + 250) {
+			frame = requestFrame(animate);
+		}
+	}
+
+	connector.onStateChange = function() {
+		var state = connector.getState();
+
+		if (state.indeterminate || state.contentLength <= 0) {
+			if (frame) {
+				cancelFrame(frame);
+				frame = null;
+			}
+
+			indicator.style.width = "";
+			if (element.className.indexOf("v-progressbar-indeterminate") < 0) {
+				element.className += " v-progressbar-indeterminate";
+			}
+			return;
+		}
+
+		element.className = element.className.replace(/\s*v-progressbar-indeterminate/g, "");
+
+		if (state.anchor != anchor) {
+			anchor = state.anchor;
+			anchorBytes = state.bytes;
+			anchorTime = now();
+			rate = state.rate;
+
+			// Went too far (or a new file started): step back to what the server knows.
+			if (anchorBytes < shown) {
+				shown = anchorBytes;
+			}
+		}
+
+		if (!frame) {
+			frameTime = now();
+			animate();
+		}
+	};
+
+	connector.onUnregister = function() {
+		if (frame) {
+			cancelFrame(frame);
+			frame = null;
+		}
+	};
+
+};
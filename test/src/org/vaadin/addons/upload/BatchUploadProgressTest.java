@@ -0,0 +1,136 @@
+package org.vaadin.addons.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vaadin.addons.upload.BatchUploadButton.SelectionHandler;
+import org.vaadin.addons.upload.BatchUploadProgress.BatchUploadAdapter;
+import org.vaadin.addons.upload.UploadProgress.UploadStatus;
+import org.vaadin.addons.upload.UploadSession.RejectReason;
+
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.CssLayout;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.VerticalLayout;
+
+/**
+ * Tests how the files of a batch end.
+ *
+ * @author bogdanudrescu
+ */
+public class BatchUploadProgressTest {
+
+	/*
+	 * The parent of the batch, in a UI of a session with no service.
+	 */
+	private CssLayout parent = new CssLayout();
+
+	/*
+	 * The session of the UI, locked with a plain lock.
+	 */
+	private VaadinSession session;
+
+	@Before
+	@SuppressWarnings("serial")
+	public void createUI() {
+		final ReentrantLock lock = new ReentrantLock();
+		session = new VaadinSession(null) {
+
+			@Override
+			public boolean hasLock() {
+				return lock.isHeldByCurrentThread();
+			}
+
+			@Override
+			public void lock() {
+				lock.lock();
+			}
+
+			@Override
+			public void unlock() {
+				lock.unlock();
+			}
+
+		};
+		VaadinSession.setCurrent(session);
+
+		UI ui = new UI() {
+
+			@Override
+			protected void init(VaadinRequest request) {
+			}
+
+		};
+		ui.setSession(session);
+
+		// Like a request thread.
+		session.lock();
+		ui.setContent(parent);
+	}
+
+	@After
+	public void removeUI() {
+		session.unlock();
+		VaadinSession.setCurrent(null);
+	}
+
+	@Test
+	@SuppressWarnings("serial")
+	public void fileOverTheQuotaIsRejectedAndEndsTheBatch() throws IOException {
+		final AtomicBoolean rejected = new AtomicBoolean();
+		final AtomicBoolean finished = new AtomicBoolean();
+		BatchUploadProgress batch = new BatchUploadProgress(new BatchUploadAdapter() {
+
+			@Override
+			public void fileRejected(BatchUploadProgress batch, UploadSession file) {
+				rejected.set(true);
+			}
+
+			@Override
+			public void batchFinished(BatchUploadProgress batch) {
+				finished.set(true);
+			}
+
+		});
+
+		FileUploadStorage storage = FileUploadStorage.getInstance(Files.createTempDirectory("batch-upload-test").toFile());
+		storage.setQuota(0);
+		batch.setStorage(storage);
+		parent.addComponent(batch);
+
+		byte[] data = new byte[1024];
+		select(batch, "file", "full.bin", data.length);
+
+		int status = batch.receive("file", new ByteArrayInputStream(data), data.length);
+
+		UploadSession file = batch.getFiles().get(0);
+		assertEquals(413, status);
+		assertEquals(UploadStatus.REJECTED, file.getStatus());
+		assertEquals(RejectReason.QUOTA_EXCEEDED, file.getRejectReason());
+		assertTrue(rejected.get());
+		assertTrue(finished.get());
+		assertFalse(batch.isUploading());
+	}
+
+	/*
+	 * Select a file, like the browser does.
+	 */
+	private static void select(BatchUploadProgress batch, String key, String name, long size) {
+		VerticalLayout layout = (VerticalLayout) batch.iterator().next();
+		SelectionHandler handler = ((BatchUploadButton) layout.getComponent(0)).getSelectionHandler();
+		handler.fileSelected(key, name, "application/octet-stream", size);
+		handler.selectionEnded();
+	}
+
+}
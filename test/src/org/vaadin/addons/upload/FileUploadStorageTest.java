@@ -0,0 +1,165 @@
+package org.vaadin.addons.upload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.vaadin.addons.upload.ReceivePlan.Strategy;
+import org.vaadin.addons.upload.UploadSession.UploadRejectedException;
+
+/**
+ * Tests the disk accounting of the file storage.
+ *
+ * @author bogdanudrescu
+ */
+public class FileUploadStorageTest {
+
+	@Test(timeout = 30000)
+	public void releasingWhileWritingLeavesNoUsage() throws Exception {
+		final FileUploadStorage storage = FileUploadStorage.getInstance(createDirectory());
+
+		for (int round = 0; round < 200; round++) {
+			final UploadBlob blob = storage.createBlob("race.bin", "application/octet-stream");
+			final OutputStream stream = blob.getOutputStream();
+			final CountDownLatch writing = new CountDownLatch(1);
+
+			Thread writer = new Thread() {
+
+				@Override
+				public void run() {
+					byte[] chunk = new byte[512];
+					try {
+						for (int i = 0; i < 1000; i++) {
+							stream.write(chunk, 0, chunk.length);
+							writing.countDown();
+						}
+					} catch (IOException e) {
+						// Released.
+					}
+				}
+
+			};
+			writer.start();
+
+			writing.await();
+			blob.release();
+			writer.join();
+		}
+
+		assertEquals(0, storage.getUsage());
+	}
+
+	@Test(timeout = 30000)
+	public void concurrentUploadsDoNotExceedTheQuota() throws Exception {
+		final FileUploadStorage storage = FileUploadStorage.getInstance(createDirectory());
+		final long quota = 1024 * 1024;
+		storage.setQuota(quota);
+
+		final AtomicLong maxUsage = new AtomicLong();
+		List<Thread> writers = new ArrayList<>();
+		final List<UploadBlob> blobs = new ArrayList<>();
+
+		for (int i = 0; i < 8; i++) {
+			final UploadBlob blob = storage.createBlob("quota" + i + ".bin", "application/octet-stream");
+			blobs.add(blob);
+
+			Thread writer = new Thread() {
+
+				@Override
+				public void run() {
+					byte[] chunk = new byte[1000];
+					try (OutputStream stream = blob.getOutputStream()) {
+						while (true) {
+							stream.write(chunk, 0, chunk.length);
+
+							long usage = storage.getUsage();
+							long max;
+							while (usage > (max = maxUsage.get()) && !maxUsage.compareAndSet(max, usage)) {
+							}
+						}
+					} catch (UploadRejectedException e) {
+						// Full.
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+
+			};
+			writer.start();
+			writers.add(writer);
+		}
+
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		assertTrue("Usage " + maxUsage.get() + " over the quota", maxUsage.get() <= quota);
+		assertTrue(storage.getUsage() > quota - 8 * 1000);
+
+		for (UploadBlob blob : blobs) {
+			blob.release();
+		}
+		assertEquals(0, storage.getUsage());
+	}
+
+	@Test
+	public void directBlobIsWrittenAndDeleted() throws IOException {
+		File directory = createDirectory();
+		FileUploadStorage storage = FileUploadStorage.getInstance(directory);
+
+		byte[] data = new byte[10000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+
+		// A buffer smaller than the data and than the writes, so it's written several times.
+		final UploadBlob blob = storage.createBlob(new ReceivePlan(Strategy.DIRECT, data.length, 4096, "test"));
+		try (OutputStream stream = blob.getOutputStream()) {
+			stream.write(data, 0, 3);
+			stream.write(data, 3, 6000);
+			stream.write(data, 6003, data.length - 6003);
+		}
+
+		assertEquals(data.length, blob.getSize());
+		try (InputStream stream = blob.getInputStream()) {
+			byte[] read = new byte[data.length + 1];
+			int length = 0;
+			for (int n; (n = stream.read(read, length, read.length - length)) > 0;) {
+				length += n;
+			}
+			assertArrayEquals(data, Arrays.copyOf(read, length));
+		}
+
+		blob.release();
+		assertEquals(0, storage.getUsage());
+		assertEquals(0, directory.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(blob.getId());
+			}
+
+		}).length);
+	}
+
+	/*
+	 * Create an empty directory for a storage.
+	 */
+	private static File createDirectory() throws IOException {
+		return Files.createTempDirectory("upload-storage-test").toFile();
+	}
+
+}
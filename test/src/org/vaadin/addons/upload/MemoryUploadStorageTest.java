@@ -0,0 +1,146 @@
+package org.vaadin.addons.upload;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.vaadin.server.DefaultDeploymentConfiguration;
+import com.vaadin.server.ServiceException;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinServlet;
+import com.vaadin.server.VaadinServletService;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.WrappedSession;
+
+/**
+ * Tests when the memory storage releases the blobs.
+ *
+ * @author bogdanudrescu
+ */
+public class MemoryUploadStorageTest {
+
+	@After
+	public void removeSession() {
+		VaadinSession.setCurrent(null);
+	}
+
+	@Test
+	public void destroyingTheSessionReleasesItsBlobs() throws IOException, ServiceException {
+		VaadinService service = new VaadinServletService(new VaadinServlet(), new DefaultDeploymentConfiguration(getClass(),
+				new Properties()));
+		VaadinSession session = createSession(service, "destroyed");
+		VaadinSession.setCurrent(session);
+
+		MemoryUploadStorage storage = MemoryUploadStorage.getInstance();
+		UploadBlob blob = storage.createBlob("kept.txt", "text/plain");
+		blob.getOutputStream().write(new byte[1024]);
+		UploadBlob pooled = storage.createBlob(new ReceivePlan(ReceivePlan.Strategy.POOLED, -1, 256, "test"));
+		pooled.getOutputStream().write(new byte[1024]);
+
+		VaadinSession.setCurrent(createSession(service, "alive"));
+		UploadBlob other = storage.createBlob("other.txt", "text/plain");
+
+		service.fireSessionDestroy(session);
+
+		assertNull(storage.getBlob(blob.getId()));
+		assertNull(storage.getBlob(pooled.getId()));
+		assertNotNull(storage.getBlob(other.getId()));
+
+		other.release();
+	}
+
+	/*
+	 * Create a session of the service, in an HTTP session of the specified id.
+	 */
+	@SuppressWarnings("serial")
+	private static VaadinSession createSession(VaadinService service, final String id) {
+		final ReentrantLock lock = new ReentrantLock();
+		final WrappedSession httpSession = new WrappedSession() {
+
+			@Override
+			public String getId() {
+				return id;
+			}
+
+			@Override
+			public int getMaxInactiveInterval() {
+				return 0;
+			}
+
+			@Override
+			public Object getAttribute(String name) {
+				return null;
+			}
+
+			@Override
+			public void setAttribute(String name, Object value) {
+			}
+
+			@Override
+			public Set<String> getAttributeNames() {
+				return Collections.emptySet();
+			}
+
+			@Override
+			public void invalidate() {
+			}
+
+			@Override
+			public long getCreationTime() {
+				return 0;
+			}
+
+			@Override
+			public long getLastAccessedTime() {
+				return 0;
+			}
+
+			@Override
+			public boolean isNew() {
+				return false;
+			}
+
+			@Override
+			public void removeAttribute(String name) {
+			}
+
+			@Override
+			public void setMaxInactiveInterval(int interval) {
+			}
+
+		};
+
+		return new VaadinSession(service) {
+
+			@Override
+			public WrappedSession getSession() {
+				return httpSession;
+			}
+
+			@Override
+			public boolean hasLock() {
+				return lock.isHeldByCurrentThread();
+			}
+
+			@Override
+			public void lock() {
+				lock.lock();
+			}
+
+			@Override
+			public void unlock() {
+				lock.unlock();
+			}
+
+		};
+	}
+
+}
@@ -0,0 +1,141 @@
+package org.vaadin.addons.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.vaadin.addons.upload.RecordReceiver.RecordBatch;
+import org.vaadin.addons.upload.RecordReceiver.RecordBatchConsumer;
+
+/**
+ * Tests the splitting of the uploaded data in records.
+ *
+ * @author bogdanudrescu
+ */
+public class RecordReceiverTest {
+
+	/*
+	 * The records received, and whether the last or an aborted batch was received.
+	 */
+	private final List<String> records = new ArrayList<>();
+	private boolean last;
+	private boolean aborted;
+
+	/*
+	 * Collects the records.
+	 */
+	private final RecordBatchConsumer consumer = new RecordBatchConsumer() {
+
+		@Override
+		public void consume(RecordBatch batch) {
+			for (int i = 0; i < batch.getRecordCount(); i++) {
+				records.add(new String(batch.getBuffer(), batch.getRecordStart(i), batch.getRecordLength(i), StandardCharsets.UTF_8));
+			}
+			last = batch.isLast();
+			aborted = batch.isAborted();
+		}
+
+	};
+
+	@Test
+	public void splitsRecords() throws IOException {
+		receive(new RecordReceiver(2, consumer), "a\nbb\r\nccc\ndddd", 3);
+
+		assertEquals(Arrays.asList("a", "bb", "ccc", "dddd"), records);
+		assertTrue(last);
+	}
+
+	@Test(timeout = 10000)
+	public void skipsBlankLinesFillingTheBuffer() throws IOException {
+		receive(new RecordReceiver(consumer), repeat("\n", 2 * 1024 * 1024), 8192);
+
+		assertEquals(0, records.size());
+		assertTrue(last);
+	}
+
+	@Test(timeout = 10000)
+	public void skipsBlankLinesLongerThanTheMaxRecordLength() throws IOException {
+		RecordReceiver receiver = new RecordReceiver(consumer);
+		receiver.setMaxRecordLength(100);
+
+		receive(receiver, "first\n" + repeat("\n", 300) + "second\n" + repeat("\r\n", 300) + "third", 7);
+
+		assertEquals(Arrays.asList("first", "second", "third"), records);
+		assertTrue(last);
+	}
+
+	@Test
+	public void failsOnRecordLongerThanTheMaxRecordLength() {
+		RecordReceiver receiver = new RecordReceiver(consumer);
+		receiver.setMaxRecordLength(100);
+
+		try {
+			receive(receiver, "short\n" + repeat("x", 200) + "\n", 16);
+			fail("The long record was accepted");
+
+		} catch (IOException e) {
+			assertEquals(Arrays.asList("short"), records);
+		}
+	}
+
+	@Test
+	public void dropsTheIncompleteRecordWhenTheUploadFails() throws IOException {
+		UploadSession session = new UploadSession();
+		session.setReceiver(new RecordReceiver(consumer));
+		session.start("records.txt", "text/plain", -1);
+
+		OutputStream stream = session.receive("records.txt", "text/plain");
+		stream.write("first\nsecond\ntrunc".getBytes(StandardCharsets.UTF_8));
+		session.fail(new IOException("Connection reset"));
+
+		assertEquals(Arrays.asList("first", "second"), records);
+		assertFalse(last);
+		assertTrue(aborted);
+	}
+
+	/*
+	 * Receive the data through a session, in writes of the specified size.
+	 */
+	private static void receive(RecordReceiver receiver, String data, int writeSize) throws IOException {
+		byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+
+		UploadSession session = new UploadSession();
+		session.setReceiver(receiver);
+		session.start("records.txt", "text/plain", bytes.length);
+
+		OutputStream stream = session.receive("records.txt", "text/plain");
+		try {
+			for (int off = 0; off < bytes.length; off += writeSize) {
+				stream.write(bytes, off, Math.min(writeSize, bytes.length - off));
+			}
+			stream.close();
+
+		} catch (IOException e) {
+			session.fail(e);
+			throw e;
+		}
+
+		session.succeed();
+	}
+
+	/*
+	 * Repeat the text.
+	 */
+	private static String repeat(String text, int count) {
+		StringBuilder builder = new StringBuilder(text.length() * count);
+		for (int i = 0; i < count; i++) {
+			builder.append(text);
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.vaadin.addons.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import org.vaadin.addons.upload.UploadHistory.HistoryEntry;
+
+/**
+ * Tests the reading and the sharing of the upload histories.
+ *
+ * @author bogdanudrescu
+ */
+public class UploadHistoryTest {
+
+	@Test
+	public void readsTheEntriesAppendedAfterEachRead() throws IOException {
+		UploadHistory history = UploadHistory.open(createDirectory(), "appended");
+		try {
+			for (int i = 0; i < 100; i++) {
+				history.append(entry(i));
+
+				// The latest, read through the channel or the mapping, and one mapped before.
+				assertEquals("file" + i, history.get(i).getFilename());
+				assertEquals("file" + i / 2, history.get(i / 2).getFilename());
+			}
+
+			assertEquals(100, history.getPage(0, 100).size());
+
+		} finally {
+			history.close();
+		}
+	}
+
+	@Test
+	public void sharedHistoryIsClosedByTheLastUser() throws IOException {
+		File directory = createDirectory();
+		UploadHistory history = UploadHistory.open(directory, "shared");
+		UploadHistory other = UploadHistory.open(directory, "shared");
+		assertSame(history, other);
+
+		history.append(entry(0));
+		other.close();
+
+		assertEquals("file0", history.get(0).getFilename());
+		history.close();
+
+		UploadHistory reopened = UploadHistory.open(directory, "shared");
+		try {
+			assertNotSame(history, reopened);
+			assertEquals(1, reopened.size());
+
+		} finally {
+			reopened.close();
+		}
+	}
+
+	/*
+	 * Create an entry of the specified number.
+	 */
+	private static HistoryEntry entry(int i) {
+		return new HistoryEntry(null, i, "file" + i, "text/plain", "blob" + i, i, i + 1);
+	}
+
+	/*
+	 * Create a new directory for the history files.
+	 */
+	private static File createDirectory() throws IOException {
+		return Files.createTempDirectory("upload-history-test").toFile();
+	}
+
+}
@@ -0,0 +1,258 @@
+package org.vaadin.addons.upload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vaadin.addons.upload.UploadProducer.UploadProducerAdapter;
+import org.vaadin.addons.upload.UploadProgress.UploadEventsHandler;
+import org.vaadin.addons.upload.UploadProgress.UploadStatus;
+
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.CssLayout;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.Upload.StartedEvent;
+import com.vaadin.ui.Upload.SucceededEvent;
+
+/**
+ * Tests when the data of an upload is released.
+ *
+ * @author bogdanudrescu
+ */
+public class UploadProgressTest {
+
+	/*
+	 * The uploaded content.
+	 */
+	private static final byte[] DATA = "uploaded".getBytes(StandardCharsets.UTF_8);
+
+	/*
+	 * Two parents of the uploads, in a UI of a session with no service.
+	 */
+	private CssLayout parent = new CssLayout();
+	private CssLayout otherParent = new CssLayout();
+
+	/*
+	 * The session of the UI, locked with a plain lock.
+	 */
+	private VaadinSession session;
+
+	@Before
+	@SuppressWarnings("serial")
+	public void createUI() {
+		final ReentrantLock lock = new ReentrantLock();
+		session = new VaadinSession(null) {
+
+			@Override
+			public boolean hasLock() {
+				return lock.isHeldByCurrentThread();
+			}
+
+			@Override
+			public void lock() {
+				lock.lock();
+			}
+
+			@Override
+			public void unlock() {
+				lock.unlock();
+			}
+
+		};
+		VaadinSession.setCurrent(session);
+
+		UI ui = new UI() {
+
+			@Override
+			protected void init(VaadinRequest request) {
+			}
+
+		};
+		ui.setSession(session);
+
+		// Like a request thread.
+		session.lock();
+		ui.setContent(new CssLayout(parent, otherParent));
+	}
+
+	@After
+	public void removeUI() {
+		session.unlock();
+		VaadinSession.setCurrent(null);
+	}
+
+	@Test
+	public void movingKeepsTheDataOfADoneUpload() throws IOException {
+		UploadProgress uploadProgress = new UploadProgress();
+		parent.addComponent(uploadProgress);
+		UploadSession session = uploadProgress.getUploadSession();
+		upload(uploadProgress);
+
+		otherParent.addComponent(uploadProgress);
+
+		assertEquals(UploadStatus.DONE, session.getStatus());
+		assertTrue(session.hasStoredData());
+		assertArrayEquals(DATA, session.getBytes());
+	}
+
+	@Test
+	public void detachingCancelsAnActiveUpload() throws IOException {
+		UploadProgress uploadProgress = new UploadProgress();
+		parent.addComponent(uploadProgress);
+		UploadSession session = uploadProgress.getUploadSession();
+
+		UploadEventsHandler handler = uploadProgress.getUploadEventsHandler();
+		handler.uploadStarted(new StartedEvent(uploadProgress.getUpload(), "active.txt", "text/plain", DATA.length * 2));
+		handler.receiveUpload("active.txt", "text/plain").write(DATA);
+
+		parent.removeComponent(uploadProgress);
+
+		assertEquals(UploadStatus.CANCELED, session.getStatus());
+		assertFalse(session.hasStoredData());
+	}
+
+	@Test
+	public void removingFromTheProducerReleasesTheData() throws IOException {
+		final List<UploadProgress> produced = new ArrayList<>();
+		UploadProducer producer = new UploadProducer(new UploadProducerAdapter() {
+
+			@Override
+			public void uploadProgressProduced(UploadProgress uploadProgress) {
+				produced.add(uploadProgress);
+			}
+
+		});
+
+		UploadProgress uploadProgress = produced.get(0);
+		parent.addComponent(uploadProgress);
+		UploadSession session = uploadProgress.getUploadSession();
+		upload(uploadProgress);
+
+		parent.removeComponent(uploadProgress);
+		assertTrue(session.hasStoredData());
+
+		producer.removeUpload(uploadProgress);
+		assertFalse(session.hasStoredData());
+	}
+
+	@Test
+	public void detachedWithoutReleaseIsReportedAsLeak() throws IOException {
+		UploadLeakDetector.setEnabled(true);
+		UploadLeakDetector.setGracePeriod(0);
+		try {
+			UploadProgress moved = new UploadProgress();
+			parent.addComponent(moved);
+			upload(moved);
+
+			UploadProgress dropped = new UploadProgress();
+			parent.addComponent(dropped);
+			upload(dropped);
+
+			otherParent.addComponent(moved);
+			parent.removeComponent(dropped);
+
+			List<String> leaks = UploadLeakDetector.check();
+			assertEquals(1, leaks.size());
+			assertTrue(leaks.get(0), leaks.get(0).contains("detached without being released"));
+
+			dropped.release();
+
+		} finally {
+			UploadLeakDetector.setEnabled(false);
+			UploadLeakDetector.setGracePeriod(UploadLeakDetector.DEFAULT_GRACE_PERIOD);
+		}
+	}
+
+	@Test
+	@SuppressWarnings("serial")
+	public void processingEndsUnderTheSessionLockWhenDetached() throws Exception {
+		final CountDownLatch processing = new CountDownLatch(1);
+		final CountDownLatch detached = new CountDownLatch(1);
+		final CountDownLatch processed = new CountDownLatch(1);
+		final AtomicBoolean locked = new AtomicBoolean();
+
+		final List<UploadProgress> produced = new ArrayList<>();
+		UploadProducer producer = new UploadProducer(new UploadProducerAdapter() {
+
+			@Override
+			public void uploadProgressProduced(UploadProgress uploadProgress) {
+				produced.add(uploadProgress);
+			}
+
+			@Override
+			public void uploadProcessed(UploadProgress uploadProgress, PostProcessingResult result) {
+				locked.set(session.hasLock());
+				processed.countDown();
+			}
+
+		});
+
+		PostProcessingExecutor executor = new PostProcessingExecutor(1, 1, 0);
+		producer.setPostProcessingExecutor(executor);
+		producer.setPostProcessor(new UploadPostProcessor() {
+
+			@Override
+			public Object process(UploadProgress uploadProgress) throws Exception {
+				processing.countDown();
+				detached.await();
+				return null;
+			}
+
+		});
+
+		try {
+			UploadProgress uploadProgress = produced.get(0);
+			parent.addComponent(uploadProgress);
+			upload(uploadProgress);
+
+			assertTrue(processing.await(10, TimeUnit.SECONDS));
+			parent.removeComponent(uploadProgress);
+
+			// The request ends.
+			session.unlock();
+			try {
+				detached.countDown();
+				assertTrue(processed.await(10, TimeUnit.SECONDS));
+			} finally {
+				session.lock();
+			}
+
+			assertTrue("The listener was called without the session lock", locked.get());
+			assertFalse(uploadProgress.isProcessing());
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/*
+	 * Upload the data through the Vaadin upload events.
+	 */
+	private static void upload(UploadProgress uploadProgress) throws IOException {
+		UploadEventsHandler handler = uploadProgress.getUploadEventsHandler();
+		handler.uploadStarted(new StartedEvent(uploadProgress.getUpload(), "done.txt", "text/plain", DATA.length));
+
+		OutputStream stream = handler.receiveUpload("done.txt", "text/plain");
+		stream.write(DATA);
+		stream.close();
+
+		handler.updateProgress(DATA.length, DATA.length);
+		handler.uploadSucceeded(new SucceededEvent(uploadProgress.getUpload(), "done.txt", "text/plain", DATA.length));
+	}
+
+}
@@ -0,0 +1,55 @@
+package org.vaadin.addons.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vaadin.addons.upload.UploadProgress.UploadStatus;
+import org.vaadin.addons.upload.UploadSession.RejectReason;
+
+/**
+ * Tests how an upload session ends when the storage is full.
+ *
+ * @author bogdanudrescu
+ */
+public class UploadSessionTest {
+
+	/*
+	 * A session storing in a storage with no room left.
+	 */
+	private UploadSession session = new UploadSession();
+
+	@Before
+	public void fillStorage() throws IOException {
+		FileUploadStorage storage = FileUploadStorage.getInstance(Files.createTempDirectory("upload-session-test").toFile());
+		storage.setQuota(0);
+		session.setStorage(storage);
+	}
+
+	@Test
+	public void reusedContentIsNotRejectedByTheQuota() {
+		session.start("reused.txt", "text/plain", 1024);
+		session.reuse("digest", "reference");
+
+		assertEquals(UploadStatus.DONE, session.getStatus());
+		assertEquals("reference", session.getContentReference());
+	}
+
+	@Test
+	public void receivedContentIsRejectedByTheQuota() throws IOException {
+		session.start("received.txt", "text/plain", 1024);
+		OutputStream stream = session.receive("received.txt", "text/plain");
+		stream.write(new byte[1024]);
+		session.fail(null);
+
+		assertEquals(UploadStatus.REJECTED, session.getStatus());
+		assertEquals(RejectReason.QUOTA_EXCEEDED, session.getRejectReason());
+		assertFalse(session.hasStoredData());
+	}
+
+}